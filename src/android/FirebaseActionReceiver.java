@@ -26,6 +26,7 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
 
     private static final String TAG = "FirebasePlugin";
     public static final String ACTION_CLICK = "org.apache.cordova.firebase.ACTION_CLICK";
+    public static final String ACTION_DISMISSED = "org.apache.cordova.firebase.ACTION_DISMISSED";
     public static final String KEY_TEXT_REPLY = "key_text_reply";
 
     @Override
@@ -38,7 +39,13 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
                 return;
             }
 
-            Bundle extras = intent.getExtras();
+            if (ACTION_DISMISSED.equals(intent.getAction())) {
+                onNotificationDismissed(context, intent.getExtras());
+                return;
+            }
+
+            // Restore the payload the intent references; the notification is dismissed below so it is evicted
+            Bundle extras = FirebasePluginPayloadStore.rehydrate(context, intent.getExtras(), true);
             String action = extras.getString("action");
             int notificationId = extras.getInt("notificationId", -1);
 
@@ -58,11 +65,14 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
 
             // Dismiss the notification
             if (notificationId != -1) {
+                FirebasePluginNotificationIdAllocator idAllocator = FirebasePluginNotificationIdAllocator.getInstance(context);
+                Log.d(TAG, "FirebaseActionReceiver: Dismissing notification for " + idAllocator.lookup(notificationId));
                 NotificationManager notificationManager = 
                     (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
                 if (notificationManager != null) {
                     notificationManager.cancel(notificationId);
                 }
+                idAllocator.release(notificationId);
             }
 
             // Build the result bundle to send to JavaScript
@@ -76,21 +86,21 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
                 Log.d(TAG, "FirebaseActionReceiver: Reply text=" + replyText);
             }
 
-            // Copy all original notification data
-            for (String key : extras.keySet()) {
-                if (!key.equals("action") && !key.equals("notificationId")) {
-                    Object value = extras.get(key);
-                    if (value instanceof String) {
-                        resultBundle.putString(key, (String) value);
-                    }
-                }
-            }
+            // Copy all original notification data - values keep their types when encoded for JavaScript
+            Bundle originalData = new Bundle(extras);
+            originalData.remove("action");
+            originalData.remove("notificationId");
+            resultBundle.putAll(originalData);
 
             // Send the action result to JavaScript - force immediate delivery
             sendActionToJavaScript(resultBundle, context);
             
-            // Open the app only for actions that require it (not reply, mark_read or dismiss)
-            if (!action.equals("reply") && !action.equals("mark_read") && !action.equals("dismiss")) {
+            // Open the app only for actions that require it (not reply, mark_read or dismiss, or routed actions without UI)
+            FirebasePluginActionRouter.Route route = FirebasePluginActionRouter.getInstance(context).get(action);
+            boolean requiresUi = route != null
+                    ? route.requiresUi
+                    : !action.equals("reply") && !action.equals("mark_read") && !action.equals("dismiss");
+            if (requiresUi) {
                 Log.d(TAG, "FirebaseActionReceiver: Launching main activity");
                 
                 try {
@@ -102,7 +112,7 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
                         // Critical: Add FLAG_ACTIVITY_NEW_TASK to allow starting from non-Activity context
                         // The notification click gives us a temporary allowlist to start activities
                         launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        launchIntent.putExtras(resultBundle);
+                        launchIntent.putExtras(FirebasePluginPayloadStore.launchExtras(context, resultBundle));
                         
                         // Start the activity directly - we have allowlist from notification click
                         context.startActivity(launchIntent);
@@ -117,17 +127,24 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
                 Log.d(TAG, "FirebaseActionReceiver: " + action + " action - not opening app");
             }
             
-            // If app is killed (no callback registered), send via HTTP service
-            if (!FirebasePlugin.hasNotificationsCallback()) {
-                Log.d(TAG, "FirebaseActionReceiver: No callback registered, starting HTTP service");
+            // Routed actions are sent natively whether or not the app is running
+            if (route != null) {
+                FirebasePluginActionRouter.getInstance(context).dispatch(route, resultBundle);
+            } else if (!FirebasePlugin.hasNotificationsCallback()) {
+                // If app is killed (no callback registered), send via HTTP in the outbox,
+                // which waits for a connection and retries failures even if the process is killed again
+                Log.d(TAG, "FirebaseActionReceiver: No callback registered, queueing HTTP request");
                 
                 String apiUrl = resultBundle.getString("apiUrl");
                 String authToken = resultBundle.getString("authToken");
                 
                 if (apiUrl != null && authToken != null) {
-                    Intent serviceIntent = new Intent(context, FirebaseHttpService.class);
-                    serviceIntent.putExtras(resultBundle);
-                    context.startService(serviceIntent);
+                    if (action.equals("mark_read")) {
+                        // Read receipts are sent in batches
+                        FirebaseHttpService.batchReadReceipt(context, resultBundle);
+                    } else {
+                        FirebaseHttpService.enqueueAction(context, resultBundle);
+                    }
                 } else {
                     Log.w(TAG, "FirebaseActionReceiver: Missing apiUrl or authToken, cannot send HTTP request");
                 }
@@ -140,6 +157,21 @@ public class FirebaseActionReceiver extends BroadcastReceiver {
     }
 
 
+    /**
+     * Releases what was held for a notification the user swiped away.
+     */
+    private void onNotificationDismissed(Context context, Bundle extras) {
+        String payloadKey = extras.getString(FirebasePluginPayloadStore.EXTRA_PAYLOAD_KEY);
+        if (payloadKey != null) {
+            FirebasePluginPayloadStore.getInstance(context).remove(payloadKey);
+        }
+        int notificationId = extras.getInt("notificationId", -1);
+        if (notificationId != -1) {
+            FirebasePluginNotificationIdAllocator.getInstance(context).release(notificationId);
+        }
+        Log.d(TAG, "FirebaseActionReceiver: Notification " + notificationId + " dismissed");
+    }
+
     /**
      * Sends the action button result to JavaScript via FirebasePlugin.sendMessage
      * When app is in background, message will be queued and delivered when app opens
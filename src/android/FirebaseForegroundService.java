@@ -15,6 +15,7 @@ import androidx.core.app.NotificationCompat;
 /**
  * Foreground service to keep app alive for FCM message processing
  * This ensures onMessageReceived is called even when app is in background
+ * Started and stopped by FirebasePluginKeepalive, which keeps it running while any lease is live
  */
 public class FirebaseForegroundService extends Service {
     
@@ -64,14 +65,8 @@ public class FirebaseForegroundService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "FirebaseForegroundService: onStartCommand");
         
-        // Auto-stop after 3 seconds to minimize notification visibility
-        new android.os.Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(TAG, "FirebaseForegroundService: Auto-stopping after 3 seconds");
-                stopSelf();
-            }
-        }, 3000);
+        // Stopped by the keepalive once the last lease expires, to minimize notification visibility
+        FirebasePluginKeepalive.onServiceStarted(this);
         
         // Check if this is a request to launch the app for action button
         if (intent != null && "LAUNCH_APP_FOR_ACTION".equals(intent.getAction())) {
@@ -84,9 +79,14 @@ public class FirebaseForegroundService extends Service {
     
     @Override
     public void onTaskRemoved(Intent rootIntent) {
+        // Restart the service when app is swiped away from recent apps, but only if it is still needed
+        if (!FirebasePluginKeepalive.hasLiveLeases()) {
+            Log.d(TAG, "FirebaseForegroundService: onTaskRemoved - no live leases, not restarting");
+            super.onTaskRemoved(rootIntent);
+            return;
+        }
         Log.d(TAG, "FirebaseForegroundService: onTaskRemoved - restarting service");
         
-        // Restart the service when app is swiped away from recent apps
         Intent restartServiceIntent = new Intent(getApplicationContext(), this.getClass());
         restartServiceIntent.setPackage(getPackageName());
         
@@ -148,5 +148,6 @@ public class FirebaseForegroundService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "FirebaseForegroundService: onDestroy");
+        FirebasePluginKeepalive.onServiceStopped();
     }
 }
@@ -1,28 +1,52 @@
 package org.apache.cordova.firebase;
 
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
 import android.widget.Toast;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+import okhttp3.Request;
+import okhttp3.Response;
 
 /**
  * Temporary service to send HTTP request when app is killed
- * Starts, sends request, and immediately stops
+ * Starts, sends requests via FirebasePluginHttpClient, and stops once none are in flight
+ *
+ * Notification actions are normally sent via the outbox: ActionJobs in FirebasePluginJobQueue, which wait for a network
+ * connection and retry failed requests; the service remains for callers which start it directly, and puts requests
+ * which fail into the outbox.
+ * Each action has an idempotency key derived from its message and action, so duplicate taps collapse into one
+ * outbox record, and the key is sent with the request so the server can discard a retry of a request it already handled.
  */
 public class FirebaseHttpService extends Service {
     
     private static final String TAG = "FirebasePlugin";
 
+    private static final long MAX_LOGGED_RESPONSE_BYTES = 1024;
+
+    static final String EXTRA_IDEMPOTENCY_KEY = "idempotencyKey";
+    // Set on actions the user has already been told about, e.g. read receipts the batcher retries individually
+    static final String EXTRA_QUIET = "quiet";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    // Guarded by this, so a start can't slip in between checking for requests in flight and stopping
+    private int inFlight = 0;
+    private int lastStartId;
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -31,58 +55,181 @@ public class FirebaseHttpService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null || intent.getExtras() == null) {
-            stopSelf();
+            synchronized (this) {
+                lastStartId = startId;
+            }
+            stopIfIdle();
             return START_NOT_STICKY;
         }
 
         final Bundle bundle = intent.getExtras();
+        synchronized (this) {
+            lastStartId = startId;
+            inFlight++;
+        }
         
-        // Send HTTP request in background thread
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                sendHttpRequest(bundle);
-                // Stop service immediately after request
-                stopSelf();
-            }
-        }).start();
+        // Send HTTP request on the shared HTTP executor
+        try {
+            FirebasePluginHttpClient.getInstance(this).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!sendHttpRequest(FirebaseHttpService.this, bundle)) {
+                            enqueueAction(FirebaseHttpService.this, bundle);
+                        }
+                    } finally {
+                        requestDone();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "FirebaseHttpService: Too many requests queued, dropping action " + bundle.getString("action"));
+            requestDone();
+        }
 
         return START_NOT_STICKY;
     }
 
-    private void sendHttpRequest(Bundle bundle) {
+    /**
+     * Stops the service once all requests are done.
+     * stopSelf(startId) is a no-op if the service has been started again since, in which case that request stops it.
+     */
+    private synchronized void stopIfIdle() {
+        if (inFlight == 0) {
+            stopSelf(lastStartId);
+        }
+    }
+
+    private synchronized void requestDone() {
+        inFlight--;
+        stopIfIdle();
+    }
+
+    /**
+     * Puts a notification action into the outbox, to be sent once there is a network connection.
+     * @param bundle the action's extras; only string values are kept
+     * @return the ID of the outbox record, which is that of an existing record if the action is a duplicate, or -1 on failure
+     */
+    static long enqueueAction(Context context, Bundle bundle) {
+        JSONObject args = new JSONObject();
+        try {
+            for (String key : bundle.keySet()) {
+                Object value = bundle.get(key);
+                if (value instanceof String) {
+                    args.put(key, value);
+                }
+            }
+            String idempotencyKey = bundle.getString(EXTRA_IDEMPOTENCY_KEY);
+            if (idempotencyKey == null) {
+                idempotencyKey = idempotencyKey(bundle);
+                args.put(EXTRA_IDEMPOTENCY_KEY, idempotencyKey);
+            }
+            return FirebasePluginJobQueue.getInstance(context).enqueue(FirebasePluginJobQueue.TYPE_HTTP_ACTION, args,
+                    FirebasePluginJobQueue.CONSTRAINT_NETWORK, idempotencyKey);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return status of the outbox: its depth and a summary of each pending action, without its credentials
+     */
+    static JSONObject getOutboxStatus(Context context) throws JSONException {
+        List<JSONObject> jobs = FirebasePluginJobQueue.getInstance(context).getJobs(FirebasePluginJobQueue.TYPE_HTTP_ACTION);
+        JSONArray items = new JSONArray();
+        for (JSONObject job : jobs) {
+            JSONObject args = job.optJSONObject("args");
+            JSONObject item = new JSONObject();
+            item.put("id", job.optLong("id"));
+            item.put("action", args != null ? args.optString("action", null) : null);
+            item.put("messageId", args != null ? args.optString("id", null) : null);
+            item.put("attempts", job.optInt("attempts"));
+            item.put("createdAt", job.optLong("createdAt"));
+            if (job.has("nextAttemptAt")) {
+                item.put("nextAttemptAt", job.optLong("nextAttemptAt"));
+            }
+            item.put("lastError", job.optString("lastError", null));
+            items.put(item);
+        }
+        JSONObject status = new JSONObject();
+        status.put("depth", jobs.size());
+        status.put("items", items);
+        return status;
+    }
+
+    /**
+     * @return key identifying the action on a message, including the reply text so only identical replies collapse
+     */
+    static String idempotencyKey(Bundle bundle) {
+        StringBuilder source = new StringBuilder()
+                .append(bundle.getString("id", "")).append('|')
+                .append(bundle.getString("messageId", "")).append('|')
+                .append(bundle.getString("action", ""));
+        String replyText = bundle.getString("replyText");
+        if (replyText != null) {
+            source.append('|').append(replyText);
+        }
+        if (bundle.getString("id") == null && bundle.getString("messageId") == null) {
+            // Nothing identifies the message, so each action is distinct
+            source.append('|').append(UUID.randomUUID());
+        }
+        return UUID.nameUUIDFromBytes(source.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Sends the HTTP request for a notification action as a job queue job.
+     * Args are the action's string extras.
+     */
+    static class ActionJob implements FirebasePluginJobQueue.Handler {
+        @Override
+        public boolean run(Context context, JSONObject args) throws Exception {
+            Bundle bundle = new Bundle();
+            Iterator<String> keys = args.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                bundle.putString(key, args.getString(key));
+            }
+            return sendHttpRequest(context, bundle);
+        }
+    }
+
+    /**
+     * @return false if the request failed in a way that is worth retrying, i.e. it couldn't be sent or the server errored
+     */
+    static boolean sendHttpRequest(Context context, Bundle bundle) {
         String action = bundle.getString("action");
         
         Log.d(TAG, "FirebaseHttpService: Processing action: " + action);
         
         if (action == null) {
             Log.w(TAG, "FirebaseHttpService: Action is null");
-            return;
+            return true;
         }
         
         // Handle different action types
         if (action.equals("reply")) {
-            sendReplyMessage(bundle);
+            return sendReplyMessage(context, bundle);
         } else if (action.equals("mark_read")) {
-            markMessageAsRead(bundle);
+            return markMessageAsRead(context, bundle);
         } else if (action.equals("dismiss")) {
             // Just dismiss - notification already closed in FirebaseActionReceiver
             Log.d(TAG, "FirebaseHttpService: Dismiss action - nothing to do");
-            showToast("Dismissed");
+            showToast(context, "Dismissed");
         } else {
             Log.w(TAG, "FirebaseHttpService: Unknown action: " + action);
         }
+        return true;
     }
     
-    private void sendReplyMessage(Bundle bundle) {
-        HttpURLConnection connection = null;
+    private static boolean sendReplyMessage(Context context, Bundle bundle) {
         try {
             String apiUrl = bundle.getString("apiUrl");
             String authToken = bundle.getString("authToken");
             
             if (apiUrl == null || authToken == null) {
                 Log.w(TAG, "FirebaseHttpService: Missing apiUrl or authToken");
-                return;
+                return true;
             }
 
             Log.d(TAG, "FirebaseHttpService: Sending reply to " + apiUrl);
@@ -99,60 +246,14 @@ public class FirebaseHttpService extends Service {
             JSONObject payload = new JSONObject();
             payload.put("message", messageData);
             
-            Log.d(TAG, "FirebaseHttpService: Request payload: " + payload.toString());
-            
-            // Setup HTTP connection
-            URL url = new URL(apiUrl + "api/messages");
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("X-Auth-Token", authToken);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            
-            // Send request
-            OutputStream os = connection.getOutputStream();
-            os.write(payload.toString().getBytes("UTF-8"));
-            os.flush();
-            os.close();
-            
-            // Get response
-            int responseCode = connection.getResponseCode();
-            Log.d(TAG, "FirebaseHttpService: HTTP response code: " + responseCode);
-            
-            if (responseCode >= 200 && responseCode < 300) {
-                // Read response body
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream())
-                );
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-                
-                Log.d(TAG, "FirebaseHttpService: Response: " + response.toString());
-                Log.d(TAG, "FirebaseHttpService: Reply sent successfully");
-                showToast("Reply sent");
-            } else {
-                Log.e(TAG, "FirebaseHttpService: Server returned error: " + responseCode);
-                showToast("Failed to send reply");
-            }
-            
+            return post(context, apiUrl + "api/messages", authToken, bundle.getString(EXTRA_IDEMPOTENCY_KEY), payload, "Reply sent", "Failed to send reply");
         } catch (Exception e) {
-            Log.e(TAG, "FirebaseHttpService: HTTP request failed", e);
-            showToast("Error: " + e.getMessage());
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            Log.e(TAG, "FirebaseHttpService: HTTP request failed, will retry", e);
+            return false;
         }
     }
     
-    private void markMessageAsRead(Bundle bundle) {
-        HttpURLConnection connection = null;
+    private static boolean markMessageAsRead(Context context, Bundle bundle) {
         try {
             String apiUrl = bundle.getString("apiUrl");
             String authToken = bundle.getString("authToken");
@@ -160,67 +261,111 @@ public class FirebaseHttpService extends Service {
             
             if (apiUrl == null || authToken == null) {
                 Log.w(TAG, "FirebaseHttpService: Missing apiUrl or authToken");
-                return;
+                return true;
             }
             
             if (messageId == null) {
                 Log.w(TAG, "FirebaseHttpService: Missing messageId for mark_read action");
-                showToast("Cannot mark as read - missing message ID");
-                return;
+                showToast(context, "Cannot mark as read - missing message ID");
+                return true;
             }
 
             Log.d(TAG, "FirebaseHttpService: Marking message as read: " + messageId);
-            
-            // Build payload
+
+            // Sent on its own rather than through the receipt batcher, which puts receipts it fails to send in the outbox
+            boolean quiet = "true".equals(bundle.getString(EXTRA_QUIET));
+            return sendReadReceipt(context, apiUrl, authToken, messageId, bundle.getString(EXTRA_IDEMPOTENCY_KEY),
+                    quiet ? null : "Marked as read", quiet ? null : "Failed to mark as read");
+        } catch (Exception e) {
+            Log.e(TAG, "FirebaseHttpService: Failed to mark message as read", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds a read receipt for a mark_read action to the receipt batcher, which persists it until it has been sent.
+     * @return false if the action doesn't identify the message or where to send the receipt
+     */
+    static boolean batchReadReceipt(Context context, Bundle bundle) {
+        String apiUrl = bundle.getString("apiUrl");
+        String authToken = bundle.getString("authToken");
+        String messageId = bundle.getString("messageId");
+        if (apiUrl == null || authToken == null || messageId == null) {
+            Log.w(TAG, "FirebaseHttpService: Missing apiUrl, authToken or messageId for mark_read action");
+            return false;
+        }
+        FirebasePluginReceiptBatcher.getInstance(context).add(FirebasePluginReceiptBatcher.TYPE_READ, messageId, apiUrl, authToken);
+        showToast(context, "Marked as read");
+        return true;
+    }
+
+    /**
+     * Sends a single read receipt to the mark-read endpoint, for servers without the batch receipts endpoint.
+     * @return false if the request failed in a way that is worth retrying
+     */
+    static boolean sendReadReceipt(Context context, String apiUrl, String authToken, String messageId) {
+        return sendReadReceipt(context, apiUrl, authToken, messageId, null, null, null);
+    }
+
+    private static boolean sendReadReceipt(Context context, String apiUrl, String authToken, String messageId, String idempotencyKey, String successMessage, String failureMessage) {
+        try {
             JSONObject payload = new JSONObject();
             payload.put("messageId", messageId);
-            
-            Log.d(TAG, "FirebaseHttpService: Request payload: " + payload.toString());
-            
-            // Setup HTTP connection
-            URL url = new URL(apiUrl + "api/messages/mark-read");
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("X-Auth-Token", authToken);
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            
-            // Send request
-            OutputStream os = connection.getOutputStream();
-            os.write(payload.toString().getBytes("UTF-8"));
-            os.flush();
-            os.close();
-            
-            // Get response
-            int responseCode = connection.getResponseCode();
-            Log.d(TAG, "FirebaseHttpService: HTTP response code: " + responseCode);
-            
-            if (responseCode >= 200 && responseCode < 300) {
-                Log.d(TAG, "FirebaseHttpService: Message marked as read successfully");
-                showToast("Marked as read");
+            return post(context, apiUrl + "api/messages/mark-read", authToken, idempotencyKey, payload, successMessage, failureMessage);
+        } catch (Exception e) {
+            Log.e(TAG, "FirebaseHttpService: HTTP request failed, will retry", e);
+            return false;
+        }
+    }
+
+    /**
+     * Posts the payload over the shared HTTP client, reusing a pooled connection to the API where possible.
+     * @param successMessage toast shown on success, or null for none
+     * @param failureMessage toast shown if the request is rejected, or null for none
+     * @return false if the request failed in a way that is worth retrying
+     */
+    private static boolean post(Context context, String url, String authToken, String idempotencyKey, JSONObject payload, String successMessage, String failureMessage) throws IOException {
+        Log.d(TAG, "FirebaseHttpService: Request payload: " + payload.toString());
+
+        Request.Builder request = FirebasePluginHttpClient.postJson(url, payload)
+                .header("X-Auth-Token", authToken);
+        if (idempotencyKey != null) {
+            request.header(IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
+        Response response = FirebasePluginHttpClient.getInstance(context).send(request.build());
+        try {
+            int responseCode = response.code();
+            Log.d(TAG, "FirebaseHttpService: HTTP response code: " + responseCode + " (" + response.protocol() + ")");
+
+            if (response.isSuccessful()) {
+                // The body is only logged, so don't buffer more of it than that
+                Log.d(TAG, "FirebaseHttpService: Response: " + response.peekBody(MAX_LOGGED_RESPONSE_BYTES).string());
+                if (successMessage != null) {
+                    Log.d(TAG, "FirebaseHttpService: " + successMessage);
+                    showToast(context, successMessage);
+                }
+            } else if (responseCode >= 500) {
+                Log.e(TAG, "FirebaseHttpService: Server returned error: " + responseCode + ", will retry");
+                return false;
             } else {
                 Log.e(TAG, "FirebaseHttpService: Server returned error: " + responseCode);
-                showToast("Failed to mark as read");
+                if (failureMessage != null) {
+                    showToast(context, failureMessage);
+                }
             }
-            
-        } catch (Exception e) {
-            Log.e(TAG, "FirebaseHttpService: HTTP request failed", e);
-            showToast("Error: " + e.getMessage());
+            return true;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            // Closing rather than disconnecting returns the connection to the pool
+            response.close();
         }
     }
 
-    private void showToast(final String message) {
-        android.os.Handler mainHandler = new android.os.Handler(getMainLooper());
+    private static void showToast(final Context context, final String message) {
+        android.os.Handler mainHandler = new android.os.Handler(context.getMainLooper());
         mainHandler.post(new Runnable() {
             @Override
             public void run() {
-                Toast.makeText(FirebaseHttpService.this, message, Toast.LENGTH_SHORT).show();
+                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
             }
         });
     }
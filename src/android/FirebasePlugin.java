@@ -3,8 +3,8 @@ package org.apache.cordova.firebase;
 import android.app.Activity;
 import android.app.NotificationManager;
 import android.app.NotificationChannel;
-import android.content.ContentResolver;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.content.pm.PackageManager;
 import android.media.RingtoneManager;
 import android.net.Uri;
@@ -24,6 +24,7 @@ import androidx.core.app.NotificationManagerCompat;
 
 import android.util.Base64;
 import android.util.Log;
+import android.webkit.ValueCallback;
 
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.auth.ActionCodeSettings;
@@ -120,7 +121,13 @@ import java.util.Date;
 import java.util.EnumMap;
 
 // Firebase PhoneAuth
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.firebase.FirebaseException;
 import com.google.firebase.auth.FirebaseAuthInvalidCredentialsException;
@@ -140,7 +147,9 @@ import static android.content.Context.MODE_PRIVATE;
 
 public class FirebasePlugin extends CordovaPlugin {
 
-    protected static FirebasePlugin instance = null;
+    // Static state is shared between the Cordova thread pool, the UI thread, FCM threads and Task callbacks,
+    // so fields written on one and read on another are volatile and registries are concurrent maps
+    protected static volatile FirebasePlugin instance = null;
     private FirebaseAnalytics mFirebaseAnalytics;
     private FirebaseCrashlytics firebaseCrashlytics;
     private FirebaseFirestore firestore;
@@ -150,12 +159,18 @@ public class FirebasePlugin extends CordovaPlugin {
     private FirebaseAuth.IdTokenListener idTokenListener;
     private boolean authStateChangeListenerInitialized = false;
     private String currentIdToken;
-    private static CordovaInterface cordovaInterface = null;
-    protected static Context applicationContext = null;
-    private static Activity cordovaActivity = null;
-    private static boolean pluginInitialized = false;
-    private static boolean onPageFinished = false;
-    private static ArrayList<String> pendingGlobalJS = null;
+    private static volatile CordovaInterface cordovaInterface = null;
+    protected static volatile Context applicationContext = null;
+    private static volatile Activity cordovaActivity = null;
+    private static volatile boolean pluginInitialized = false;
+    private static volatile boolean onPageFinished = false;
+    // Global JS is evaluated in one batch per frame, and held until the plugin is initialized and the page has loaded
+    private static final FirebasePluginJavascriptBatcher globalJavascriptBatcher = new FirebasePluginJavascriptBatcher(new FirebasePluginJavascriptBatcher.Evaluator() {
+        public boolean evaluate(String javascript, ValueCallback<String> onResult) {
+            FirebasePlugin plugin = FirebasePlugin.instance;
+            return plugin != null && plugin.evaluateGlobalJavascript(javascript, onResult);
+        }
+    });
     protected static final String TAG = "FirebasePlugin";
     protected static final String JS_GLOBAL_NAMESPACE = "FirebasePlugin.";
     protected static final String KEY = "badge";
@@ -176,23 +191,73 @@ public class FirebasePlugin extends CordovaPlugin {
     protected static final String POST_NOTIFICATIONS = "POST_NOTIFICATIONS";
     protected static final int POST_NOTIFICATIONS_PERMISSION_REQUEST_ID = 1;
 
-    private static boolean inBackground = true;
-    private static boolean immediateMessagePayloadDelivery = false;
-    private static ArrayList<Bundle> notificationStack = null;
-    private static CallbackContext notificationCallbackContext;
-    private static CallbackContext tokenRefreshCallbackContext;
-    private static CallbackContext activityResultCallbackContext;
-    private static CallbackContext authResultCallbackContext;
-    private static CallbackContext postNotificationPermissionRequestCallbackContext;
+    private static volatile boolean inBackground = true;
+    private static volatile boolean immediateMessagePayloadDelivery = false;
+    private static final int PENDING_NOTIFICATIONS_BATCH_SIZE = 50;
+    private static final int DEFAULT_MESSAGE_FRAME_MAX_SIZE = 64 * 1024;
+    // Sequence number of a journaled message, passed to ackMessages() by JavaScript
+    private static final String MESSAGE_SEQ_KEY = "_seq";
+    private static volatile boolean messageFramesEnabled = false;
+    private static volatile int messageFrameMaxSize = DEFAULT_MESSAGE_FRAME_MAX_SIZE;
+    // Used to drain the journal when a message arrives while the plugin isn't initialized, e.g. in a background start
+    private static final ThreadPoolExecutor drainFallbackExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    static {
+        drainFallbackExecutor.allowCoreThreadTimeOut(true);
+    }
+    // Drains the message journal to JavaScript on the thread pool, one drain at a time
+    private static final FirebasePluginDrainScheduler pendingNotificationsDrain = new FirebasePluginDrainScheduler(
+            new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    FirebasePlugin plugin = instance;
+                    if (plugin != null && plugin.cordova != null) {
+                        plugin.cordova.getThreadPool().execute(command);
+                    } else {
+                        drainFallbackExecutor.execute(command);
+                    }
+                }
+            },
+            new FirebasePluginDrainScheduler.Drain() {
+                @Override
+                public boolean hasWork() {
+                    return applicationContext != null && FirebasePlugin.hasNotificationsCallback() && hasMessageCredit()
+                            && hasUndeliveredMessages(FirebasePluginMessageJournal.getInstance(applicationContext));
+                }
+
+                @Override
+                public void drain() {
+                    drainPendingNotifications();
+                }
+            });
+    // Messages stay in the journal until acknowledged by JavaScript, so they are replayed if lost in the WebView.
+    // Reset whenever the callback changes, holding its lock so a drain sees the callback and cursor together
+    private static final FirebasePluginMessageDelivery messageDelivery = new FirebasePluginMessageDelivery();
+
+    // Flow-controlled streams of results to JavaScript (see FirebasePluginStreams), closed when the WebView is reset
+    private static final String MESSAGE_STREAM_ID = "messages";
+    private static final String TOKEN_REFRESH_STREAM_ID = "tokenRefresh";
+    private static final String AUTH_STATE_STREAM_ID = "authState";
+    private static final String AUTH_ID_TOKEN_STREAM_ID = "authIdToken";
+    private static volatile FirebasePluginStreams.Stream<PluginResult> messageStream;
+    private static volatile FirebasePluginStreams.Stream<PluginResult> tokenRefreshStream;
+    private static volatile FirebasePluginStreams.Stream<String> authStateStream;
+    private static volatile FirebasePluginStreams.Stream<String> authIdTokenStream;
+    private static volatile CallbackContext notificationCallbackContext;
+    private static volatile CallbackContext tokenRefreshCallbackContext;
+    private static volatile CallbackContext activityResultCallbackContext;
+    private static volatile CallbackContext authResultCallbackContext;
+    private static volatile CallbackContext postNotificationPermissionRequestCallbackContext;
 
     private static NotificationChannel defaultNotificationChannel = null;
     public static String defaultChannelId = null;
     public static String defaultChannelName = null;
 
-    private Map<String, AuthCredential> authCredentials = new HashMap<String, AuthCredential>();
-    private Map<String, OAuthProvider> authProviders = new HashMap<String, OAuthProvider>();
+    private final Map<String, AuthCredential> authCredentials = new ConcurrentHashMap<String, AuthCredential>();
+    private final Map<String, OAuthProvider> authProviders = new ConcurrentHashMap<String, OAuthProvider>();
 
-    private Map<String, ListenerRegistration> firestoreListeners = new HashMap<String, ListenerRegistration>();
+    private final Map<String, ListenerRegistration> firestoreListeners = new ConcurrentHashMap<String, ListenerRegistration>();
+    private final Map<String, FirebasePluginStreams.Stream<PluginResult>> firestoreListenerStreams = new ConcurrentHashMap<String, FirebasePluginStreams.Stream<PluginResult>>();
 
     private MultiFactorResolver multiFactorResolver = null;
 
@@ -204,6 +269,7 @@ public class FirebasePlugin extends CordovaPlugin {
         final Bundle extras = cordovaActivity.getIntent().getExtras();
         FirebasePlugin.cordovaInterface = this.cordova;
         firebaseCrashlytics = FirebaseCrashlytics.getInstance();
+        openGlobalStreams();
         this.cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
@@ -266,14 +332,13 @@ public class FirebasePlugin extends CordovaPlugin {
                             .create();
 
                     if (extras != null && extras.size() > 1) {
-                        if (FirebasePlugin.notificationStack == null) {
-                            FirebasePlugin.notificationStack = new ArrayList<Bundle>();
-                        }
                         if (extras.containsKey("google.message_id")) {
-                            extras.putString("messageType", "notification");
-                            extras.putString("tap", "background");
-                            notificationStack.add(extras);
-                            Log.d(TAG, "Notification message found on init: " + extras.toString());
+                            // Restores the fields too large for the launch intent (see FirebasePluginPayloadStore.launchExtras)
+                            Bundle data = FirebasePluginPayloadStore.rehydrate(applicationContext, extras, true);
+                            data.putString("messageType", "notification");
+                            data.putString("tap", "background");
+                            FirebasePluginMessageJournal.getInstance(applicationContext).append(data);
+                            Log.d(TAG, "Notification message found on init: " + data.keySet());
                         }
                     }
                     defaultChannelId = getStringResource("default_notification_channel_id");
@@ -342,10 +407,16 @@ public class FirebasePlugin extends CordovaPlugin {
                     this.unregister(callbackContext);
                     break;
                 case "onMessageReceived":
-                    this.onMessageReceived(callbackContext);
+                    this.onMessageReceived(callbackContext, args.optJSONObject(0));
+                    break;
+                case "ackMessages":
+                    this.ackMessages(callbackContext, args.getLong(0));
                     break;
                 case "onTokenRefresh":
-                    this.onTokenRefresh(callbackContext);
+                    this.onTokenRefresh(callbackContext, args.optJSONObject(0));
+                    break;
+                case "grantStreamCredits":
+                    this.grantStreamCredits(callbackContext, args.getString(0), args.getInt(1));
                     break;
                 case "logEvent":
                     this.logEvent(callbackContext, args.getString(0), args.getJSONObject(1));
@@ -552,6 +623,18 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "setDefaultChannel":
                     this.setDefaultChannel(callbackContext, args.getJSONObject(0));
                     break;
+                case "getMessagingMetrics":
+                    this.getMessagingMetrics(callbackContext);
+                    break;
+                case "getOutboxStatus":
+                    this.getOutboxStatus(callbackContext);
+                    break;
+                case "setNotificationCategories":
+                    this.setNotificationCategories(callbackContext, args.getJSONArray(0));
+                    break;
+                case "setActionRoutes":
+                    this.setActionRoutes(callbackContext, args.getJSONArray(0));
+                    break;
                 case "addDocumentToFirestoreCollection":
                     this.addDocumentToFirestoreCollection(args, callbackContext);
                     break;
@@ -615,19 +698,38 @@ public class FirebasePlugin extends CordovaPlugin {
     @Override
     public void onPause(boolean multitasking) {
         FirebasePlugin.inBackground = true;
+        // Send batched receipts while the process is still in the foreground
+        FirebasePluginReceiptBatcher.getInstance(applicationContext).flush();
     }
 
     @Override
     public void onResume(boolean multitasking) {
         FirebasePlugin.inBackground = false;
+        // Channel settings may have been changed by the user while the app was in the background
+        FirebasePluginChannelRegistry.getInstance(applicationContext).invalidate();
         if (FirebasePlugin.notificationCallbackContext != null) {
             sendPendingNotifications();
         }
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        FirebasePluginResourceIndex.invalidate();
+    }
+
     @Override
     public void onReset() {
-        FirebasePlugin.notificationCallbackContext = null;
+        // Messages delivered to the page being unloaded and not acknowledged are replayed to the next callback
+        synchronized (messageDelivery) {
+            resetDelivery();
+            FirebasePlugin.notificationCallbackContext = null;
+        }
+        // The new page starts with fresh credits
+        FirebasePluginStreams.closeAll();
+        messageStream = null;
+        tokenRefreshStream = null;
+        openGlobalStreams();
         FirebasePlugin.tokenRefreshCallbackContext = null;
         FirebasePlugin.activityResultCallbackContext = null;
         FirebasePlugin.authResultCallbackContext = null;
@@ -685,46 +787,248 @@ public class FirebasePlugin extends CordovaPlugin {
      * @return Resource
      */
     private String getStringResource(String name) {
-        return applicationContext.getString(
-                applicationContext.getResources().getIdentifier(
-                        name, "string", applicationContext.getPackageName()
-                )
-        );
+        return FirebasePluginResourceIndex.get(applicationContext).getString(name);
     }
 
-    private void onMessageReceived(final CallbackContext callbackContext) {
+    private void onMessageReceived(final CallbackContext callbackContext, final JSONObject options) {
         Log.d(TAG, "onMessageReceived() - callback registered, sending pending notifications");
-        FirebasePlugin.notificationCallbackContext = callbackContext;
+        if (options != null) {
+            messageFramesEnabled = options.optBoolean("batch", false);
+            int maxFrameSize = options.optInt("maxFrameSize", DEFAULT_MESSAGE_FRAME_MAX_SIZE);
+            messageFrameMaxSize = maxFrameSize > 0 ? maxFrameSize : DEFAULT_MESSAGE_FRAME_MAX_SIZE;
+        } else {
+            messageFramesEnabled = false;
+        }
+        // Undelivered messages are held in the journal rather than the stream, and sent by a drain when credits are granted
+        messageStream = openCallbackStream(options != null ? options.optJSONObject("stream") : null, MESSAGE_STREAM_ID,
+                FirebasePluginStreams.Policy.QUEUE, callbackContext, new Runnable() {
+                    public void run() {
+                        FirebasePlugin plugin = FirebasePlugin.instance;
+                        if (plugin != null && FirebasePlugin.hasNotificationsCallback()) {
+                            plugin.sendPendingNotifications();
+                        }
+                    }
+                }, new FirebasePluginStreams.Backlog() {
+                    public int depth() {
+                        FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(applicationContext);
+                        return journal.countAfter(messageDelivery.getDeliveredSeq());
+                    }
+                });
+        synchronized (messageDelivery) {
+            resetDelivery();
+            FirebasePlugin.notificationCallbackContext = callbackContext;
+        }
         sendPendingNotifications();
     }
 
-    private synchronized void sendPendingNotifications() {
-        if (FirebasePlugin.notificationStack != null && !FirebasePlugin.notificationStack.isEmpty()) {
-            Log.d(TAG, "sendPendingNotifications() - sending " + FirebasePlugin.notificationStack.size() + " pending notifications");
-            this.cordova.getThreadPool().execute(new Runnable() {
-                public void run() {
-                    try {
-                        for (Bundle bundle : FirebasePlugin.notificationStack) {
-                            // Skip action events - they were already handled by HTTP service
-                            if (bundle.getBoolean("_isActionEvent", false)) {
-                                Log.d(TAG, "sendPendingNotifications() - skipping action event (already processed via HTTP)");
-                                continue;
-                            }
-                            
-                            Log.d(TAG, "sendPendingNotifications() - sending bundle: " + bundle.keySet());
-                            FirebasePlugin.sendMessage(bundle, applicationContext);
-                        }
-                        FirebasePlugin.notificationStack.clear();
-                        Log.d(TAG, "sendPendingNotifications() - all pending notifications sent");
-                    } catch (Exception e) {
-                        handleExceptionWithoutContext(e);
+    private void grantStreamCredits(final CallbackContext callbackContext, final String streamId, final int credits) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (FirebasePluginStreams.grant(streamId, credits)) {
+                        callbackContext.success();
+                    } else {
+                        callbackContext.error("Stream '" + streamId + "' is not open");
                     }
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
                 }
-            });
+            }
+        });
+    }
+
+    /**
+     * Opens a stream of keep-callback results to the callback, flow-controlled if JavaScript described one.
+     */
+    private static FirebasePluginStreams.Stream<PluginResult> openCallbackStream(JSONObject descriptor, String defaultId, FirebasePluginStreams.Policy defaultPolicy,
+                                                                                final CallbackContext callbackContext, Runnable onCredit, FirebasePluginStreams.Backlog backlog) {
+        return FirebasePluginStreams.open(descriptor, defaultId, defaultPolicy, new FirebasePluginStreams.Sink<PluginResult>() {
+            public void send(PluginResult result) {
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+        }, onCredit, backlog);
+    }
+
+    /**
+     * Opens the streams of global JS events, which the JS wrapper grants credits to as it handles them.
+     * Only the latest auth state matters, so they are conflated.
+     */
+    private static void openGlobalStreams() {
+        authStateStream = openGlobalStream(AUTH_STATE_STREAM_ID);
+        authIdTokenStream = openGlobalStream(AUTH_ID_TOKEN_STREAM_ID);
+    }
+
+    /**
+     * Opens a stream of global JS events, which gets back the credit of an event that never reaches JavaScript.
+     */
+    private static FirebasePluginStreams.Stream<String> openGlobalStream(String id) {
+        final AtomicReference<FirebasePluginStreams.Stream<String>> stream = new AtomicReference<FirebasePluginStreams.Stream<String>>();
+        // Returned to this stream only, not one opened with the same ID for a new page
+        final Runnable refund = new Runnable() {
+            public void run() {
+                FirebasePluginStreams.Stream<String> refunded = stream.get();
+                if (refunded != null) {
+                    refunded.grant(1);
+                }
+            }
+        };
+        FirebasePluginStreams.Sink<String> sink = new FirebasePluginStreams.Sink<String>() {
+            public void send(String jsString) {
+                FirebasePlugin plugin = FirebasePlugin.instance;
+                if (plugin != null) {
+                    plugin.executeGlobalJavascript(jsString, refund);
+                } else {
+                    refund.run();
+                }
+            }
+        };
+        stream.set(FirebasePluginStreams.open(id, FirebasePluginStreams.Policy.CONFLATE, 1, FirebasePluginStreams.DEFAULT_CREDITS, sink, null, null));
+        return stream.get();
+    }
+
+    private static void emitResult(FirebasePluginStreams.Stream<PluginResult> stream, PluginResult result, CallbackContext callbackContext) {
+        if (stream != null) {
+            stream.emit(result);
+        } else {
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+    }
+
+    private static void emitGlobalJavascript(FirebasePluginStreams.Stream<String> stream, String jsString) {
+        if (stream != null) {
+            stream.emit(jsString);
+        } else if (FirebasePlugin.instance != null) {
+            FirebasePlugin.instance.executeGlobalJavascript(jsString);
+        }
+    }
+
+    /**
+     * Acknowledges the messages delivered to JavaScript up to and including the given sequence number,
+     * removing them from the journal.
+     */
+    private void ackMessages(final CallbackContext callbackContext, final long upToSeq) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    releaseDelivered(messageDelivery.acknowledge(upToSeq));
+                    callbackContext.success();
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewinds delivery to the head of the journal, so unacknowledged messages are sent again to the next callback.
+     */
+    private static void resetDelivery() {
+        int replayed = messageDelivery.reset();
+        if (replayed > 0) {
+            Log.d(TAG, "resetDelivery() - " + replayed + " unacknowledged messages will be replayed");
         }
     }
 
-    private void onTokenRefresh(final CallbackContext callbackContext) {
+    /**
+     * Removes delivered messages from the journal up to the given sequence number, as returned by messageDelivery.
+     */
+    private static void releaseDelivered(long releasableSeq) {
+        if (releasableSeq > 0 && applicationContext != null) {
+            FirebasePluginMessageJournal.getInstance(applicationContext).consumeThrough(releasableSeq);
+        }
+    }
+
+    static JSONObject getDeliveryMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(applicationContext);
+        synchronized (messageDelivery) {
+            metrics.put("pending", journal.size());
+            metrics.put("unacknowledged", messageDelivery.getUnacknowledgedCount());
+            metrics.put("acknowledged", messageDelivery.getAcknowledgedCount());
+            metrics.put("replayed", messageDelivery.getReplayedCount());
+        }
+        metrics.put("dropped", journal.getDroppedCount());
+        return metrics;
+    }
+
+    private static boolean hasMessageCredit() {
+        FirebasePluginStreams.Stream<PluginResult> stream = messageStream;
+        return stream == null || stream.hasCredit();
+    }
+
+    private static boolean hasUndeliveredMessages(FirebasePluginMessageJournal journal) {
+        return !journal.isEmpty() && messageDelivery.hasUndelivered(journal.getLastSeq());
+    }
+
+    private void sendPendingNotifications() {
+        // A drain already scheduled or running picks up messages appended since it started
+        pendingNotificationsDrain.request();
+    }
+
+    private static void drainPendingNotifications() {
+        try {
+            FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(applicationContext);
+            Log.d(TAG, "sendPendingNotifications() - sending " + journal.size() + " pending notifications");
+            MessageFrame frame = messageFramesEnabled ? new MessageFrame(messageFrameMaxSize) : null;
+            while (true) {
+                FirebasePluginMessageDelivery.Cursor cursor;
+                synchronized (messageDelivery) {
+                    if (FirebasePlugin.notificationCallbackContext == null) break;
+                    cursor = messageDelivery.begin();
+                }
+                // Each message or frame sent uses a credit, so a batch never needs more than are available
+                FirebasePluginStreams.Stream<PluginResult> stream = messageStream;
+                int credits = stream != null ? stream.getCredits() : FirebasePluginStreams.UNLIMITED;
+                if (credits == 0) {
+                    Log.d(TAG, "sendPendingNotifications() - out of credits, holding messages until JavaScript grants more");
+                    break;
+                }
+                int batchSize = credits == FirebasePluginStreams.UNLIMITED ? PENDING_NOTIFICATIONS_BATCH_SIZE : Math.min(credits, PENDING_NOTIFICATIONS_BATCH_SIZE);
+                List<FirebasePluginMessageJournal.Entry> entries = journal.peekAfter(cursor.afterSeq, batchSize);
+                if (entries.isEmpty()) {
+                    break;
+                }
+                List<Long> sentSeqs = new ArrayList<Long>(entries.size());
+                for (FirebasePluginMessageJournal.Entry entry : entries) {
+                    Bundle bundle = entry.bundle;
+                    if (bundle == null) {
+                        continue;
+                    }
+                    // Skip action events - they were already handled by HTTP service
+                    if (bundle.getBoolean("_isActionEvent", false)) {
+                        Log.d(TAG, "sendPendingNotifications() - skipping action event (already processed via HTTP)");
+                        continue;
+                    }
+
+                    Log.d(TAG, "sendPendingNotifications() - sending bundle: " + bundle.keySet());
+                    bundle.putLong(MESSAGE_SEQ_KEY, entry.seq);
+                    boolean sent = frame != null ? frame.add(bundle) : FirebasePlugin.deliverMessage(bundle);
+                    if (sent) {
+                        sentSeqs.add(entry.seq);
+                    }
+                }
+                if (frame != null) {
+                    frame.flush();
+                }
+                // If the callback was reset meanwhile, delivery was rewound and the batch will be sent again
+                long releasableSeq = messageDelivery.delivered(cursor, entries.get(entries.size() - 1).seq, sentSeqs);
+                if (releasableSeq < 0) {
+                    break;
+                }
+                releaseDelivered(releasableSeq);
+            }
+            Log.d(TAG, "sendPendingNotifications() - all pending notifications sent");
+        } catch (Exception e) {
+            handleExceptionWithoutContext(e);
+        }
+    }
+
+    private void onTokenRefresh(final CallbackContext callbackContext, final JSONObject options) {
+        // Only the current token matters, so tokens refreshed while out of credits are conflated
+        tokenRefreshStream = openCallbackStream(options != null ? options.optJSONObject("stream") : null, TOKEN_REFRESH_STREAM_ID,
+                FirebasePluginStreams.Policy.CONFLATE, callbackContext, null, null);
         FirebasePlugin.tokenRefreshCallbackContext = callbackContext;
 
         cordova.getThreadPool().execute(new Runnable() {
@@ -767,17 +1071,37 @@ public class FirebasePlugin extends CordovaPlugin {
         // Queue the message if:
         // - No callback registered, OR
         // - App is in background AND not immediate delivery AND not an action event
-        if (!FirebasePlugin.hasNotificationsCallback() || (inBackground && !immediateMessagePayloadDelivery && !isActionEvent)) {
-            String packageName = context.getPackageName();
-            if (FirebasePlugin.notificationStack == null) {
-                FirebasePlugin.notificationStack = new ArrayList<Bundle>();
-            }
-            notificationStack.add(bundle);
-            Log.d(TAG, "sendMessage() - Message added to notificationStack (size=" + notificationStack.size() + ")");
+        // Action events have already been handled natively, so are delivered once without being journaled for acknowledgement
+        if (isActionEvent && FirebasePlugin.hasNotificationsCallback()) {
+            deliverMessage(bundle);
+            return;
+        }
 
+        // Other messages are journaled until JavaScript acknowledges them, even when they can be delivered immediately
+        FirebasePluginMessageJournal journal = FirebasePluginMessageJournal.getInstance(context);
+        long seq = journal.append(bundle);
+        boolean deliverable = FirebasePlugin.hasNotificationsCallback() && (!inBackground || immediateMessagePayloadDelivery);
+        if (seq < 0) {
+            // Couldn't be journaled, so deliver it unsequenced if possible
+            if (deliverable) {
+                deliverMessage(bundle);
+            }
             return;
         }
+        Log.d(TAG, "sendMessage() - Message added to message journal (seq=" + seq + ", size=" + journal.size() + ")");
 
+        // The drain is triggered after appending, so a callback registered or an app resumed while the message
+        // was appended still gets it
+        FirebasePlugin plugin = FirebasePlugin.instance;
+        if (plugin != null && deliverable) {
+            plugin.sendPendingNotifications();
+        }
+    }
+
+    /**
+     * @return true if the message was sent to JavaScript, false if it was handled by a registered receiver or there is no callback
+     */
+    private static boolean deliverMessage(Bundle bundle) {
         final CallbackContext callbackContext = FirebasePlugin.notificationCallbackContext;
         if (bundle != null) {
             // Pass the message bundle to the receiver manager so any registered receivers can decide to handle it
@@ -785,20 +1109,55 @@ public class FirebasePlugin extends CordovaPlugin {
             if (wasHandled) {
                 Log.d(TAG, "Message bundle was handled by a registered receiver");
             } else if (callbackContext != null) {
-                JSONObject json = new JSONObject();
-                Set<String> keys = bundle.keySet();
-                for (String key : keys) {
-                    try {
-                        json.put(key, bundle.get(key));
-                    } catch (JSONException e) {
-                        handleExceptionWithContext(e, callbackContext);
-                        return;
-                    }
-                }
-                FirebasePlugin.instance.sendPluginResultAndKeepCallback(json, callbackContext);
-                Log.d(TAG, "sendMessage() - Delivered immediately to JavaScript");
+                String json = FirebasePluginBundleJsonEncoder.encode(bundle);
+                emitResult(messageStream, new FirebasePluginBundleJsonEncoder.JsonResult(json), callbackContext);
+                Log.d(TAG, "sendMessage() - Delivered to JavaScript");
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Accumulates pending messages into JSON array frames so a backlog crosses the bridge in a few
+     * results rather than one per message. A frame is sent once adding another message would exceed
+     * the max frame size; a single message larger than the max is sent in a frame of its own.
+     */
+    private static class MessageFrame {
+        private final int maxSize;
+        private final StringBuilder messages = new StringBuilder();
+        private int count = 0;
+
+        MessageFrame(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return true if the message was added to the frame, false if it was handled by a registered receiver
+         */
+        boolean add(Bundle bundle) {
+            if (FirebasePluginMessageReceiverManager.sendMessage(bundle)) {
+                Log.d(TAG, "Message bundle was handled by a registered receiver");
+                return false;
+            }
+            String json = FirebasePluginBundleJsonEncoder.encode(bundle);
+            if (count > 0 && messages.length() + json.length() + 2 > maxSize) {
+                flush();
+            }
+            messages.append(count == 0 ? '[' : ',').append(json);
+            count++;
+            return true;
+        }
+
+        void flush() {
+            final CallbackContext callbackContext = FirebasePlugin.notificationCallbackContext;
+            if (count == 0 || callbackContext == null) return;
+            messages.append(']');
+            Log.d(TAG, "sendPendingNotifications() - sending frame of " + count + " messages (" + messages.length() + " chars)");
+            emitResult(messageStream, new FirebasePluginBundleJsonEncoder.JsonResult(messages.toString()), callbackContext);
+            messages.setLength(0);
+            count = 0;
+        }
     }
 
     public static void sendToken(String token) {
@@ -808,7 +1167,7 @@ public class FirebasePlugin extends CordovaPlugin {
 
         final CallbackContext callbackContext = FirebasePlugin.tokenRefreshCallbackContext;
         if (callbackContext != null && token != null) {
-            FirebasePlugin.instance.sendPluginResultAndKeepCallback(token, callbackContext);
+            emitResult(tokenRefreshStream, new PluginResult(PluginResult.Status.OK, token), callbackContext);
         }
     }
 
@@ -824,11 +1183,13 @@ public class FirebasePlugin extends CordovaPlugin {
     public void onNewIntent(Intent intent) {
         try {
             super.onNewIntent(intent);
-            final Bundle data = intent.getExtras();
-            if (data != null && data.containsKey("google.message_id")) {
+            final Bundle extras = intent.getExtras();
+            if (extras != null && extras.containsKey("google.message_id")) {
+                // Restores the fields too large for the launch intent (see FirebasePluginPayloadStore.launchExtras)
+                Bundle data = FirebasePluginPayloadStore.rehydrate(applicationContext, extras, true);
                 data.putString("messageType", "notification");
                 data.putString("tap", "background");
-                Log.d(TAG, "Notification message on new intent: " + data.toString());
+                Log.d(TAG, "Notification message on new intent: " + data.keySet());
                 FirebasePlugin.sendMessage(data, applicationContext);
             }
         } catch (Exception e) {
@@ -1398,6 +1759,7 @@ public class FirebasePlugin extends CordovaPlugin {
 
                     // Sign out of Firebase
                     FirebaseAuth.getInstance().signOut();
+                    clearPersistedCredentials();
 
                     // Try to sign out of Google
                     try {
@@ -1415,6 +1777,21 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    /**
+     * Discards the notification actions and receipts waiting to be sent with the signed out user's credentials,
+     * the messages and notification payloads sent to them, and the key they were encrypted with.
+     */
+    private void clearPersistedCredentials() {
+        FirebasePluginMessageJournal.getInstance(applicationContext).clear();
+        FirebasePluginPayloadStore.getInstance(applicationContext).clear();
+        FirebasePluginReceiptBatcher.getInstance(applicationContext).clear();
+        FirebasePluginJobQueue jobQueue = FirebasePluginJobQueue.getInstance(applicationContext);
+        jobQueue.removeAll(FirebasePluginJobQueue.TYPE_HTTP_ACTION);
+        jobQueue.removeAll(FirebasePluginJobQueue.TYPE_ROUTED_ACTION);
+        jobQueue.removeAll(FirebasePluginJobQueue.TYPE_RECEIPT_BATCH);
+        FirebasePluginCredentials.clear();
+    }
+
     public void getCurrentUser(final CallbackContext callbackContext, final JSONArray args) {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
@@ -2728,7 +3105,7 @@ public class FirebasePlugin extends CordovaPlugin {
     // Firebase Performace
     //
 
-    private HashMap<String, Trace> traces = new HashMap<String, Trace>();
+    private final ConcurrentHashMap<String, Trace> traces = new ConcurrentHashMap<String, Trace>();
 
     private void startTrace(final CallbackContext callbackContext, final String name) {
         final FirebasePlugin self = this;
@@ -2736,15 +3113,12 @@ public class FirebasePlugin extends CordovaPlugin {
             public void run() {
                 try {
 
-                    Trace myTrace = null;
-                    if (self.traces.containsKey(name)) {
-                        myTrace = self.traces.get(name);
-                    }
-
-                    if (myTrace == null) {
-                        myTrace = FirebasePerformance.getInstance().newTrace(name);
-                        myTrace.start();
-                        self.traces.put(name, myTrace);
+                    if (!self.traces.containsKey(name)) {
+                        Trace myTrace = FirebasePerformance.getInstance().newTrace(name);
+                        // If the same trace was started concurrently, the first one started is kept
+                        if (self.traces.putIfAbsent(name, myTrace) == null) {
+                            myTrace.start();
+                        }
                     }
 
                     callbackContext.success();
@@ -2762,12 +3136,9 @@ public class FirebasePlugin extends CordovaPlugin {
             public void run() {
                 try {
 
-                    Trace myTrace = null;
-                    if (self.traces.containsKey(name)) {
-                        myTrace = self.traces.get(name);
-                    }
+                    Trace myTrace = self.traces.get(name);
 
-                    if (myTrace != null && myTrace instanceof Trace) {
+                    if (myTrace != null) {
                         myTrace.incrementMetric(counterNamed, 1);
                         callbackContext.success();
                     } else {
@@ -2787,14 +3158,11 @@ public class FirebasePlugin extends CordovaPlugin {
             public void run() {
                 try {
 
-                    Trace myTrace = null;
-                    if (self.traces.containsKey(name)) {
-                        myTrace = self.traces.get(name);
-                    }
+                    // Removed before stopping so a concurrent stop can't stop it twice
+                    Trace myTrace = self.traces.remove(name);
 
-                    if (myTrace != null && myTrace instanceof Trace) { //
+                    if (myTrace != null) {
                         myTrace.stop();
-                        self.traces.remove(name);
                         callbackContext.success();
                     } else {
                         callbackContext.error("Trace not found");
@@ -2925,6 +3293,7 @@ public class FirebasePlugin extends CordovaPlugin {
                 try {
                     NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
                     nm.cancelAll();
+                    FirebasePluginNotificationIdAllocator.getInstance(applicationContext).releaseAll();
                     callbackContext.success();
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
@@ -2958,7 +3327,6 @@ public class FirebasePlugin extends CordovaPlugin {
             }
 
             NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-            String packageName = cordovaActivity.getPackageName();
 
             String name = options.optString("name", "");
             Log.d(TAG, "Channel " + id + " - name=" + name);
@@ -3022,7 +3390,7 @@ public class FirebasePlugin extends CordovaPlugin {
                 Log.d(TAG, "Channel " + id + " - sound=ringtone");
             } else if (!sound.contentEquals("false")) {
                 if (!sound.contentEquals("default")) {
-                    Uri soundUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/raw/" + sound);
+                    Uri soundUri = FirebasePluginResourceIndex.get(applicationContext).getSoundUri(sound);
                     channel.setSound(soundUri, audioAttributes);
                     Log.d(TAG, "Channel " + id + " - sound=" + sound);
                 } else {
@@ -3053,6 +3421,7 @@ public class FirebasePlugin extends CordovaPlugin {
 
             // Create channel
             nm.createNotificationChannel(channel);
+            FirebasePluginChannelRegistry.getInstance(applicationContext).put(channel);
         }
         return channel;
     }
@@ -3066,6 +3435,7 @@ public class FirebasePlugin extends CordovaPlugin {
 
     protected static void createDefaultChannel(final JSONObject options) throws JSONException {
         defaultNotificationChannel = createChannel(options);
+        FirebasePluginChannelRegistry.getInstance(applicationContext).setDefaultChannelId(defaultChannelId);
     }
 
     public void setDefaultChannel(final CallbackContext callbackContext, final JSONObject options) {
@@ -3110,6 +3480,7 @@ public class FirebasePlugin extends CordovaPlugin {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
             nm.deleteNotificationChannel(channelID);
+            FirebasePluginChannelRegistry.getInstance(applicationContext).remove(channelID);
         }
     }
 
@@ -3136,28 +3507,74 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     public static List<NotificationChannel> listChannels() {
-        List<NotificationChannel> notificationChannels = null;
-        // only call on Android O and above
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-            notificationChannels = nm.getNotificationChannels();
-        }
-        return notificationChannels;
+        return FirebasePluginChannelRegistry.getInstance(applicationContext).list();
     }
 
     public static boolean channelExists(String channelId) {
-        boolean exists = false;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            List<NotificationChannel> notificationChannels = FirebasePlugin.listChannels();
-            if (notificationChannels != null) {
-                for (NotificationChannel notificationChannel : notificationChannels) {
-                    if (notificationChannel.getId().equals(channelId)) {
-                        exists = true;
-                    }
+        return FirebasePluginChannelRegistry.getInstance(applicationContext).exists(channelId);
+    }
+
+    private void setNotificationCategories(final CallbackContext callbackContext, final JSONArray categories) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginActionCategoryRegistry.getInstance(applicationContext).setCategories(categories);
+                    callbackContext.success();
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
                 }
             }
-        }
-        return exists;
+        });
+    }
+
+    private void setActionRoutes(final CallbackContext callbackContext, final JSONArray routes) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginActionRouter.getInstance(applicationContext).setRoutes(routes);
+                    callbackContext.success();
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void getMessagingMetrics(final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    JSONObject metrics = new JSONObject();
+                    metrics.put("notifications", FirebasePluginNotificationPoster.getInstance(applicationContext).getMetrics());
+                    metrics.put("dedup", FirebasePluginMessageDedupIndex.getInstance(applicationContext).getMetrics());
+                    metrics.put("receivers", FirebasePluginMessageReceiverManager.getMetrics());
+                    metrics.put("processing", FirebasePluginProcessingBudget.getMetrics());
+                    metrics.put("jobs", FirebasePluginJobQueue.getInstance(applicationContext).getMetrics());
+                    metrics.put("images", FirebasePluginBitmapTransformer.getInstance().getMetrics());
+                    metrics.put("keepalive", FirebasePluginKeepalive.getMetrics());
+                    metrics.put("http", FirebasePluginHttpClient.getInstance(applicationContext).getMetrics());
+                    metrics.put("receipts", FirebasePluginReceiptBatcher.getInstance(applicationContext).getMetrics());
+                    metrics.put("delivery", getDeliveryMetrics());
+                    metrics.put("streams", FirebasePluginStreams.getMetrics());
+                    metrics.put("javascript", globalJavascriptBatcher.getMetrics());
+                    callbackContext.success(metrics);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void getOutboxStatus(final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    callbackContext.success(FirebaseHttpService.getOutboxStatus(applicationContext));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
     }
 
     //
@@ -3391,6 +3808,9 @@ public class FirebasePlugin extends CordovaPlugin {
                     String documentId = args.getString(0);
                     String collection = args.getString(1);
                     boolean includeMetadata = args.getBoolean(2);
+                    // Each event is the whole document, so by default only the latest is held while out of credits
+                    final FirebasePluginStreams.Stream<PluginResult> stream = openCallbackStream(args.optJSONObject(3), "firestore-" + UUID.randomUUID(),
+                            FirebasePluginStreams.Policy.CONFLATE, callbackContext, null, null);
 
                     ListenerRegistration registration = firestore.collection(collection).document(documentId)
                             .addSnapshotListener(includeMetadata ? MetadataChanges.INCLUDE : MetadataChanges.EXCLUDE, new EventListener<DocumentSnapshot>() {
@@ -3411,7 +3831,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                                 JSONObject jsonDoc = mapFirestoreDataToJsonObject(snapshot.getData());
                                                 document.put("snapshot", jsonDoc);
                                             }
-                                            sendPluginResultAndKeepCallback(document, callbackContext);
+                                            stream.emit(new PluginResult(PluginResult.Status.OK, document));
                                         } else {
                                             handleExceptionWithContext(e3, callbackContext);
                                         }
@@ -3421,11 +3841,11 @@ public class FirebasePlugin extends CordovaPlugin {
                                 }
                             });
 
-                    String id = saveFirestoreListener(registration);
+                    String id = saveFirestoreListener(registration, stream);
                     JSONObject jsResult = new JSONObject();
                     jsResult.put("eventType", "id");
                     jsResult.put("id", id);
-                    sendPluginResultAndKeepCallback(jsResult, callbackContext);
+                    stream.emit(new PluginResult(PluginResult.Status.OK, jsResult));
                 } catch (Exception e1) {
                     handleExceptionWithContext(e1, callbackContext);
                 }
@@ -3481,6 +3901,9 @@ public class FirebasePlugin extends CordovaPlugin {
                         filters = args.getJSONArray(1);
                     }
                     boolean includeMetadata = args.getBoolean(2);
+                    // Events are changes to the collection, which mustn't be lost, so by default they are all held while out of credits
+                    final FirebasePluginStreams.Stream<PluginResult> stream = openCallbackStream(args.optJSONObject(3), "firestore-" + UUID.randomUUID(),
+                            FirebasePluginStreams.Policy.QUEUE, callbackContext, null, null);
 
                     Query query = firestore.collection(collection);
 
@@ -3528,7 +3951,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                             if (hasDocuments) {
                                                 jsResult.put("documents", documents);
                                             }
-                                            sendPluginResultAndKeepCallback(jsResult, callbackContext);
+                                            stream.emit(new PluginResult(PluginResult.Status.OK, jsResult));
                                         } else {
                                             handleExceptionWithContext(e3, callbackContext);
                                         }
@@ -3538,11 +3961,11 @@ public class FirebasePlugin extends CordovaPlugin {
                                 }
                             });
 
-                    String id = saveFirestoreListener(registration);
+                    String id = saveFirestoreListener(registration, stream);
                     JSONObject jsResult = new JSONObject();
                     jsResult.put("eventType", "id");
                     jsResult.put("id", id);
-                    sendPluginResultAndKeepCallback(jsResult, callbackContext);
+                    stream.emit(new PluginResult(PluginResult.Status.OK, jsResult));
 
                 } catch (Exception e1) {
                     handleExceptionWithContext(e1, callbackContext);
@@ -3645,23 +4068,21 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
-    private String saveFirestoreListener(ListenerRegistration listenerRegistration) {
+    private String saveFirestoreListener(ListenerRegistration listenerRegistration, FirebasePluginStreams.Stream<PluginResult> stream) {
         String id = this.generateId();
         this.firestoreListeners.put(id, listenerRegistration);
+        this.firestoreListenerStreams.put(id, stream);
         return id;
     }
 
     private boolean removeFirestoreListener(String id) {
-        boolean removed = false;
-        if (this.firestoreListeners.containsKey(id)) {
-            ListenerRegistration listenerRegistration = this.firestoreListeners.get(id);
-            if (listenerRegistration != null) {
-                listenerRegistration.remove();
-            }
-            this.firestoreListeners.remove(id);
-            removed = true;
+        ListenerRegistration listenerRegistration = this.firestoreListeners.remove(id);
+        FirebasePluginStreams.close(this.firestoreListenerStreams.remove(id));
+        if (listenerRegistration != null) {
+            listenerRegistration.remove();
+            return true;
         }
-        return removed;
+        return false;
     }
 
     //
@@ -3838,72 +4259,64 @@ public class FirebasePlugin extends CordovaPlugin {
 
     protected void logErrorToWebview(String msg) {
         Log.e(TAG, msg);
-        executeGlobalJavascript("console.error(\"" + TAG + "[native]: " + escapeDoubleQuotes(msg) + "\")");
-    }
-
-    private String escapeDoubleQuotes(String string) {
-        String escapedString = string.replace("\"", "\\\"");
-        escapedString = escapedString.replace("%22", "\\%22");
-        return escapedString;
+        // Quoted as a JS string literal, so backslashes, newlines and quotes in the message can't break the JS;
+        // line and paragraph separators aren't allowed in string literals by older WebViews
+        String quoted = JSONObject.quote(TAG + "[native]: " + msg).replace("\u2028", "\\u2028").replace("\u2029", "\\u2029");
+        executeGlobalJavascript("console.error(" + quoted + ")");
     }
 
     private void executeGlobalJavascript(final String jsString) {
-        if (pluginInitialized && onPageFinished) {
-            doExecuteGlobalJavascript(jsString);
-            return;
-        }
+        executeGlobalJavascript(jsString, null);
+    }
 
+    /**
+     * @param onDropped (optional) run if the JS is never evaluated, e.g. to return the credit of a flow-controlled event
+     */
+    private void executeGlobalJavascript(final String jsString, final Runnable onDropped) {
+        // Checked under the lock so the JS can't be held just after the held JS has been released
         synchronized (FirebasePlugin.class) {
-            if (pendingGlobalJS == null) {
-                pendingGlobalJS = new ArrayList<>();
+            if (!pluginInitialized || !onPageFinished) {
+                globalJavascriptBatcher.hold(jsString, onDropped);
+                return;
             }
-            pendingGlobalJS.add(jsString);
+            globalJavascriptBatcher.execute(jsString, onDropped);
         }
     }
 
     private void executePendingGlobalJavascript() {
-        if (!pluginInitialized || !onPageFinished) {
-            Log.d(TAG, "Deferring pending global JS: pluginInitialized=" + pluginInitialized + ", onPageFinished=" + onPageFinished);
-            return;
-        }
-
-        ArrayList<String> toExecute;
         synchronized (FirebasePlugin.class) {
-            if (pendingGlobalJS == null) {
-                Log.d(TAG, "No pending global JS calls");
+            if (!pluginInitialized || !onPageFinished) {
+                Log.d(TAG, "Deferring pending global JS: pluginInitialized=" + pluginInitialized + ", onPageFinished=" + onPageFinished);
                 return;
             }
-            toExecute = pendingGlobalJS;
-            pendingGlobalJS = null;
-        }
-
-        Log.d(TAG, "Executing " + toExecute.size() + " pending global JS calls");
-        for (String jsString : toExecute) {
-            doExecuteGlobalJavascript(jsString);
+            int released = globalJavascriptBatcher.release();
+            Log.d(TAG, "Executing " + released + " pending global JS calls");
         }
     }
 
-    private void doExecuteGlobalJavascript(final String jsString) {
-        if (cordovaActivity == null) return;
-        cordovaActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                        webView.getEngine().evaluateJavascript(jsString, null);
-                    } else {
-                        webView.loadUrl("javascript:" + jsString);
-                    }
-                } catch (Throwable t) {
-                    // Fall back to loadUrl if evaluateJavascript fails for any reason
-                    try {
-                        webView.loadUrl("javascript:" + jsString);
-                    } catch (Throwable t2) {
-                        Log.e(TAG, "Failed to execute JS: " + t2.getMessage());
-                    }
-                }
+    /**
+     * Evaluates a batch of global JS; called on the UI thread by the batcher.
+     * @param onResult (optional) passed the value of the JS, if evaluated with evaluateJavascript()
+     * @return false if it couldn't be evaluated
+     */
+    private boolean evaluateGlobalJavascript(final String jsString, ValueCallback<String> onResult) {
+        if (webView == null) return false;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                webView.getEngine().evaluateJavascript(jsString, onResult);
+            } else {
+                webView.loadUrl("javascript:" + jsString);
             }
-        });
+        } catch (Throwable t) {
+            // Fall back to loadUrl if evaluateJavascript fails for any reason
+            try {
+                webView.loadUrl("javascript:" + jsString);
+            } catch (Throwable t2) {
+                Log.e(TAG, "Failed to execute JS: " + t2.getMessage());
+                return false;
+            }
+        }
+        return true;
     }
 
     private String saveAuthCredential(AuthCredential authCredential) {
@@ -4102,8 +4515,8 @@ public class FirebasePlugin extends CordovaPlugin {
             authCredential = (AuthCredential) PhoneAuthProvider.getCredential(jsonCredential.getString("verificationId"), jsonCredential.getString("code"));
         } else if (jsonCredential.has("id") && FirebasePlugin.instance.authCredentials.containsKey(jsonCredential.getString("id"))) {
             Log.d(TAG, "Using native auth credential to authenticate");
-            authCredential = FirebasePlugin.instance.authCredentials.get(jsonCredential.getString("id"));
-            FirebasePlugin.instance.authCredentials.remove(jsonCredential.getString("id")); // remove from persistent list
+            // Removed atomically so a credential can only be used once
+            authCredential = FirebasePlugin.instance.authCredentials.remove(jsonCredential.getString("id"));
         }
         return authCredential;
     }
@@ -4159,7 +4572,7 @@ public class FirebasePlugin extends CordovaPlugin {
                     FirebasePlugin.instance.authStateChangeListenerInitialized = true;
                 } else {
                     FirebaseUser user = firebaseAuth.getCurrentUser();
-                    FirebasePlugin.instance.executeGlobalJavascript(JS_GLOBAL_NAMESPACE + "_onAuthStateChange(" + (user != null ? "true" : "false") + ")");
+                    emitGlobalJavascript(authStateStream, JS_GLOBAL_NAMESPACE + "_onAuthStateChange(" + (user != null ? "true" : "false") + ")");
                 }
             } catch (Exception e) {
                 handleExceptionWithoutContext(e);
@@ -4198,20 +4611,20 @@ public class FirebasePlugin extends CordovaPlugin {
                             }
                             instance.currentIdToken = idToken;
                             String providerId = result.getSignInProvider();
-                            FirebasePlugin.instance.executeGlobalJavascript(JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange({\"idToken\":\"" + idToken + "\",\"providerId\":\"" + providerId + "\"})");
+                            emitGlobalJavascript(authIdTokenStream, JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange({\"idToken\":\"" + idToken + "\",\"providerId\":\"" + providerId + "\"})");
                         } catch (Exception e) {
-                            FirebasePlugin.instance.executeGlobalJavascript(JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
+                            emitGlobalJavascript(authIdTokenStream, JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
                         }
                     }
 
                 }).addOnFailureListener(new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
-                        FirebasePlugin.instance.executeGlobalJavascript(JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
+                        emitGlobalJavascript(authIdTokenStream, JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
                     }
                 });
             } catch (Exception e) {
-                FirebasePlugin.instance.executeGlobalJavascript(JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
+                emitGlobalJavascript(authIdTokenStream, JS_GLOBAL_NAMESPACE + "_onAuthIdTokenChange()");
             }
         }
     }
@@ -0,0 +1,218 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.core.app.RemoteInput;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named sets of notification action buttons, so messages can reference a category via notification_android_category
+ * instead of embedding the actions JSON in every payload.
+ * Categories are read from a bundled pn-actions.json asset (the same format as on iOS) and/or registered from JavaScript,
+ * in which case they are persisted and override bundled categories of the same name.
+ * The actions of each category are parsed once and their icons and RemoteInputs prepared up front for reuse by every message.
+ */
+public class FirebasePluginActionCategoryRegistry {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String PREFS_NAME = "firebase_action_categories";
+    private static final String PREFS_KEY_CATEGORIES = "categories";
+    private static final String ASSET_FILE = "pn-actions.json";
+    private static final String ASSET_ROOT_KEY = "PushNotificationActions";
+
+    private static final String DEFAULT_REPLY_LABEL = "Enter your reply...";
+
+    /**
+     * A notification action with the parts which don't depend on the message prepared for reuse.
+     */
+    public static final class PreparedAction {
+        public final NotificationAction action;
+        public final int iconResId;
+        public final RemoteInput remoteInput;
+        /** True if the action is handled by FirebaseActionReceiver without opening the app */
+        public final boolean background;
+
+        PreparedAction(Context context, NotificationAction action) {
+            this.action = action;
+            this.iconResId = action.icon != null && !action.icon.isEmpty() ? FirebasePluginResourceIndex.get(context).getDrawableId(action.icon) : 0;
+            this.remoteInput = action.requiresInput
+                    ? new RemoteInput.Builder(FirebaseActionReceiver.KEY_TEXT_REPLY)
+                        .setLabel(action.inputPlaceholder != null ? action.inputPlaceholder : DEFAULT_REPLY_LABEL)
+                        .build()
+                    : null;
+            this.background = action.requiresInput || action.id.equals("reply") || action.id.equals("mark_read") || action.id.equals("dismiss");
+        }
+    }
+
+    /**
+     * Prepared actions of a message, along with their JSON representation passed to JavaScript.
+     */
+    public static final class ActionSet {
+        public final List<PreparedAction> actions;
+        public final String actionsJson;
+
+        ActionSet(List<PreparedAction> actions) throws JSONException {
+            this.actions = Collections.unmodifiableList(actions);
+            JSONArray json = new JSONArray();
+            for (PreparedAction prepared : actions) {
+                json.put(prepared.action.toJson());
+            }
+            this.actionsJson = json.toString();
+        }
+
+        public boolean isEmpty() {
+            return actions.isEmpty();
+        }
+    }
+
+    private static FirebasePluginActionCategoryRegistry instance = null;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final Map<String, List<NotificationAction>> bundled;
+    // Replaced as a whole when categories are registered, so lookups need no locking
+    private volatile Map<String, ActionSet> categories = Collections.emptyMap();
+
+    public static synchronized FirebasePluginActionCategoryRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginActionCategoryRegistry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginActionCategoryRegistry(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        bundled = loadBundled();
+        try {
+            categories = build(parseRegistered(preferences.getString(PREFS_KEY_CATEGORIES, null)));
+        } catch (JSONException e) {
+            Log.w(TAG, "FirebasePluginActionCategoryRegistry: Discarding unreadable registered categories", e);
+            preferences.edit().remove(PREFS_KEY_CATEGORIES).apply();
+            categories = buildQuietly(new HashMap<String, List<NotificationAction>>());
+        }
+    }
+
+    /**
+     * Replaces the categories registered from JavaScript.
+     * @param definitions array of {"category": "name", "actions": [...]} with actions in the format of the "actions" payload field
+     */
+    public synchronized void setCategories(JSONArray definitions) throws JSONException {
+        Map<String, ActionSet> updated = build(parse(definitions));
+        preferences.edit().putString(PREFS_KEY_CATEGORIES, definitions.toString()).apply();
+        categories = updated;
+        Log.d(TAG, "FirebasePluginActionCategoryRegistry: Registered " + definitions.length() + " categories");
+    }
+
+    /**
+     * @return the prepared actions of the category, or null if it isn't registered
+     */
+    public ActionSet get(String category) {
+        return category != null ? categories.get(category) : null;
+    }
+
+    /**
+     * Prepares actions given inline in a message.
+     */
+    public ActionSet prepare(List<NotificationAction> actions) throws JSONException {
+        List<PreparedAction> prepared = new ArrayList<PreparedAction>(actions.size());
+        for (NotificationAction action : actions) {
+            prepared.add(new PreparedAction(context, action));
+        }
+        return new ActionSet(prepared);
+    }
+
+    private Map<String, ActionSet> build(Map<String, List<NotificationAction>> registered) throws JSONException {
+        Map<String, List<NotificationAction>> merged = new HashMap<String, List<NotificationAction>>(bundled);
+        merged.putAll(registered);
+        Map<String, ActionSet> built = new HashMap<String, ActionSet>();
+        for (Map.Entry<String, List<NotificationAction>> entry : merged.entrySet()) {
+            built.put(entry.getKey(), prepare(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(built);
+    }
+
+    private Map<String, ActionSet> buildQuietly(Map<String, List<NotificationAction>> registered) {
+        try {
+            return build(registered);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private Map<String, List<NotificationAction>> parseRegistered(String json) throws JSONException {
+        if (json == null) return new HashMap<String, List<NotificationAction>>();
+        return parse(new JSONArray(json));
+    }
+
+    private Map<String, List<NotificationAction>> loadBundled() {
+        InputStream input = null;
+        try {
+            input = context.getAssets().open(ASSET_FILE);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            JSONObject root = new JSONObject(output.toString("UTF-8"));
+            Map<String, List<NotificationAction>> parsed = parse(root.optJSONArray(ASSET_ROOT_KEY));
+            Log.d(TAG, "FirebasePluginActionCategoryRegistry: Loaded " + parsed.size() + " categories from " + ASSET_FILE);
+            return parsed;
+        } catch (FileNotFoundException e) {
+            // No bundled categories
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "FirebasePluginActionCategoryRegistry: Unable to read " + ASSET_FILE, e);
+        } finally {
+            if (input != null) {
+                try { input.close(); } catch (IOException ignored) {}
+            }
+        }
+        return new HashMap<String, List<NotificationAction>>();
+    }
+
+    /**
+     * Categories missing a name are rejected; actions missing an id or title are skipped.
+     */
+    private static Map<String, List<NotificationAction>> parse(JSONArray definitions) throws JSONException {
+        Map<String, List<NotificationAction>> parsed = new HashMap<String, List<NotificationAction>>();
+        if (definitions == null) return parsed;
+        for (int i = 0; i < definitions.length(); i++) {
+            JSONObject definition = definitions.getJSONObject(i);
+            String category = definition.optString("category", null);
+            if (category == null || category.isEmpty()) {
+                throw new JSONException("Category definition at index " + i + " is missing its 'category' name");
+            }
+            List<NotificationAction> actions = new ArrayList<NotificationAction>();
+            JSONArray actionsJson = definition.optJSONArray("actions");
+            if (actionsJson != null) {
+                for (int j = 0; j < actionsJson.length(); j++) {
+                    JSONObject actionJson = actionsJson.optJSONObject(j);
+                    NotificationAction action = actionJson != null ? NotificationAction.fromJson(actionJson) : null;
+                    if (action != null) {
+                        actions.add(action);
+                    }
+                }
+            }
+            parsed.put(category, actions);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,308 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Declarative routing of notification actions to HTTP requests, so background actions are handled natively
+ * rather than by starting the app to run JavaScript.
+ * Each route maps an action ID to a method, URL template, body template and headers, in which {field} is substituted
+ * with the field of the message (or e.g. {replyText} with the inline reply), and a retry policy.
+ * Routed actions are sent through FirebasePluginJobQueue, and only open the app if the route requires UI.
+ * Routes are read from a bundled pn-action-routes.json asset and/or registered from JavaScript, in which case they are
+ * persisted and override bundled routes for the same action.
+ */
+public class FirebasePluginActionRouter {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String PREFS_NAME = "firebase_action_routes";
+    private static final String PREFS_KEY_ROUTES = "routes";
+    private static final String ASSET_FILE = "pn-action-routes.json";
+    private static final String ASSET_ROOT_KEY = "ActionRoutes";
+
+    private static final String DEFAULT_METHOD = "POST";
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private static final Pattern FIELD_PATTERN = Pattern.compile("\\{([A-Za-z0-9_.\\-]+)\\}");
+
+    /**
+     * An action's HTTP request, with its templates parsed.
+     */
+    public static final class Route {
+        public final String action;
+        public final String method;
+        public final String url;
+        /** JSONObject, JSONArray or String template of the body; null for none */
+        public final Object body;
+        public final JSONObject headers;
+        /** Number of times to attempt the request before giving up; 1 for no retries */
+        public final int maxAttempts;
+        /** True to open the app when the action is tapped, as well as sending the request */
+        public final boolean requiresUi;
+
+        Route(JSONObject definition) throws JSONException {
+            action = definition.getString("action");
+            method = definition.optString("method", DEFAULT_METHOD).toUpperCase();
+            url = definition.getString("url");
+            body = definition.opt("body");
+            headers = definition.optJSONObject("headers") != null ? definition.getJSONObject("headers") : new JSONObject();
+            JSONObject retry = definition.optJSONObject("retry");
+            maxAttempts = Math.max(1, retry != null ? retry.optInt("maxAttempts", DEFAULT_MAX_ATTEMPTS) : DEFAULT_MAX_ATTEMPTS);
+            requiresUi = definition.optBoolean("requiresUi", false);
+            if (body != null && (method.equals("GET") || method.equals("HEAD"))) {
+                throw new JSONException("Route for '" + action + "' has a body but method " + method + " doesn't permit one");
+            }
+        }
+    }
+
+    /**
+     * Sends the request of a routed action as a job queue job.
+     * Args are the method, url, headers and body of the request, with its templates already substituted.
+     */
+    static class RouteJob implements FirebasePluginJobQueue.Handler {
+        @Override
+        public boolean run(Context context, JSONObject args) throws Exception {
+            String method = args.getString("method");
+            String body = args.optString("body", null);
+            String contentType = args.optString("contentType", "application/json; charset=utf-8");
+            Request.Builder request = new Request.Builder()
+                    .url(args.getString("url"))
+                    .method(method, body != null ? RequestBody.create(body, MediaType.parse(contentType))
+                            : requiresBody(method) ? RequestBody.create(new byte[0], (MediaType) null) : null);
+            JSONObject headers = args.optJSONObject("headers");
+            if (headers != null) {
+                Iterator<String> names = headers.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    request.header(name, headers.getString(name));
+                }
+            }
+
+            Response response = FirebasePluginHttpClient.getInstance(context).send(request.build());
+            try {
+                int responseCode = response.code();
+                if (response.isSuccessful()) {
+                    Log.d(TAG, "FirebasePluginActionRouter: Sent " + args.optString("action") + " action (" + responseCode + ")");
+                    return true;
+                }
+                if (responseCode >= 500 || responseCode == 408 || responseCode == 429) {
+                    Log.e(TAG, "FirebasePluginActionRouter: Server returned error: " + responseCode + ", will retry");
+                    return false;
+                }
+                Log.e(TAG, "FirebasePluginActionRouter: Server returned error: " + responseCode + " for " + args.optString("action") + " action");
+                return true;
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    private static boolean requiresBody(String method) {
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH");
+    }
+
+    private static FirebasePluginActionRouter instance = null;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final Map<String, Route> bundled;
+    // Replaced as a whole when routes are registered, so lookups need no locking
+    private volatile Map<String, Route> routes = Collections.emptyMap();
+
+    public static synchronized FirebasePluginActionRouter getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginActionRouter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginActionRouter(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        bundled = loadBundled();
+        Map<String, Route> registered = new HashMap<String, Route>();
+        String json = preferences.getString(PREFS_KEY_ROUTES, null);
+        if (json != null) {
+            try {
+                registered = parse(new JSONArray(json));
+            } catch (JSONException e) {
+                Log.w(TAG, "FirebasePluginActionRouter: Discarding unreadable registered routes", e);
+                preferences.edit().remove(PREFS_KEY_ROUTES).apply();
+            }
+        }
+        routes = merge(registered);
+    }
+
+    /**
+     * Replaces the routes registered from JavaScript.
+     * @param definitions array of {"action": "id", "method": "POST", "url": "...", "body": ..., "headers": {...}, "retry": {"maxAttempts": n}, "requiresUi": false}
+     */
+    public synchronized void setRoutes(JSONArray definitions) throws JSONException {
+        Map<String, Route> updated = merge(parse(definitions));
+        preferences.edit().putString(PREFS_KEY_ROUTES, definitions.toString()).apply();
+        routes = updated;
+        Log.d(TAG, "FirebasePluginActionRouter: Registered " + definitions.length() + " routes");
+    }
+
+    /**
+     * @return the route of the action, or null if it isn't routed
+     */
+    public Route get(String action) {
+        return action != null ? routes.get(action) : null;
+    }
+
+    /**
+     * @return true if the action is routed and is handled without opening the app
+     */
+    public boolean isBackground(String action) {
+        Route route = get(action);
+        return route != null && !route.requiresUi;
+    }
+
+    /**
+     * Queues the route's request for a tapped action, substituting the fields of its data into the templates.
+     * @return the ID of the job sending the request, or -1 if it couldn't be queued
+     */
+    public long dispatch(Route route, Bundle data) {
+        try {
+            JSONObject args = new JSONObject();
+            args.put("action", route.action);
+            args.put("method", route.method);
+            args.put("url", expand(route.url, data));
+            JSONObject headers = new JSONObject();
+            Iterator<String> names = route.headers.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                headers.put(name, expand(route.headers.getString(name), data));
+            }
+            String idempotencyKey = FirebaseHttpService.idempotencyKey(data);
+            if (!headers.has("Idempotency-Key")) {
+                headers.put("Idempotency-Key", idempotencyKey);
+            }
+            args.put("headers", headers);
+            if (route.body instanceof String) {
+                args.put("body", expand((String) route.body, data));
+                args.put("contentType", "text/plain; charset=utf-8");
+            } else if (route.body != null) {
+                args.put("body", expandJson(route.body, data).toString());
+            }
+            Log.d(TAG, "FirebasePluginActionRouter: Dispatching " + route.action + " action to " + route.method + " " + args.getString("url"));
+            return FirebasePluginJobQueue.getInstance(context).enqueue(FirebasePluginJobQueue.TYPE_ROUTED_ACTION, args,
+                    FirebasePluginJobQueue.CONSTRAINT_NETWORK, idempotencyKey, route.maxAttempts);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return -1;
+        }
+    }
+
+    private Map<String, Route> merge(Map<String, Route> registered) {
+        Map<String, Route> merged = new HashMap<String, Route>(bundled);
+        merged.putAll(registered);
+        return Collections.unmodifiableMap(merged);
+    }
+
+    private Map<String, Route> loadBundled() {
+        InputStream input = null;
+        try {
+            input = context.getAssets().open(ASSET_FILE);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            JSONObject root = new JSONObject(output.toString("UTF-8"));
+            Map<String, Route> parsed = parse(root.optJSONArray(ASSET_ROOT_KEY));
+            Log.d(TAG, "FirebasePluginActionRouter: Loaded " + parsed.size() + " routes from " + ASSET_FILE);
+            return parsed;
+        } catch (FileNotFoundException e) {
+            // No bundled routes
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "FirebasePluginActionRouter: Unable to read " + ASSET_FILE, e);
+        } finally {
+            if (input != null) {
+                try { input.close(); } catch (IOException ignored) {}
+            }
+        }
+        return new HashMap<String, Route>();
+    }
+
+    /**
+     * Routes missing an action or URL are rejected.
+     */
+    private static Map<String, Route> parse(JSONArray definitions) throws JSONException {
+        Map<String, Route> parsed = new HashMap<String, Route>();
+        if (definitions == null) return parsed;
+        for (int i = 0; i < definitions.length(); i++) {
+            JSONObject definition = definitions.getJSONObject(i);
+            if (!definition.has("action") || !definition.has("url")) {
+                throw new JSONException("Route definition at index " + i + " is missing its 'action' or 'url'");
+            }
+            Route route = new Route(definition);
+            parsed.put(route.action, route);
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the template with each {field} replaced by the value of the field, or an empty string if it is missing
+     */
+    static String expand(String template, Bundle data) {
+        Matcher matcher = FIELD_PATTERN.matcher(template);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            Object value = data.get(matcher.group(1));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value != null ? String.valueOf(value) : ""));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static Object expandJson(Object template, Bundle data) throws JSONException {
+        if (template instanceof JSONObject) {
+            JSONObject object = (JSONObject) template;
+            JSONObject expanded = new JSONObject();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                expanded.put(key, expandJson(object.get(key), data));
+            }
+            return expanded;
+        }
+        if (template instanceof JSONArray) {
+            JSONArray array = (JSONArray) template;
+            JSONArray expanded = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                expanded.put(expandJson(array.get(i), data));
+            }
+            return expanded;
+        }
+        if (template instanceof String) {
+            return expand((String) template, data);
+        }
+        return template;
+    }
+}
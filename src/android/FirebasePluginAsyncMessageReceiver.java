@@ -0,0 +1,55 @@
+package org.apache.cordova.firebase;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Receiver which decides asynchronously whether it handles a received message.
+ * The result is awaited for at most getDeadlineMs(); if it isn't available by then the future is cancelled,
+ * the timeout is counted and the message is treated as not handled, so a slow receiver can't stall message processing.
+ */
+public abstract class FirebasePluginAsyncMessageReceiver extends FirebasePluginMessageReceiver {
+
+    public static final long DEFAULT_DEADLINE_MS = 2000;
+
+    /**
+     * Concrete subclasses should override this and return a future resolving to true if they handle the received message.
+     *
+     * @param remoteMessage
+     * @return future result, or null if the receiver doesn't handle the message
+     */
+    public abstract Future<Boolean> onMessageReceivedAsync(RemoteMessage remoteMessage);
+
+    /**
+     * @return the maximum time in milliseconds to wait for the result of onMessageReceivedAsync()
+     */
+    public long getDeadlineMs() {
+        return DEFAULT_DEADLINE_MS;
+    }
+
+    @Override
+    public final boolean onMessageReceived(RemoteMessage remoteMessage) {
+        try {
+            return awaitMessageReceived(remoteMessage);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return false;
+        }
+    }
+
+    boolean awaitMessageReceived(RemoteMessage remoteMessage) throws Exception {
+        Future<Boolean> future = onMessageReceivedAsync(remoteMessage);
+        if (future == null) return false;
+        try {
+            return Boolean.TRUE.equals(future.get(getDeadlineMs(), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes notification images at the size they are displayed rather than their full resolution.
+ * Image bounds are read first and the image is subsampled to just above the target size, decoding into a bitmap
+ * reused from a pool bucketed by size. It is then scaled, cropped and shaped (square, circle or rounded) into a
+ * bitmap of the target size in a single draw, after which the decode bitmap goes back to the pool.
+ * The peak bitmap memory used to produce each image is recorded as a metric.
+ */
+public class FirebasePluginBitmapTransformer {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final int SHAPE_SQUARE = 0;
+    public static final int SHAPE_CIRCLE = 1;
+    public static final int SHAPE_ROUNDED = 2;
+
+    // Height of the expanded BigPicture area
+    private static final int BIG_PICTURE_HEIGHT_DP = 256;
+    private static final float ROUNDED_CORNER_FRACTION = 0.125f;
+
+    private static final int POOL_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int POOL_BUCKETS = 32;
+
+    /**
+     * Size and shape an image is displayed at.
+     * Cropped targets are filled (centre-cropping the image), others fit the image inside them keeping its aspect ratio.
+     */
+    public static class Target {
+        public final int width;
+        public final int height;
+        public final int shape;
+        public final boolean crop;
+
+        public Target(int width, int height, int shape, boolean crop) {
+            this.width = Math.max(1, width);
+            this.height = Math.max(1, height);
+            this.shape = shape;
+            this.crop = crop;
+        }
+
+        /**
+         * @return key identifying images transformed for this target, e.g. for caching
+         */
+        public String key() {
+            return width + "x" + height + ":" + shape + (crop ? "c" : "f");
+        }
+    }
+
+    private static class DrawState {
+        final Canvas canvas = new Canvas();
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        final Matrix matrix = new Matrix();
+        final RectF rect = new RectF();
+    }
+
+    private static final ThreadLocal<DrawState> drawStates = new ThreadLocal<DrawState>() {
+        @Override
+        protected DrawState initialValue() {
+            return new DrawState();
+        }
+    };
+
+    private static FirebasePluginBitmapTransformer instance = null;
+
+    // Pooled bitmaps by power-of-two bucket of their allocation size
+    private final List<List<Bitmap>> pool = new ArrayList<List<Bitmap>>(POOL_BUCKETS);
+    private long poolBytes = 0;
+
+    private long transformedCount = 0;
+    private long poolHitCount = 0;
+    private long maxPeakBytes = 0;
+    private long totalPeakBytes = 0;
+
+    public static synchronized FirebasePluginBitmapTransformer getInstance() {
+        if (instance == null) {
+            instance = new FirebasePluginBitmapTransformer();
+        }
+        return instance;
+    }
+
+    private FirebasePluginBitmapTransformer() {
+        for (int i = 0; i < POOL_BUCKETS; i++) {
+            pool.add(new ArrayList<Bitmap>());
+        }
+    }
+
+    /**
+     * @return target for a notification large icon of the given shape
+     */
+    public static Target largeIcon(Context context, int shape) {
+        Resources resources = context.getResources();
+        int width = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int height = resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+        return new Target(width, height, shape, true);
+    }
+
+    /**
+     * @return target for the image of an expanded BigPicture notification
+     */
+    public static Target bigPicture(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int width = Math.min(metrics.widthPixels, metrics.heightPixels);
+        return new Target(width, Math.round(BIG_PICTURE_HEIGHT_DP * metrics.density), SHAPE_SQUARE, false);
+    }
+
+    /**
+     * Decodes the image file for the given target.
+     * @return the transformed image, or null if the file could not be decoded
+     */
+    public Bitmap transform(File file, Target target) {
+        String path = file.getAbsolutePath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(sourceWidth, sourceHeight, target);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        int sampledWidth = (sourceWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (sourceHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = obtain(sampledWidth, sampledHeight);
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap couldn't be decoded into, e.g. because the decoder chose a different config
+            if (options.inBitmap == null) throw e;
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeFile(path, options);
+        }
+        if (decoded == null) {
+            release(options.inBitmap);
+            return null;
+        }
+
+        float scale = target.crop
+                ? Math.max((float) target.width / decoded.getWidth(), (float) target.height / decoded.getHeight())
+                : Math.min((float) target.width / decoded.getWidth(), (float) target.height / decoded.getHeight());
+        // Never scale up, it only costs memory
+        scale = Math.min(scale, 1f);
+        int outputWidth = Math.round(decoded.getWidth() * scale);
+        int outputHeight = Math.round(decoded.getHeight() * scale);
+        if (target.crop) {
+            outputWidth = Math.min(outputWidth, target.width);
+            outputHeight = Math.min(outputHeight, target.height);
+        }
+
+        Bitmap output;
+        long peakBytes = decoded.getAllocationByteCount();
+        if (scale == 1f && target.shape == SHAPE_SQUARE && outputWidth == decoded.getWidth() && outputHeight == decoded.getHeight()) {
+            output = decoded;
+        } else {
+            output = Bitmap.createBitmap(Math.max(1, outputWidth), Math.max(1, outputHeight), Bitmap.Config.ARGB_8888);
+            peakBytes += output.getAllocationByteCount();
+            draw(decoded, output, scale, target.shape);
+            release(decoded);
+        }
+
+        synchronized (this) {
+            transformedCount++;
+            totalPeakBytes += peakBytes;
+            maxPeakBytes = Math.max(maxPeakBytes, peakBytes);
+        }
+        Log.d(TAG, "FirebasePluginBitmapTransformer: Decoded " + sourceWidth + "x" + sourceHeight + " image to "
+                + output.getWidth() + "x" + output.getHeight() + " (sample size " + options.inSampleSize + ", peak " + peakBytes + " bytes)");
+        return output;
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("transformed", transformedCount);
+        metrics.put("poolHits", poolHitCount);
+        metrics.put("poolBytes", poolBytes);
+        metrics.put("meanPeakBytes", transformedCount > 0 ? totalPeakBytes / transformedCount : 0);
+        metrics.put("maxPeakBytes", maxPeakBytes);
+        return metrics;
+    }
+
+    private static void draw(Bitmap source, Bitmap output, float scale, int shape) {
+        DrawState state = drawStates.get();
+        int width = output.getWidth();
+        int height = output.getHeight();
+
+        // Scale the source about its centre into the output, cropping whatever falls outside
+        state.matrix.setScale(scale, scale);
+        state.matrix.postTranslate((width - source.getWidth() * scale) / 2f, (height - source.getHeight() * scale) / 2f);
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(state.matrix);
+        state.paint.setShader(shader);
+
+        state.canvas.setBitmap(output);
+        state.rect.set(0, 0, width, height);
+        if (shape == SHAPE_CIRCLE) {
+            state.canvas.drawCircle(width / 2f, height / 2f, Math.min(width, height) / 2f, state.paint);
+        } else if (shape == SHAPE_ROUNDED) {
+            float radius = Math.min(width, height) * ROUNDED_CORNER_FRACTION;
+            state.canvas.drawRoundRect(state.rect, radius, radius, state.paint);
+        } else {
+            state.canvas.drawRect(state.rect, state.paint);
+        }
+
+        // Don't keep the source or output referenced from the thread
+        state.canvas.setBitmap(null);
+        state.paint.setShader(null);
+    }
+
+    /**
+     * @return the largest power of two sample size which keeps the decoded image at least as large as the target needs
+     */
+    private static int sampleSize(int width, int height, Target target) {
+        float scale = target.crop
+                ? Math.max((float) target.width / width, (float) target.height / height)
+                : Math.min((float) target.width / width, (float) target.height / height);
+        int sampleSize = 1;
+        while (scale * sampleSize * 2 <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return a pooled bitmap reconfigured to the given size, or null if none is large enough
+     */
+    private synchronized Bitmap obtain(int width, int height) {
+        long bytes = (long) width * height * 4;
+        for (int bucket = bucketFor(bytes); bucket < POOL_BUCKETS && bucket <= bucketFor(bytes) + 1; bucket++) {
+            Iterator<Bitmap> bitmaps = pool.get(bucket).iterator();
+            while (bitmaps.hasNext()) {
+                Bitmap bitmap = bitmaps.next();
+                if (bitmap.getAllocationByteCount() >= bytes) {
+                    bitmaps.remove();
+                    poolBytes -= bitmap.getAllocationByteCount();
+                    poolHitCount++;
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        int bytes = bitmap.getAllocationByteCount();
+        if (poolBytes + bytes > POOL_MAX_BYTES) {
+            bitmap.recycle();
+            return;
+        }
+        pool.get(bucketFor(bytes)).add(bitmap);
+        poolBytes += bytes;
+    }
+
+    private static int bucketFor(long bytes) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(1, bytes - 1));
+        return Math.min(bucket, POOL_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,244 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Type-preserving serialization of message Bundles for on-disk storage.
+ * Values are grouped by type so they can be restored with the same typed getters they were put with.
+ * Arrays and lists are encoded as JSON arrays the same way FirebasePluginBundleJsonEncoder delivers them to JavaScript,
+ * and restored as typed arrays, or string and integer lists.
+ * Only the value types used by the plugin's message bundles are supported; others are stored as strings, with arrays
+ * and lists which can't be restored with their type, e.g. of mixed types, stored in their JSON form.
+ */
+public class FirebasePluginBundleCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String STRINGS = "s";
+    private static final String BOOLEANS = "b";
+    private static final String INTS = "i";
+    private static final String LONGS = "l";
+    private static final String DOUBLES = "d";
+    private static final String BUNDLES = "n";
+    private static final String STRING_ARRAYS = "sa";
+    private static final String BOOLEAN_ARRAYS = "ba";
+    private static final String INT_ARRAYS = "ia";
+    private static final String LONG_ARRAYS = "la";
+    private static final String DOUBLE_ARRAYS = "da";
+    private static final String FLOAT_ARRAYS = "fa";
+    private static final String STRING_LISTS = "sl";
+    private static final String INT_LISTS = "il";
+
+    public static byte[] encode(Bundle bundle) throws JSONException {
+        return toJson(bundle).toString().getBytes(UTF_8);
+    }
+
+    public static Bundle decode(byte[] bytes) throws JSONException {
+        return fromJson(new JSONObject(new String(bytes, UTF_8)));
+    }
+
+    @SuppressWarnings("deprecation")
+    public static JSONObject toJson(Bundle bundle) throws JSONException {
+        JSONObject record = new JSONObject();
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value == null) {
+                continue;
+            } else if (value instanceof Boolean) {
+                group(record, BOOLEANS).put(key, value);
+            } else if (value instanceof Integer) {
+                group(record, INTS).put(key, value);
+            } else if (value instanceof Long) {
+                group(record, LONGS).put(key, value);
+            } else if (value instanceof Double || value instanceof Float) {
+                group(record, DOUBLES).put(key, ((Number) value).doubleValue());
+            } else if (value instanceof Bundle) {
+                group(record, BUNDLES).put(key, toJson((Bundle) value));
+            } else if (value.getClass().isArray() || value instanceof Collection) {
+                String type = sequenceType(value);
+                String json = FirebasePluginBundleJsonEncoder.encodeValue(value);
+                if (type != null) {
+                    group(record, type).put(key, new JSONArray(json));
+                } else {
+                    group(record, STRINGS).put(key, json);
+                }
+            } else {
+                group(record, STRINGS).put(key, value.toString());
+            }
+        }
+        return record;
+    }
+
+    public static Bundle fromJson(JSONObject record) throws JSONException {
+        Bundle bundle = new Bundle();
+        JSONObject values;
+
+        if ((values = record.optJSONObject(STRINGS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putString(key, values.getString(key));
+            }
+        }
+        if ((values = record.optJSONObject(BOOLEANS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putBoolean(key, values.getBoolean(key));
+            }
+        }
+        if ((values = record.optJSONObject(INTS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putInt(key, values.getInt(key));
+            }
+        }
+        if ((values = record.optJSONObject(LONGS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putLong(key, values.getLong(key));
+            }
+        }
+        if ((values = record.optJSONObject(DOUBLES)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putDouble(key, values.getDouble(key));
+            }
+        }
+        if ((values = record.optJSONObject(BUNDLES)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                bundle.putBundle(key, fromJson(values.getJSONObject(key)));
+            }
+        }
+        if ((values = record.optJSONObject(STRING_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                String[] strings = new String[array.length()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = array.isNull(i) ? null : array.getString(i);
+                }
+                bundle.putStringArray(key, strings);
+            }
+        }
+        if ((values = record.optJSONObject(BOOLEAN_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                boolean[] booleans = new boolean[array.length()];
+                for (int i = 0; i < booleans.length; i++) {
+                    booleans[i] = array.getBoolean(i);
+                }
+                bundle.putBooleanArray(key, booleans);
+            }
+        }
+        if ((values = record.optJSONObject(INT_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                int[] ints = new int[array.length()];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = array.getInt(i);
+                }
+                bundle.putIntArray(key, ints);
+            }
+        }
+        if ((values = record.optJSONObject(LONG_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                long[] longs = new long[array.length()];
+                for (int i = 0; i < longs.length; i++) {
+                    longs[i] = array.getLong(i);
+                }
+                bundle.putLongArray(key, longs);
+            }
+        }
+        // The encoder writes NaN and infinities as null, which are restored as NaN
+        if ((values = record.optJSONObject(DOUBLE_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                double[] doubles = new double[array.length()];
+                for (int i = 0; i < doubles.length; i++) {
+                    doubles[i] = array.optDouble(i);
+                }
+                bundle.putDoubleArray(key, doubles);
+            }
+        }
+        if ((values = record.optJSONObject(FLOAT_ARRAYS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                float[] floats = new float[array.length()];
+                for (int i = 0; i < floats.length; i++) {
+                    floats[i] = (float) array.optDouble(i);
+                }
+                bundle.putFloatArray(key, floats);
+            }
+        }
+        if ((values = record.optJSONObject(STRING_LISTS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                ArrayList<String> strings = new ArrayList<String>(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    strings.add(array.isNull(i) ? null : array.getString(i));
+                }
+                bundle.putStringArrayList(key, strings);
+            }
+        }
+        if ((values = record.optJSONObject(INT_LISTS)) != null) {
+            for (Iterator<String> it = values.keys(); it.hasNext(); ) {
+                String key = it.next();
+                JSONArray array = values.getJSONArray(key);
+                ArrayList<Integer> ints = new ArrayList<Integer>(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    ints.add(array.isNull(i) ? null : array.getInt(i));
+                }
+                bundle.putIntegerArrayList(key, ints);
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * @return the group an array or list is restored from, or null if it can't be restored with its type
+     */
+    private static String sequenceType(Object value) {
+        if (value instanceof String[]) return STRING_ARRAYS;
+        if (value instanceof boolean[]) return BOOLEAN_ARRAYS;
+        if (value instanceof int[]) return INT_ARRAYS;
+        if (value instanceof long[]) return LONG_ARRAYS;
+        if (value instanceof double[]) return DOUBLE_ARRAYS;
+        if (value instanceof float[]) return FLOAT_ARRAYS;
+        if (!(value instanceof Collection)) return null;
+
+        // Bundles only hold lists of strings or integers, so a list is one of those if its items are
+        boolean strings = true;
+        boolean ints = true;
+        for (Object item : (Collection<?>) value) {
+            if (item == null) continue;
+            strings &= item instanceof String;
+            ints &= item instanceof Integer;
+        }
+        return strings ? STRING_LISTS : ints ? INT_LISTS : null;
+    }
+
+    private static JSONObject group(JSONObject record, String type) throws JSONException {
+        JSONObject group = record.optJSONObject(type);
+        if (group == null) {
+            group = new JSONObject();
+            record.put(type, group);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,171 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+
+/**
+ * Writes message Bundles straight to JSON text for delivery to JavaScript.
+ * Avoids building an intermediate JSONObject per message, and types values properly: nested Bundles become
+ * objects, arrays and collections become arrays and numbers and booleans stay unquoted, where putting raw
+ * Bundle values into a JSONObject would stringify nested Bundles and arrays into their toString() form.
+ * The StringBuilder is reused per thread, so steady-state encoding only allocates the resulting String.
+ */
+public class FirebasePluginBundleJsonEncoder {
+
+    private static final int MAX_REUSED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+    /**
+     * Plugin result carrying already-encoded JSON, so the bridge passes it to JavaScript as an object
+     * rather than quoting it as a string.
+     */
+    public static class JsonResult extends PluginResult {
+        private final String json;
+
+        public JsonResult(String json) {
+            super(Status.OK, json);
+            this.json = json;
+        }
+
+        @Override
+        public int getMessageType() {
+            return MESSAGE_TYPE_JSON;
+        }
+
+        @Override
+        public String getMessage() {
+            return json;
+        }
+    }
+
+    public static String encode(Bundle bundle) {
+        StringBuilder sb = obtain();
+        writeBundle(sb, bundle);
+        return release(sb);
+    }
+
+    /**
+     * Encodes a single value, e.g. an array, as it would be encoded as a field of a Bundle.
+     */
+    static String encodeValue(Object value) {
+        StringBuilder sb = obtain();
+        writeValue(sb, value);
+        return release(sb);
+    }
+
+    /**
+     * Appends the JSON encoding of the bundle to the given builder.
+     */
+    public static void writeBundle(StringBuilder sb, Bundle bundle) {
+        sb.append('{');
+        boolean first = true;
+        for (String key : bundle.keySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            writeString(sb, key);
+            sb.append(':');
+            writeValue(sb, getValue(bundle, key));
+        }
+        sb.append('}');
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Object getValue(Bundle bundle, String key) {
+        // The untyped getter is the only way to read a value of unknown type; the Bundle is unparcelled once by keySet()
+        return bundle.get(key);
+    }
+
+    private static void writeValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            writeString(sb, (String) value);
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            sb.append(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                sb.append("null");
+            } else if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                sb.append((long) d);
+            } else {
+                sb.append(d);
+            }
+        } else if (value instanceof Bundle) {
+            writeBundle(sb, (Bundle) value);
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            sb.append(value.toString());
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) sb.append(',');
+                first = false;
+                writeValue(sb, item);
+            }
+            sb.append(']');
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            sb.append('[');
+            for (int i = 0; i < length; i++) {
+                if (i > 0) sb.append(',');
+                writeValue(sb, Array.get(value, i));
+            }
+            sb.append(']');
+        } else {
+            writeString(sb, value.toString());
+        }
+    }
+
+    private static void writeString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0, length = s.length(); i < length; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    // Control characters and the JS line terminators, which are invalid in JS string literals
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    static StringBuilder obtain() {
+        StringBuilder sb = builders.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    static String release(StringBuilder sb) {
+        String result = sb.toString();
+        if (sb.capacity() > MAX_REUSED_CAPACITY) {
+            builders.set(new StringBuilder(1024));
+        }
+        return result;
+    }
+}
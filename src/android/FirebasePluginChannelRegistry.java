@@ -0,0 +1,123 @@
+package org.apache.cordova.firebase;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process registry of the app's notification channels.
+ * Channels are loaded from NotificationManager once and then kept in step with the plugin's own
+ * create/delete calls, so existence, importance and default-channel queries don't need a binder call.
+ * Users can change a channel's settings outside the app, so the registry is reloaded when the app resumes.
+ */
+public class FirebasePluginChannelRegistry {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static FirebasePluginChannelRegistry instance = null;
+
+    private final Context context;
+    private final Map<String, NotificationChannel> channels = new ConcurrentHashMap<String, NotificationChannel>();
+    private volatile boolean loaded = false;
+    private volatile String defaultChannelId = null;
+
+    public static synchronized FirebasePluginChannelRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginChannelRegistry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginChannelRegistry(Context context) {
+        this.context = context;
+    }
+
+    public boolean exists(String channelId) {
+        if (channelId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return false;
+        ensureLoaded();
+        return channels.containsKey(channelId);
+    }
+
+    /**
+     * @return the channel with the given ID, or null if it doesn't exist
+     */
+    public NotificationChannel get(String channelId) {
+        if (channelId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
+        ensureLoaded();
+        return channels.get(channelId);
+    }
+
+    /**
+     * @return the importance of the given channel, or NotificationManager.IMPORTANCE_UNSPECIFIED if it doesn't exist
+     */
+    public int getImportance(String channelId) {
+        NotificationChannel channel = get(channelId);
+        if (channel == null) return NotificationManager.IMPORTANCE_UNSPECIFIED;
+        return channel.getImportance();
+    }
+
+    public String getDefaultChannelId() {
+        return defaultChannelId;
+    }
+
+    public void setDefaultChannelId(String channelId) {
+        defaultChannelId = channelId;
+    }
+
+    /**
+     * @return all channels, or null below Android 8
+     */
+    public List<NotificationChannel> list() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
+        ensureLoaded();
+        return new ArrayList<NotificationChannel>(channels.values());
+    }
+
+    /**
+     * Records a channel that has just been created with NotificationManager.createNotificationChannel().
+     */
+    public void put(NotificationChannel channel) {
+        if (channel == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        ensureLoaded();
+        channels.put(channel.getId(), channel);
+    }
+
+    /**
+     * Records a channel that has just been deleted with NotificationManager.deleteNotificationChannel().
+     */
+    public void remove(String channelId) {
+        if (channelId == null) return;
+        channels.remove(channelId);
+    }
+
+    /**
+     * Marks the registry stale so it is reloaded from NotificationManager on next use.
+     */
+    public void invalidate() {
+        loaded = false;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            if (nm != null) {
+                List<NotificationChannel> notificationChannels = nm.getNotificationChannels();
+                channels.clear();
+                for (NotificationChannel channel : notificationChannels) {
+                    channels.put(channel.getId(), channel);
+                }
+                Log.d(TAG, "FirebasePluginChannelRegistry: Loaded " + channels.size() + " channels");
+            }
+            loaded = true;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.apache.cordova.firebase;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Iterator;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts credentials, e.g. the auth tokens of notification actions, before they are persisted for a later retry
+ * or with the message they came in.
+ * They are encrypted with AES-GCM under a key held in the Android Keystore, so they can't be read from the app's
+ * storage. Deleting the key on sign out makes everything encrypted under it unreadable.
+ * The Keystore can't hold AES keys before Android 6, in which case nothing can be encrypted and callers must not
+ * persist the credentials.
+ */
+public class FirebasePluginCredentials {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "FirebasePluginCredentials";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    // Fields of a message which carry the credentials its notification actions are sent with
+    private static final String[] MESSAGE_CREDENTIAL_FIELDS = {"authToken", "apiUrl"};
+    private static final String SEALED_FIELD = "_sealedCredentials";
+
+    private static SecretKey key = null;
+
+    /**
+     * @return the encrypted credentials, or null if they can't be encrypted
+     */
+    public static synchronized String seal(String plaintext) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, getKey(true));
+            byte[] iv = cipher.getIV();
+            byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = new byte[iv.length + ciphertext.length];
+            System.arraycopy(iv, 0, sealed, 0, iv.length);
+            System.arraycopy(ciphertext, 0, sealed, iv.length, ciphertext.length);
+            return Base64.encodeToString(sealed, Base64.NO_WRAP);
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginCredentials: Unable to encrypt credentials", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the decrypted credentials, or null if they can't be decrypted, e.g. because the key was deleted on sign out
+     */
+    public static synchronized String open(String sealed) {
+        if (sealed == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return null;
+        try {
+            SecretKey secretKey = getKey(false);
+            if (secretKey == null) return null;
+            byte[] bytes = Base64.decode(sealed, Base64.NO_WRAP);
+            if (bytes.length <= IV_LENGTH) return null;
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 0, IV_LENGTH));
+            return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginCredentials: Unable to decrypt credentials", e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the key, so credentials encrypted so far can no longer be read.
+     */
+    public static synchronized void clear() {
+        key = null;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return;
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            if (keyStore.containsAlias(KEY_ALIAS)) {
+                keyStore.deleteEntry(KEY_ALIAS);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginCredentials: Unable to delete key", e);
+        }
+    }
+
+    /**
+     * Encrypts the credential fields of a message, for a copy of it to be persisted.
+     * @return a copy of the message with its credentials replaced by their encryption, the message itself if it has
+     *         none, or null if they can't be encrypted
+     */
+    public static Bundle sealFields(Bundle message) {
+        try {
+            JSONObject credentials = new JSONObject();
+            for (String field : MESSAGE_CREDENTIAL_FIELDS) {
+                String value = message.getString(field);
+                if (value != null) {
+                    credentials.put(field, value);
+                }
+            }
+            if (credentials.length() == 0) return message;
+
+            String sealed = seal(credentials.toString());
+            if (sealed == null) return null;
+            Bundle copy = stripFields(message);
+            copy.putString(SEALED_FIELD, sealed);
+            return copy;
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginCredentials: Unable to encrypt message credentials", e);
+            return null;
+        }
+    }
+
+    /**
+     * Restores the credential fields of a message persisted by sealFields(). They are left out if they can't be
+     * decrypted, e.g. because the user has signed out since.
+     */
+    public static Bundle openFields(Bundle message) {
+        String sealed = message.getString(SEALED_FIELD);
+        if (sealed == null) return message;
+        message.remove(SEALED_FIELD);
+        String plaintext = open(sealed);
+        if (plaintext == null) {
+            Log.w(TAG, "FirebasePluginCredentials: Unable to decrypt message credentials, leaving them out");
+            return message;
+        }
+        try {
+            JSONObject credentials = new JSONObject(plaintext);
+            Iterator<String> fields = credentials.keys();
+            while (fields.hasNext()) {
+                String field = fields.next();
+                message.putString(field, credentials.getString(field));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginCredentials: Invalid message credentials, leaving them out", e);
+        }
+        return message;
+    }
+
+    /**
+     * @return a copy of the message without its credential fields
+     */
+    public static Bundle stripFields(Bundle message) {
+        Bundle copy = new Bundle(message);
+        for (String field : MESSAGE_CREDENTIAL_FIELDS) {
+            copy.remove(field);
+        }
+        return copy;
+    }
+
+    private static SecretKey getKey(boolean create) throws Exception {
+        if (key != null) return key;
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            key = ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        } else if (create) {
+            KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+            generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setKeySize(256)
+                    .build());
+            key = generator.generateKey();
+        }
+        return key;
+    }
+}
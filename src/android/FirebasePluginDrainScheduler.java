@@ -0,0 +1,75 @@
+package org.apache.cordova.firebase;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a drain of queued work on an executor, at most one at a time, however many threads request it.
+ * A request made while a drain is scheduled or running is coalesced into it. Once a drain has cleared its flag it
+ * checks for work again, so work queued after its last look but before the flag was cleared isn't left waiting for
+ * the next request.
+ * Has no Android dependencies so it can be stress tested on the JVM (see test/android).
+ */
+public class FirebasePluginDrainScheduler {
+
+    public interface Drain {
+        /**
+         * @return true if there is work which drain() could make progress on now
+         */
+        boolean hasWork();
+
+        /**
+         * Sends queued work until there is none left or no more can be sent for now; called on the executor.
+         */
+        void drain();
+    }
+
+    private final Executor executor;
+    private final Drain drain;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final Runnable run = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                do {
+                    drain.drain();
+                    draining.set(false);
+                } while (drain.hasWork() && draining.compareAndSet(false, true));
+            } catch (RuntimeException e) {
+                draining.set(false);
+                throw e;
+            }
+        }
+    };
+
+    public FirebasePluginDrainScheduler(Executor executor, Drain drain) {
+        this.executor = executor;
+        this.drain = drain;
+    }
+
+    /**
+     * Schedules a drain if there is work and one isn't already scheduled or running.
+     * @return true if a drain was scheduled
+     */
+    public boolean request() {
+        if (!drain.hasWork()) {
+            return false;
+        }
+        if (!draining.compareAndSet(false, true)) {
+            // The drain scheduled or running picks up work queued since it started
+            return false;
+        }
+        try {
+            executor.execute(run);
+        } catch (RuntimeException e) {
+            draining.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isDraining() {
+        return draining.get();
+    }
+}
@@ -0,0 +1,184 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * HTTP transport shared by the plugin's network requests.
+ * A single OkHttpClient keeps a pool of keep-alive connections (HTTP/2 where the server supports it) so repeated
+ * requests to the same host skip the TCP and TLS handshakes, and transparently requests and decompresses gzip responses.
+ * Requests run on a bounded executor rather than a thread each.
+ * Timeouts are read from the ANDROID_HTTP_CONNECT_TIMEOUT_MS and ANDROID_HTTP_READ_TIMEOUT_MS plugin variables via manifest meta-data.
+ */
+public class FirebasePluginHttpClient {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    static final String META_DATA_CONNECT_TIMEOUT_MS = "firebase_http_connect_timeout_ms";
+    static final String META_DATA_READ_TIMEOUT_MS = "firebase_http_read_timeout_ms";
+
+    private static final long DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    private static final long DEFAULT_READ_TIMEOUT_MS = 15000;
+
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+    private static final int EXECUTOR_THREADS = 4;
+    private static final int MAX_QUEUED_REQUESTS = 64;
+
+    private static FirebasePluginHttpClient instance = null;
+
+    private final OkHttpClient client;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+
+    public static synchronized FirebasePluginHttpClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginHttpClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginHttpClient(Context context) {
+        long connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+        long readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+        try {
+            ApplicationInfo info = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            Bundle metaData = info.metaData;
+            if (metaData != null) {
+                connectTimeoutMs = getTimeout(metaData, META_DATA_CONNECT_TIMEOUT_MS, connectTimeoutMs);
+                readTimeoutMs = getTimeout(metaData, META_DATA_READ_TIMEOUT_MS, readTimeoutMs);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginHttpClient: Unable to read configuration, using defaults", e);
+        }
+        Log.d(TAG, "FirebasePluginHttpClient: connectTimeout=" + connectTimeoutMs + "ms; readTimeout=" + readTimeoutMs + "ms");
+
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .eventListener(new EventListener() {
+                    @Override
+                    public void callStart(Call call) {
+                        requestCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+                        connectCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void callFailed(Call call, IOException e) {
+                        failureCount.incrementAndGet();
+                    }
+                })
+                .build();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "FirebasePluginHttp-" + threadCount.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a task which makes requests on the bounded HTTP executor.
+     * @throws java.util.concurrent.RejectedExecutionException if too many tasks are already queued
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Sends a request on the calling thread.
+     * The caller must close the response, ideally after streaming its body.
+     */
+    public Response send(Request request) throws IOException {
+        return client.newCall(request).execute();
+    }
+
+    /**
+     * @return a POST request of the given JSON
+     */
+    public static Request.Builder postJson(String url, JSONObject payload) {
+        return new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(payload.toString(), JSON));
+    }
+
+    public static Request.Builder postJson(String url, JSONArray payload) {
+        return new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(payload.toString(), JSON));
+    }
+
+    public JSONObject getMetrics() throws JSONException {
+        long requests = requestCount.get();
+        long connects = connectCount.get();
+        ConnectionPool pool = client.connectionPool();
+        JSONObject metrics = new JSONObject();
+        metrics.put("requests", requests);
+        metrics.put("failures", failureCount.get());
+        metrics.put("connects", connects);
+        metrics.put("connectionReuse", requests > 0 ? Math.max(0, (double) (requests - connects) / requests) : 0);
+        metrics.put("connections", pool.connectionCount());
+        metrics.put("idleConnections", pool.idleConnectionCount());
+        metrics.put("queued", executor.getQueue().size());
+        return metrics;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long getTimeout(Bundle metaData, String name, long defaultValue) {
+        // Manifest meta-data values are typed by how they parse, so a number is an Integer
+        Object value = metaData.get(name);
+        long timeout = defaultValue;
+        if (value instanceof Number) {
+            timeout = ((Number) value).longValue();
+        } else if (value instanceof String) {
+            try {
+                timeout = Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "FirebasePluginHttpClient: Invalid " + name + ": " + value);
+            }
+        }
+        return timeout > 0 ? timeout : defaultValue;
+    }
+}
@@ -0,0 +1,431 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Loads notification images off the FCM delivery thread.
+ * Images are decoded at the size and shape they are displayed by FirebasePluginBitmapTransformer.
+ * Decoded bitmaps are kept in a byte-bounded in-memory LRU keyed by URL and target, downloaded images in a disk cache
+ * revalidated with ETag/Last-Modified, and concurrent requests for the same URL share one fetch, which decodes the
+ * downloaded image once for each target requested.
+ * Downloads go through FirebasePluginHttpClient, so they reuse its pooled connections and timeouts.
+ */
+public class FirebasePluginImageLoader {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String DISK_CACHE_DIR = "firebase_notification_images";
+    private static final long DISK_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    private static final long DISK_CACHE_FRESH_MS = 60 * 60 * 1000;
+    private static final int MEMORY_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int FETCH_THREADS = 2;
+    private static final int MAX_QUEUED_FETCHES = 32;
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_FETCHED_AT = "fetchedAt";
+
+    public interface Callback {
+        /**
+         * Invoked on a loader thread once the image is available.
+         * @param url URL that was requested
+         * @param bitmap decoded image, or null if it could not be loaded
+         */
+        void onImageLoaded(String url, Bitmap bitmap);
+    }
+
+    private static FirebasePluginImageLoader instance = null;
+
+    private final File diskCacheDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThreadPoolExecutor executor;
+    private final FirebasePluginHttpClient httpClient;
+    // Fetches in progress by URL
+    private final Map<String, Fetch> inFlight = new HashMap<String, Fetch>();
+    // Number of fetches using each cached image, which mustn't be deleted while they read it
+    private final Map<String, Integer> filesInUse = new HashMap<String, Integer>();
+
+    /**
+     * Targets to decode a fetched image for, each with the callbacks waiting for it.
+     */
+    private static class Fetch {
+        final Map<String, FirebasePluginBitmapTransformer.Target> targets = new LinkedHashMap<String, FirebasePluginBitmapTransformer.Target>();
+        final Map<String, List<Callback>> callbacks = new HashMap<String, List<Callback>>();
+
+        void add(FirebasePluginBitmapTransformer.Target target, Callback callback) {
+            String key = target.key();
+            List<Callback> waiting = callbacks.get(key);
+            if (waiting == null) {
+                waiting = new ArrayList<Callback>();
+                callbacks.put(key, waiting);
+                targets.put(key, target);
+            }
+            waiting.add(callback);
+        }
+    }
+
+    public static synchronized FirebasePluginImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginImageLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginImageLoader(Context context) {
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            Log.w(TAG, "FirebasePluginImageLoader: Unable to create disk cache at " + diskCacheDir);
+        }
+
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MEMORY_CACHE_MAX_BYTES);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_FETCHES));
+        executor.allowCoreThreadTimeOut(true);
+        httpClient = FirebasePluginHttpClient.getInstance(context);
+    }
+
+    /**
+     * Returns the image if it is already decoded in memory for the target, without doing any I/O.
+     */
+    public Bitmap getCached(String url, FirebasePluginBitmapTransformer.Target target) {
+        return url != null ? memoryCache.get(cacheKey(url, target)) : null;
+    }
+
+    /**
+     * Loads the image asynchronously. If another load of the same URL is in progress the callback
+     * is attached to it rather than starting a second download, even if it is for a different target.
+     */
+    public void load(final String url, final FirebasePluginBitmapTransformer.Target target, Callback callback) {
+        Bitmap cached = getCached(url, target);
+        if (cached != null) {
+            callback.onImageLoaded(url, cached);
+            return;
+        }
+
+        synchronized (inFlight) {
+            Fetch fetch = inFlight.get(url);
+            if (fetch != null) {
+                fetch.add(target, callback);
+                Log.d(TAG, "FirebasePluginImageLoader: Joined in-flight fetch for " + url);
+                return;
+            }
+            fetch = new Fetch();
+            fetch.add(target, callback);
+            inFlight.put(url, fetch);
+        }
+
+        final String name = fileName(url);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    retainFile(name);
+                    try {
+                        File bodyFile = null;
+                        try {
+                            bodyFile = fetch(url, name);
+                        } catch (Exception e) {
+                            Log.w(TAG, "FirebasePluginImageLoader: Failed to load " + url, e);
+                        }
+                        complete(url, bodyFile);
+                    } finally {
+                        releaseFile(name);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "FirebasePluginImageLoader: Fetch queue full, dropping " + url);
+            complete(url, null);
+        }
+    }
+
+    /**
+     * Loads the image and waits for it, sharing any in-flight fetch of the same URL.
+     */
+    public Bitmap loadBlocking(String url, FirebasePluginBitmapTransformer.Target target, long timeoutMs) {
+        Bitmap cached = getCached(url, target);
+        if (cached != null) {
+            return cached;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Bitmap[] result = new Bitmap[1];
+        load(url, target, new Callback() {
+            @Override
+            public void onImageLoaded(String loadedUrl, Bitmap bitmap) {
+                result[0] = bitmap;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    /**
+     * Decodes the fetched image for each target waiting for it and passes it to their callbacks.
+     * @param bodyFile the fetched image, or null if it couldn't be fetched
+     */
+    private void complete(String url, File bodyFile) {
+        Fetch fetch;
+        synchronized (inFlight) {
+            // Loads from now on start a new fetch, which will find the image in the disk cache
+            fetch = inFlight.remove(url);
+        }
+        if (fetch == null) return;
+        for (Map.Entry<String, FirebasePluginBitmapTransformer.Target> target : fetch.targets.entrySet()) {
+            Bitmap bitmap = null;
+            if (bodyFile != null) {
+                try {
+                    bitmap = decodeAndCache(url, target.getValue(), bodyFile);
+                } catch (Exception e) {
+                    Log.w(TAG, "FirebasePluginImageLoader: Failed to decode " + url, e);
+                }
+            }
+            for (Callback callback : fetch.callbacks.get(target.getKey())) {
+                try {
+                    callback.onImageLoaded(url, bitmap);
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the image into the disk cache, or revalidates the cached copy.
+     * @return the cached image, or null if there is none
+     */
+    private File fetch(String url, String name) throws IOException {
+        File bodyFile = new File(diskCacheDir, name);
+        File metaFile = new File(diskCacheDir, name + ".meta");
+        Properties meta = readMeta(metaFile);
+        boolean hasCachedBody = bodyFile.exists() && meta != null;
+
+        if (hasCachedBody) {
+            long fetchedAt = Long.parseLong(meta.getProperty(META_FETCHED_AT, "0"));
+            if (System.currentTimeMillis() - fetchedAt < DISK_CACHE_FRESH_MS) {
+                Log.d(TAG, "FirebasePluginImageLoader: Disk cache hit for " + url);
+                return bodyFile;
+            }
+        }
+
+        Response response = null;
+        try {
+            Request.Builder request = new Request.Builder().url(url);
+            if (hasCachedBody) {
+                String etag = meta.getProperty(META_ETAG);
+                String lastModified = meta.getProperty(META_LAST_MODIFIED);
+                if (etag != null) request.header("If-None-Match", etag);
+                if (lastModified != null) request.header("If-Modified-Since", lastModified);
+            }
+
+            response = httpClient.send(request.build());
+            int responseCode = response.code();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && hasCachedBody) {
+                Log.d(TAG, "FirebasePluginImageLoader: Revalidated cached image for " + url);
+                meta.setProperty(META_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+                writeMeta(metaFile, meta);
+                return bodyFile;
+            }
+            if (responseCode < 200 || responseCode >= 300) {
+                Log.w(TAG, "FirebasePluginImageLoader: HTTP " + responseCode + " for " + url);
+                return hasCachedBody ? bodyFile : null;
+            }
+
+            // Named uniquely, so a fetch started after this one has completed can't write into the same file
+            File tmpFile = File.createTempFile(name + ".", ".tmp", diskCacheDir);
+            InputStream input = response.body().byteStream();
+            OutputStream output = new FileOutputStream(tmpFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                tmpFile.delete();
+                throw e;
+            } finally {
+                output.close();
+                input.close();
+            }
+            if (!tmpFile.renameTo(bodyFile)) {
+                tmpFile.delete();
+                throw new IOException("Unable to move downloaded image into cache");
+            }
+
+            Properties newMeta = new Properties();
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            if (etag != null) newMeta.setProperty(META_ETAG, etag);
+            if (lastModified != null) newMeta.setProperty(META_LAST_MODIFIED, lastModified);
+            newMeta.setProperty(META_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            writeMeta(metaFile, newMeta);
+
+            trimDiskCache();
+            return bodyFile;
+        } catch (IOException e) {
+            if (hasCachedBody) {
+                Log.w(TAG, "FirebasePluginImageLoader: Network error, using stale cached image for " + url);
+                return bodyFile;
+            }
+            throw e;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private Bitmap decodeAndCache(String url, FirebasePluginBitmapTransformer.Target target, File file) {
+        Bitmap bitmap = FirebasePluginBitmapTransformer.getInstance().transform(file, target);
+        if (bitmap != null) {
+            memoryCache.put(cacheKey(url, target), bitmap);
+        }
+        return bitmap;
+    }
+
+    private void retainFile(String name) {
+        synchronized (filesInUse) {
+            Integer count = filesInUse.get(name);
+            filesInUse.put(name, count != null ? count + 1 : 1);
+        }
+    }
+
+    private void releaseFile(String name) {
+        synchronized (filesInUse) {
+            Integer count = filesInUse.get(name);
+            if (count == null || count <= 1) {
+                filesInUse.remove(name);
+            } else {
+                filesInUse.put(name, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently fetched images once the cache exceeds its size, other than those being fetched or decoded.
+     */
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_MAX_BYTES) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_MAX_BYTES) break;
+            String fileName = file.getName();
+            if (fileName.endsWith(".meta")) continue;
+            // Cached images and their temporary files are named by the hash of their URL
+            int dot = fileName.indexOf('.');
+            String name = dot < 0 ? fileName : fileName.substring(0, dot);
+            synchronized (filesInUse) {
+                if (filesInUse.containsKey(name)) continue;
+                total -= file.length();
+                file.delete();
+                if (dot < 0) {
+                    File metaFile = new File(diskCacheDir, name + ".meta");
+                    total -= metaFile.length();
+                    metaFile.delete();
+                }
+            }
+        }
+    }
+
+    private Properties readMeta(File metaFile) {
+        if (!metaFile.exists()) return null;
+        Properties meta = new Properties();
+        InputStream input = null;
+        try {
+            input = new FileInputStream(metaFile);
+            meta.load(input);
+            return meta;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (input != null) {
+                try { input.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void writeMeta(File metaFile, Properties meta) {
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(metaFile);
+            meta.store(output, null);
+        } catch (IOException e) {
+            Log.w(TAG, "FirebasePluginImageLoader: Unable to write cache metadata", e);
+        } finally {
+            if (output != null) {
+                try { output.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static String cacheKey(String url, FirebasePluginBitmapTransformer.Target target) {
+        return url + "#" + target.key();
+    }
+
+    private static String fileName(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.apache.cordova.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import android.webkit.ValueCallback;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Coalesces global JavaScript into one evaluation per frame.
+ * Fragments executed within a frame are concatenated, each wrapped so an exception in one doesn't prevent the rest
+ * running, and evaluated together on the next Choreographer frame, or straight away once the batch reaches a size cap.
+ * A syntax error in one fragment stops the whole batch parsing, so none of it runs. The batch therefore ends with a
+ * marker which is only its value if it ran, and if the marker doesn't come back the fragments are evaluated one at a time.
+ * Fragments executed before the page is ready are held in a bounded ring, dropping the oldest when it is full,
+ * until they are released into a batch.
+ * A fragment may have a callback run if it is lost, e.g. to return the credit of a flow-controlled event. Such
+ * fragments are already bounded by their stream's credits, so they are held outside the ring and never dropped from it,
+ * and their callback is run if the batch they are in can't be evaluated.
+ */
+public class FirebasePluginJavascriptBatcher {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+    private static final int MAX_HELD_FRAGMENTS = 128;
+
+    private static final String BATCH_MARKER = "FirebasePluginBatch";
+    // The marker as returned by evaluateJavascript(), which JSON encodes the value
+    private static final String BATCH_MARKER_RESULT = "\"" + BATCH_MARKER + "\"";
+
+    /**
+     * Evaluates JavaScript in the WebView; called on the UI thread.
+     */
+    public interface Evaluator {
+        /**
+         * @param onResult (optional) passed the JSON encoded value of the JavaScript, which is "null" if it failed to parse;
+         *                 not called if the value can't be known
+         * @return false if the JavaScript couldn't be evaluated, e.g. because the WebView has gone
+         */
+        boolean evaluate(String javascript, ValueCallback<String> onResult);
+    }
+
+    private static final class Fragment {
+        final String javascript;
+        final Runnable onDropped;
+
+        Fragment(String javascript, Runnable onDropped) {
+            this.javascript = javascript;
+            this.onDropped = onDropped;
+        }
+    }
+
+    private final Evaluator evaluator;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Fragment> batch = new ArrayList<Fragment>();
+    private final ArrayDeque<Fragment> held = new ArrayDeque<Fragment>();
+    private int heldLossy = 0;
+    private int batchChars = 0;
+    private boolean frameScheduled = false;
+    private boolean flushScheduled = false;
+
+    private long fragmentCount = 0;
+    private long flushCount = 0;
+    private long cappedFlushCount = 0;
+    private int maxBatchFragments = 0;
+    private long droppedCount = 0;
+    private long failedFlushCount = 0;
+    private long unparsedFlushCount = 0;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    // Choreographer is per-thread, so the frame callback is posted from the UI thread
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private final Runnable flushNow = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public FirebasePluginJavascriptBatcher(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Adds a fragment to the batch evaluated on the next frame.
+     */
+    public void execute(String javascript) {
+        execute(javascript, null);
+    }
+
+    /**
+     * @param onDropped (optional) run if the fragment's batch can't be evaluated
+     */
+    public synchronized void execute(String javascript, Runnable onDropped) {
+        batch.add(new Fragment(javascript, onDropped));
+        batchChars += javascript.length();
+        fragmentCount++;
+        if (batchChars >= MAX_BATCH_CHARS) {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                cappedFlushCount++;
+                handler.post(flushNow);
+            }
+        } else if (!frameScheduled) {
+            frameScheduled = true;
+            handler.post(scheduleFrame);
+        }
+    }
+
+    /**
+     * Holds a fragment until release() is called, e.g. because the page hasn't loaded yet.
+     */
+    public void hold(String javascript) {
+        hold(javascript, null);
+    }
+
+    /**
+     * @param onDropped (optional) run if the fragment's batch can't be evaluated once released; a fragment with one
+     *                  is never dropped from the ring
+     */
+    public synchronized void hold(String javascript, Runnable onDropped) {
+        if (onDropped == null) {
+            if (heldLossy >= MAX_HELD_FRAGMENTS) {
+                dropOldestLossy();
+            }
+            heldLossy++;
+        }
+        held.add(new Fragment(javascript, onDropped));
+    }
+
+    /**
+     * Moves the held fragments into the batch.
+     * @return the number of fragments released
+     */
+    public synchronized int release() {
+        int released = held.size();
+        while (!held.isEmpty()) {
+            Fragment fragment = held.poll();
+            execute(fragment.javascript, fragment.onDropped);
+        }
+        heldLossy = 0;
+        return released;
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("fragments", fragmentCount);
+        metrics.put("flushes", flushCount);
+        metrics.put("cappedFlushes", cappedFlushCount);
+        metrics.put("meanBatchSize", flushCount > 0 ? (double) (fragmentCount - batch.size()) / flushCount : 0);
+        metrics.put("maxBatchSize", maxBatchFragments);
+        metrics.put("held", held.size());
+        metrics.put("dropped", droppedCount);
+        metrics.put("failedFlushes", failedFlushCount);
+        metrics.put("unparsedFlushes", unparsedFlushCount);
+        return metrics;
+    }
+
+    private void dropOldestLossy() {
+        Iterator<Fragment> fragments = held.iterator();
+        while (fragments.hasNext()) {
+            if (fragments.next().onDropped == null) {
+                fragments.remove();
+                heldLossy--;
+                droppedCount++;
+                Log.w(TAG, "FirebasePluginJavascriptBatcher: Too many fragments held, dropped the oldest (" + droppedCount + " dropped)");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends the fragment wrapped so an exception in it doesn't prevent the fragments after it running.
+     */
+    private static void appendWrapped(StringBuilder javascript, String fragment) {
+        javascript.append("try{").append(fragment).append("\n}catch(e){console.error(e)}\n");
+    }
+
+    private void flush() {
+        final List<Fragment> fragments;
+        synchronized (this) {
+            frameScheduled = false;
+            flushScheduled = false;
+            if (batch.isEmpty()) return;
+            fragments = new ArrayList<Fragment>(batch);
+            maxBatchFragments = Math.max(maxBatchFragments, fragments.size());
+            flushCount++;
+            batch.clear();
+            batchChars = 0;
+        }
+        if (fragments.size() == 1) {
+            evaluate(fragments.get(0));
+            return;
+        }
+
+        StringBuilder javascript = new StringBuilder();
+        for (Fragment fragment : fragments) {
+            appendWrapped(javascript, fragment.javascript);
+        }
+        javascript.append(";\"").append(BATCH_MARKER).append("\"");
+        boolean evaluated = evaluator.evaluate(javascript.toString(), new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String result) {
+                if (BATCH_MARKER_RESULT.equals(result)) return;
+                // None of the batch ran, so each fragment can be evaluated without running any twice
+                synchronized (FirebasePluginJavascriptBatcher.this) {
+                    unparsedFlushCount++;
+                }
+                Log.w(TAG, "FirebasePluginJavascriptBatcher: Batch of " + fragments.size() + " fragments failed to parse, evaluating them separately");
+                for (Fragment fragment : fragments) {
+                    evaluate(fragment);
+                }
+            }
+        });
+        if (evaluated) return;
+
+        synchronized (this) {
+            failedFlushCount++;
+        }
+        Log.w(TAG, "FirebasePluginJavascriptBatcher: Unable to evaluate batch, dropped it");
+        // Outside the lock, as they may execute fragments themselves
+        for (Fragment fragment : fragments) {
+            if (fragment.onDropped != null) {
+                fragment.onDropped.run();
+            }
+        }
+    }
+
+    private void evaluate(Fragment fragment) {
+        StringBuilder javascript = new StringBuilder();
+        appendWrapped(javascript, fragment.javascript);
+        if (evaluator.evaluate(javascript.toString(), null)) return;
+
+        synchronized (this) {
+            failedFlushCount++;
+        }
+        if (fragment.onDropped != null) {
+            fragment.onDropped.run();
+        }
+    }
+}
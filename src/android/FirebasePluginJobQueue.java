@@ -0,0 +1,600 @@
+package org.apache.cordova.firebase;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Persistent queue for the slow lane of push handling: work which shouldn't hold up the FCM callback,
+ * such as fetching and attaching notification images or sending HTTP requests for notification actions.
+ * Jobs are persisted in SharedPreferences and scheduled with JobScheduler, so they survive process death
+ * and are retried with exponential backoff and jitter until they complete or give up.
+ * A job may be given a key, in which case enqueueing it again while it is pending collapses into the existing job.
+ * If a job's constraints are already met when it is enqueued it also runs straight away in-process;
+ * whichever of the two runs first claims the job.
+ * Credentials in a job's args, e.g. the auth token of a notification action, are only persisted encrypted
+ * with FirebasePluginCredentials, and a job whose credentials can no longer be decrypted is given up on.
+ */
+public class FirebasePluginJobQueue {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String TYPE_NOTIFICATION_IMAGE = "notification_image";
+    public static final String TYPE_HTTP_ACTION = "http_action";
+    public static final String TYPE_RECEIPT_BATCH = "receipt_batch";
+    public static final String TYPE_ROUTED_ACTION = "routed_action";
+
+    public static final int CONSTRAINT_NETWORK = 1;
+    public static final int CONSTRAINT_UNMETERED = 2;
+    public static final int CONSTRAINT_CHARGING = 4;
+
+    private static final String PREFS_NAME = "firebase_job_queue";
+    private static final String PREFS_KEY_NEXT_ID = "nextId";
+    private static final String PREFS_JOB_PREFIX = "job:";
+
+    static final String EXTRA_JOB_ID = "jobId";
+
+    // Args holding credentials, which are persisted encrypted under SEALED_ARGS rather than as they are
+    private static final String[] CREDENTIAL_ARGS = {"authToken", "headers"};
+    private static final String SEALED_ARGS = "sealed";
+
+    // JobScheduler IDs are shared by the whole app, so jobs use a range unlikely to collide with the app's own
+    private static final int SCHEDULER_ID_BASE = 0x46500000;
+    private static final int SCHEDULER_ID_RANGE = 0x10000;
+
+    private static final int MAX_JOBS = 64;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final long INITIAL_BACKOFF_MS = 30000;
+
+    public interface Handler {
+        /**
+         * Runs a job on a background thread.
+         * @param context application context
+         * @param args arguments the job was enqueued with
+         * @return true if the job is done, false to retry it later
+         */
+        boolean run(Context context, JSONObject args) throws Exception;
+    }
+
+    private static final Map<String, Handler> handlers = new ConcurrentHashMap<String, Handler>();
+
+    static {
+        registerHandler(TYPE_NOTIFICATION_IMAGE, new FirebasePluginMessagingService.NotificationImageJob());
+        registerHandler(TYPE_HTTP_ACTION, new FirebaseHttpService.ActionJob());
+        registerHandler(TYPE_RECEIPT_BATCH, new FirebasePluginReceiptBatcher.BatchJob());
+        registerHandler(TYPE_ROUTED_ACTION, new FirebasePluginActionRouter.RouteJob());
+    }
+
+    private static FirebasePluginJobQueue instance = null;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final Set<Long> running = new HashSet<Long>();
+    // Jobs run in-process on a thread per job type, so a slow job, e.g. an image fetch blocking until its timeout,
+    // only holds up jobs of its own type rather than user-visible sends queued behind it
+    private final Map<String, ExecutorService> executors = new ConcurrentHashMap<String, ExecutorService>();
+
+    private final Random random = new Random();
+
+    private long completedCount = 0;
+    private long retriedCount = 0;
+    private long failedCount = 0;
+    private long collapsedCount = 0;
+
+    public static synchronized FirebasePluginJobQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginJobQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginJobQueue(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static void registerHandler(String type, Handler handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Persists a job and schedules it to run once the given constraints are met.
+     * @param type type of a registered handler
+     * @param args arguments passed to the handler
+     * @param constraints CONSTRAINT_* flags
+     * @return the job ID, or -1 if it could not be scheduled
+     */
+    public long enqueue(String type, JSONObject args, int constraints) {
+        return enqueue(type, args, constraints, null);
+    }
+
+    /**
+     * Persists a job unless a pending job of the same type already has the given key.
+     * @param key identifies the job, e.g. an idempotency key; null if the job may be repeated
+     * @return the ID of the new or existing job, or -1 if it could not be scheduled
+     */
+    public long enqueue(String type, JSONObject args, int constraints, String key) {
+        return enqueue(type, args, constraints, key, MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param maxAttempts number of times to run the job before giving up on it
+     */
+    public long enqueue(String type, JSONObject args, int constraints, String key, int maxAttempts) {
+        JSONObject sealedArgs;
+        try {
+            // Outside the lock, as the Keystore may be slow
+            sealedArgs = sealCredentials(args);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return -1;
+        }
+        if (sealedArgs == null) {
+            Log.w(TAG, "FirebasePluginJobQueue: Unable to encrypt credentials of " + type + " job, not persisting it");
+            return -1;
+        }
+        JSONObject job = new JSONObject();
+        long id;
+        synchronized (this) {
+            if (key != null) {
+                JSONObject existing = findByKey(type, key);
+                if (existing != null) {
+                    collapsedCount++;
+                    Log.d(TAG, "FirebasePluginJobQueue: Collapsed duplicate " + type + " job into " + existing.optLong("id"));
+                    return existing.optLong("id");
+                }
+            }
+            id = preferences.getLong(PREFS_KEY_NEXT_ID, 1);
+            try {
+                job.put("id", id);
+                job.put("type", type);
+                if (key != null) {
+                    job.put("key", key);
+                }
+                job.put("args", sealedArgs);
+                job.put("constraints", constraints);
+                job.put("attempts", 0);
+                if (maxAttempts != MAX_ATTEMPTS) {
+                    job.put("maxAttempts", maxAttempts);
+                }
+                job.put("createdAt", System.currentTimeMillis());
+            } catch (JSONException e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+                return -1;
+            }
+            if (!trim(type)) {
+                failedCount++;
+                return -1;
+            }
+            preferences.edit()
+                    .putLong(PREFS_KEY_NEXT_ID, id + 1)
+                    .putString(PREFS_JOB_PREFIX + id, job.toString())
+                    .apply();
+        }
+        if (!schedule(id, constraints, 0)) {
+            remove(id);
+            return -1;
+        }
+        if (constraintsMet(constraints)) {
+            runLocally(id, type);
+        }
+        Log.d(TAG, "FirebasePluginJobQueue: Enqueued " + type + " job " + id);
+        return id;
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        int pending = 0;
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(PREFS_JOB_PREFIX)) pending++;
+        }
+        metrics.put("pending", pending);
+        metrics.put("completed", completedCount);
+        metrics.put("retried", retriedCount);
+        metrics.put("failed", failedCount);
+        metrics.put("collapsed", collapsedCount);
+        return metrics;
+    }
+
+    /**
+     * @return copies of the pending jobs of the given type, oldest first
+     */
+    public synchronized List<JSONObject> getJobs(String type) {
+        List<JSONObject> jobs = new ArrayList<JSONObject>();
+        for (JSONObject job : readJobs()) {
+            if (type.equals(job.optString("type"))) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs, new Comparator<JSONObject>() {
+            @Override
+            public int compare(JSONObject a, JSONObject b) {
+                return Long.compare(a.optLong("id"), b.optLong("id"));
+            }
+        });
+        return jobs;
+    }
+
+    /**
+     * Removes the pending jobs of the given type, e.g. because the credentials they hold are no longer valid.
+     */
+    public void removeAll(String type) {
+        List<JSONObject> jobs = getJobs(type);
+        for (JSONObject job : jobs) {
+            long id = job.optLong("id");
+            remove(id);
+            getScheduler().cancel(schedulerId(id));
+        }
+        if (!jobs.isEmpty()) {
+            Log.d(TAG, "FirebasePluginJobQueue: Removed " + jobs.size() + " " + type + " jobs");
+        }
+    }
+
+    /**
+     * Schedules every persisted job again, e.g. after a reboot or app update, or if the app was force-stopped,
+     * which clears its scheduled jobs. Retries keep their remaining backoff.
+     */
+    public void rescheduleAll() {
+        List<JSONObject> jobs;
+        synchronized (this) {
+            jobs = readJobs();
+        }
+        long now = System.currentTimeMillis();
+        for (JSONObject job : jobs) {
+            schedule(job.optLong("id"), job.optInt("constraints"), Math.max(0, job.optLong("nextAttemptAt") - now));
+        }
+        Log.d(TAG, "FirebasePluginJobQueue: Rescheduled " + jobs.size() + " jobs");
+    }
+
+    /**
+     * Runs a job on behalf of the JobService.
+     * @return true if the job should be retried, in which case scheduleRetry() must be called once the JobService has finished it
+     */
+    boolean runScheduled(long id) {
+        JSONObject job = claim(id);
+        if (job == null) {
+            // Already done, or running in-process which reschedules it itself on failure
+            return false;
+        }
+        return !execute(job, true);
+    }
+
+    /**
+     * Schedules the next attempt of a job run by the JobService after its backoff.
+     * This is done by the queue rather than through JobScheduler's own backoff so the delay is jittered.
+     */
+    void scheduleRetry(long id) {
+        JSONObject job;
+        synchronized (this) {
+            job = read(id);
+        }
+        if (job != null) {
+            schedule(id, job.optInt("constraints"), Math.max(0, job.optLong("nextAttemptAt") - System.currentTimeMillis()));
+        }
+    }
+
+    private void runLocally(final long id, String type) {
+        getExecutor(type).execute(new Runnable() {
+            @Override
+            public void run() {
+                JSONObject job = claim(id);
+                if (job != null) {
+                    execute(job, false);
+                }
+            }
+        });
+    }
+
+    private ExecutorService getExecutor(final String type) {
+        ExecutorService executor = executors.get(type);
+        if (executor == null) {
+            synchronized (executors) {
+                executor = executors.get(type);
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "FirebasePluginJobQueue-" + type);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executors.put(type, executor);
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Runs the job and records its outcome.
+     * @return true if the job is finished, whether done or given up on
+     */
+    private boolean execute(JSONObject job, boolean scheduled) {
+        long id = job.optLong("id");
+        String type = job.optString("type");
+        int attempts = job.optInt("attempts");
+        boolean done = false;
+        String error = "Failed";
+        Handler handler = handlers.get(type);
+        if (handler == null) {
+            Log.w(TAG, "FirebasePluginJobQueue: No handler for " + type + " job " + id);
+            done = true;
+        } else {
+            try {
+                JSONObject args = openCredentials(job.optJSONObject("args"));
+                if (args == null) {
+                    // Sending it without its credentials would fail, or worse go out unauthenticated
+                    Log.w(TAG, "FirebasePluginJobQueue: Unable to decrypt credentials of " + type + " job " + id + ", giving up on it");
+                    done = true;
+                } else {
+                    done = handler.run(context, args);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "FirebasePluginJobQueue: " + type + " job " + id + " failed on attempt " + attempts, e);
+                error = e.toString();
+            }
+        }
+        long delayMs = backoff(attempts);
+
+        synchronized (this) {
+            running.remove(id);
+            if (done) {
+                completedCount++;
+            } else if (attempts >= job.optInt("maxAttempts", MAX_ATTEMPTS) || System.currentTimeMillis() - job.optLong("createdAt") > MAX_AGE_MS) {
+                failedCount++;
+                Log.w(TAG, "FirebasePluginJobQueue: Giving up on " + type + " job " + id + " after " + attempts + " attempts");
+                done = true;
+            } else {
+                retriedCount++;
+                try {
+                    // The job may have been removed while it ran, e.g. dropped from a full queue
+                    if (preferences.contains(PREFS_JOB_PREFIX + id)) {
+                        job.put("nextAttemptAt", System.currentTimeMillis() + delayMs);
+                        job.put("lastError", error);
+                        preferences.edit().putString(PREFS_JOB_PREFIX + id, job.toString()).apply();
+                    }
+                } catch (JSONException e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+        }
+
+        if (done) {
+            remove(id);
+            if (!scheduled) {
+                getScheduler().cancel(schedulerId(id));
+            }
+            return true;
+        }
+        if (!scheduled) {
+            // Replace the pending scheduler job with one delayed by the backoff for this attempt
+            schedule(id, job.optInt("constraints"), delayMs);
+        }
+        return false;
+    }
+
+    /**
+     * @return a copy of the args with any credentials encrypted, or null if they can't be encrypted
+     */
+    private static JSONObject sealCredentials(JSONObject args) throws JSONException {
+        JSONObject credentials = new JSONObject();
+        for (String key : CREDENTIAL_ARGS) {
+            if (args.has(key)) {
+                credentials.put(key, args.get(key));
+            }
+        }
+        if (credentials.length() == 0) return args;
+
+        JSONObject sealed = new JSONObject(args.toString());
+        for (String key : CREDENTIAL_ARGS) {
+            sealed.remove(key);
+        }
+        String ciphertext = FirebasePluginCredentials.seal(credentials.toString());
+        if (ciphertext == null) return null;
+        sealed.put(SEALED_ARGS, ciphertext);
+        return sealed;
+    }
+
+    /**
+     * @return the args with their credentials decrypted, or null if they can't be decrypted
+     */
+    private static JSONObject openCredentials(JSONObject args) throws JSONException {
+        if (args == null || !args.has(SEALED_ARGS)) return args;
+        String plaintext = FirebasePluginCredentials.open(args.optString(SEALED_ARGS));
+        if (plaintext == null) return null;
+        JSONObject opened = new JSONObject(args.toString());
+        opened.remove(SEALED_ARGS);
+        JSONObject credentials = new JSONObject(plaintext);
+        Iterator<String> keys = credentials.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            opened.put(key, credentials.get(key));
+        }
+        return opened;
+    }
+
+    /**
+     * @return exponential backoff for the given attempt, randomised to between half and all of it
+     * so jobs which failed together, e.g. when the network dropped, don't all retry at once
+     */
+    private synchronized long backoff(int attempts) {
+        long backoff = INITIAL_BACKOFF_MS << Math.min(Math.max(attempts - 1, 0), 10);
+        return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+    }
+
+    private synchronized JSONObject claim(long id) {
+        if (running.contains(id)) return null;
+        String value = preferences.getString(PREFS_JOB_PREFIX + id, null);
+        if (value == null) return null;
+        try {
+            JSONObject job = new JSONObject(value);
+            job.put("attempts", job.optInt("attempts") + 1);
+            preferences.edit().putString(PREFS_JOB_PREFIX + id, job.toString()).apply();
+            running.add(id);
+            return job;
+        } catch (JSONException e) {
+            Log.w(TAG, "FirebasePluginJobQueue: Discarding unreadable job " + id);
+            preferences.edit().remove(PREFS_JOB_PREFIX + id).apply();
+            return null;
+        }
+    }
+
+    private JSONObject read(long id) {
+        String value = preferences.getString(PREFS_JOB_PREFIX + id, null);
+        if (value == null) return null;
+        try {
+            return new JSONObject(value);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private List<JSONObject> readJobs() {
+        List<JSONObject> jobs = new ArrayList<JSONObject>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(PREFS_JOB_PREFIX) || !(entry.getValue() instanceof String)) continue;
+            try {
+                jobs.add(new JSONObject((String) entry.getValue()));
+            } catch (JSONException e) {
+                // Discarded when claimed
+            }
+        }
+        return jobs;
+    }
+
+    private JSONObject findByKey(String type, String key) {
+        for (JSONObject job : readJobs()) {
+            if (type.equals(job.optString("type")) && key.equals(job.optString("key", null))) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void remove(long id) {
+        preferences.edit().remove(PREFS_JOB_PREFIX + id).apply();
+    }
+
+    /**
+     * Drops a job if needed so a new one of the given type can be added without exceeding MAX_JOBS.
+     * Notification images are only cosmetic, so the oldest of those is dropped first, otherwise the oldest job of the
+     * same type, so a burst of one type can't push out jobs of another, e.g. queued notification actions.
+     * @return false if there is no room for the new job
+     */
+    private boolean trim(String type) {
+        long oldestImage = Long.MAX_VALUE;
+        long oldestOfType = Long.MAX_VALUE;
+        int count = 0;
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(PREFS_JOB_PREFIX)) continue;
+            count++;
+            long id;
+            String jobType;
+            try {
+                id = Long.parseLong(key.substring(PREFS_JOB_PREFIX.length()));
+                jobType = new JSONObject(String.valueOf(entry.getValue())).optString("type");
+            } catch (NumberFormatException | JSONException e) {
+                // Not a job, or one which can't be run
+                continue;
+            }
+            if (running.contains(id)) continue;
+            if (TYPE_NOTIFICATION_IMAGE.equals(jobType)) {
+                oldestImage = Math.min(oldestImage, id);
+            }
+            if (type.equals(jobType)) {
+                oldestOfType = Math.min(oldestOfType, id);
+            }
+        }
+        if (count < MAX_JOBS) return true;
+
+        long dropped = oldestImage != Long.MAX_VALUE ? oldestImage : oldestOfType;
+        if (dropped == Long.MAX_VALUE) {
+            Log.w(TAG, "FirebasePluginJobQueue: Queue full of other jobs, not adding " + type + " job");
+            return false;
+        }
+        Log.w(TAG, "FirebasePluginJobQueue: Queue full, dropping job " + dropped);
+        failedCount++;
+        preferences.edit().remove(PREFS_JOB_PREFIX + dropped).apply();
+        getScheduler().cancel(schedulerId(dropped));
+        return true;
+    }
+
+    private boolean schedule(long id, int constraints, long delayMs) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(EXTRA_JOB_ID, id);
+        JobInfo.Builder builder = new JobInfo.Builder(schedulerId(id), new ComponentName(context, FirebasePluginJobService.class))
+                .setExtras(extras)
+                .setPersisted(true)
+                .setBackoffCriteria(INITIAL_BACKOFF_MS, JobInfo.BACKOFF_POLICY_EXPONENTIAL);
+        if ((constraints & CONSTRAINT_UNMETERED) != 0) {
+            builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        } else if ((constraints & CONSTRAINT_NETWORK) != 0) {
+            builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
+        }
+        if ((constraints & CONSTRAINT_CHARGING) != 0) {
+            builder.setRequiresCharging(true);
+        }
+        if (delayMs > 0) {
+            builder.setMinimumLatency(delayMs);
+        }
+        try {
+            return getScheduler().schedule(builder.build()) == JobScheduler.RESULT_SUCCESS;
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean constraintsMet(int constraints) {
+        if ((constraints & (CONSTRAINT_NETWORK | CONSTRAINT_UNMETERED)) != 0) {
+            ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo network = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+            if (network == null || !network.isConnected()) return false;
+            if ((constraints & CONSTRAINT_UNMETERED) != 0 && connectivityManager.isActiveNetworkMetered()) return false;
+        }
+        if ((constraints & CONSTRAINT_CHARGING) != 0) {
+            Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            int status = battery != null ? battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1) : -1;
+            if (status != BatteryManager.BATTERY_STATUS_CHARGING && status != BatteryManager.BATTERY_STATUS_FULL) return false;
+        }
+        return true;
+    }
+
+    private JobScheduler getScheduler() {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private static int schedulerId(long id) {
+        return SCHEDULER_ID_BASE + (int) (id % SCHEDULER_ID_RANGE);
+    }
+}
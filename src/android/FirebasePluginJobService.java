@@ -0,0 +1,47 @@
+package org.apache.cordova.firebase;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.util.Log;
+
+/**
+ * Runs jobs from FirebasePluginJobQueue when JobScheduler starts them,
+ * including after the process has been killed or the device rebooted.
+ */
+public class FirebasePluginJobService extends JobService {
+
+    private static final String TAG = "FirebasePlugin";
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final long id = params.getExtras().getLong(FirebasePluginJobQueue.EXTRA_JOB_ID, -1);
+        if (id < 0) return false;
+        Log.d(TAG, "FirebasePluginJobService: Starting job " + id);
+
+        // onStartJob() is called on the main thread so run the job in the background
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FirebasePluginJobQueue queue = FirebasePluginJobQueue.getInstance(getApplicationContext());
+                boolean retry = false;
+                try {
+                    retry = queue.runScheduled(id);
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+                // The queue schedules retries itself, with jitter, once this run has finished
+                jobFinished(params, false);
+                if (retry) {
+                    queue.scheduleRetry(id);
+                }
+            }
+        }).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The job's constraints are no longer met; the queue still holds it so let JobScheduler retry
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+package org.apache.cordova.firebase;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reference-counted keepalive for FirebaseForegroundService.
+ * Callers acquire a time-bounded lease; the service is started for the first lease, kept running while any lease
+ * is live and stopped as soon as the last one expires or is released, so a burst of messages shares one
+ * foreground session with a single expiry timer. Lease counts and time spent in the foreground are recorded.
+ */
+public class FirebasePluginKeepalive {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final long DEFAULT_LEASE_MS = 3000;
+
+    // Lease ID -> expiry time (elapsedRealtime)
+    private static final Map<Long, Long> leases = new HashMap<Long, Long>();
+    private static long nextLeaseId = 1;
+
+    private static Context applicationContext;
+    private static Handler handler;
+    private static boolean serviceRequested = false;
+    private static boolean serviceStarted = false;
+    // Set once we've asked the service to stop, until it has been destroyed
+    private static boolean stopPending = false;
+    private static long sessionStart = 0;
+
+    private static long acquiredCount = 0;
+    private static long coalescedCount = 0;
+    private static long sessionCount = 0;
+    private static long startFailureCount = 0;
+    private static long foregroundMs = 0;
+
+    private static final Runnable expiryCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkExpiry();
+        }
+    };
+
+    /**
+     * Keeps the app in the foreground for at least the given time.
+     * @param reason logged to identify the caller
+     * @return the lease ID, which may be passed to release() if it is no longer needed, or -1 if the service couldn't be started
+     */
+    public static synchronized long acquire(Context context, long durationMs, String reason) {
+        applicationContext = context.getApplicationContext();
+        long now = SystemClock.elapsedRealtime();
+        long leaseId = nextLeaseId++;
+        leases.put(leaseId, now + durationMs);
+        acquiredCount++;
+
+        if (serviceRequested) {
+            coalescedCount++;
+            Log.d(TAG, "FirebasePluginKeepalive: Extended foreground session for " + reason + " (" + leases.size() + " leases)");
+        } else if (!startService()) {
+            leases.remove(leaseId);
+            return -1;
+        } else {
+            Log.d(TAG, "FirebasePluginKeepalive: Started foreground session for " + reason);
+        }
+        scheduleExpiryCheck(now);
+        return leaseId;
+    }
+
+    public static synchronized void release(long leaseId) {
+        if (leases.remove(leaseId) != null) {
+            scheduleExpiryCheck(SystemClock.elapsedRealtime());
+        }
+    }
+
+    public static synchronized boolean hasLiveLeases() {
+        purgeExpired(SystemClock.elapsedRealtime());
+        return !leases.isEmpty();
+    }
+
+    public static synchronized JSONObject getMetrics() throws JSONException {
+        long now = SystemClock.elapsedRealtime();
+        purgeExpired(now);
+        JSONObject metrics = new JSONObject();
+        metrics.put("leases", acquiredCount);
+        metrics.put("coalesced", coalescedCount);
+        metrics.put("activeLeases", leases.size());
+        metrics.put("sessions", sessionCount);
+        metrics.put("startFailures", startFailureCount);
+        metrics.put("foregroundMs", foregroundMs + (serviceStarted ? now - sessionStart : 0));
+        return metrics;
+    }
+
+    /**
+     * Called by the service once it is in the foreground.
+     */
+    static synchronized void onServiceStarted(Service service) {
+        if (!serviceStarted) {
+            serviceStarted = true;
+            sessionStart = SystemClock.elapsedRealtime();
+        }
+        // The leases may have expired while the service was starting, in which case the expiry check left it to us
+        if (!hasLiveLeases()) {
+            Log.d(TAG, "FirebasePluginKeepalive: Leases expired before service started, stopping");
+            service.stopSelf();
+        }
+    }
+
+    /**
+     * Called by the service when it is destroyed, whether stopped by us or by the system.
+     */
+    static synchronized void onServiceStopped() {
+        long now = SystemClock.elapsedRealtime();
+        if (serviceStarted) {
+            long duration = now - sessionStart;
+            foregroundMs += duration;
+            Log.d(TAG, "FirebasePluginKeepalive: Foreground session ended after " + duration + "ms");
+        }
+        serviceStarted = false;
+        boolean restartRequested = stopPending && serviceRequested;
+        stopPending = false;
+        if (!restartRequested) {
+            // Either the system stopped the service, or no lease was acquired since we stopped it,
+            // so any lease still live needs a new session
+            serviceRequested = false;
+            purgeExpired(now);
+            if (!leases.isEmpty() && !startService()) {
+                leases.clear();
+            }
+        }
+        // Otherwise a lease acquired after we stopped the service has already started a new session, which keeps its leases
+        if (leases.isEmpty() && handler != null) {
+            handler.removeCallbacks(expiryCheck);
+        }
+    }
+
+    private static synchronized void checkExpiry() {
+        long now = SystemClock.elapsedRealtime();
+        purgeExpired(now);
+        if (!leases.isEmpty()) {
+            scheduleExpiryCheck(now);
+            return;
+        }
+        // A service started with startForegroundService() must not be stopped before it has called startForeground(),
+        // so if it hasn't started yet onServiceStarted() stops it instead
+        if (serviceStarted && applicationContext != null) {
+            // A lease acquired from now on starts a new session rather than joining the one being stopped
+            serviceRequested = false;
+            stopPending = true;
+            applicationContext.stopService(new Intent(applicationContext, FirebaseForegroundService.class));
+        }
+    }
+
+    private static boolean startService() {
+        try {
+            Intent serviceIntent = new Intent(applicationContext, FirebaseForegroundService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                applicationContext.startForegroundService(serviceIntent);
+            } else {
+                applicationContext.startService(serviceIntent);
+            }
+            serviceRequested = true;
+            sessionCount++;
+            return true;
+        } catch (Exception e) {
+            // e.g. not allowed to start a foreground service from the background at this point
+            startFailureCount++;
+            Log.e(TAG, "FirebasePluginKeepalive: Failed to start foreground service", e);
+            return false;
+        }
+    }
+
+    private static void scheduleExpiryCheck(long now) {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.removeCallbacks(expiryCheck);
+        long latestExpiry = now;
+        for (long expiry : leases.values()) {
+            latestExpiry = Math.max(latestExpiry, expiry);
+        }
+        handler.postDelayed(expiryCheck, latestExpiry - now);
+    }
+
+    private static void purgeExpired(long now) {
+        Iterator<Long> expiries = leases.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() <= now) {
+                expiries.remove();
+            }
+        }
+    }
+}
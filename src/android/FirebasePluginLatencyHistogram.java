@@ -0,0 +1,75 @@
+package org.apache.cordova.firebase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two millisecond buckets: [0,1), [1,2), [2,4) ... [4096,+inf).
+ * Cheap enough to record on every message; percentiles are estimated as the upper bound of the bucket they fall in.
+ */
+public class FirebasePluginLatencyHistogram {
+
+    private static final int BUCKETS = 14;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long ms) {
+        if (ms < 0) ms = 0;
+        buckets.incrementAndGet(bucketFor(ms));
+        count.incrementAndGet();
+        totalMs.addAndGet(ms);
+        long max;
+        while (ms > (max = maxMs.get()) && !maxMs.compareAndSet(max, ms)) {
+            // Retry until the max is updated or another thread records a larger value
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the estimated latency in ms below which the given fraction (0-1) of recordings fall
+     */
+    public long percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long threshold = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return i == BUCKETS - 1 ? maxMs.get() : upperBound(i);
+            }
+        }
+        return maxMs.get();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        long total = count.get();
+        json.put("count", total);
+        json.put("meanMs", total > 0 ? totalMs.get() / total : 0);
+        json.put("p50Ms", percentile(0.5));
+        json.put("p95Ms", percentile(0.95));
+        json.put("p99Ms", percentile(0.99));
+        json.put("maxMs", maxMs.get());
+        return json;
+    }
+
+    private static int bucketFor(long ms) {
+        if (ms < 1) return 0;
+        int bucket = 64 - Long.numberOfLeadingZeros(ms);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
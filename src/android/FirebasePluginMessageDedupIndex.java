@@ -0,0 +1,189 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded index of recently processed message IDs, used to drop FCM redeliveries before any work is done.
+ * A Bloom filter answers the common "never seen" case without touching the LRU; possible hits are confirmed
+ * against a small LRU of recent IDs which is persisted so redeliveries after a process restart are also caught.
+ * IDs expire after a fixed window, after which the filter is rebuilt from the surviving entries.
+ */
+public class FirebasePluginMessageDedupIndex {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String PREFS_NAME = "firebase_message_dedup";
+    private static final String PREFS_KEY_IDS = "ids";
+
+    private static final int MAX_ENTRIES = 256;
+    private static final long EXPIRY_MS = 24 * 60 * 60 * 1000L;
+    // ~1% false positive rate at MAX_ENTRIES
+    private static final int BLOOM_BITS = 4096;
+    private static final int BLOOM_HASHES = 4;
+
+    private static FirebasePluginMessageDedupIndex instance = null;
+
+    private final SharedPreferences preferences;
+    private final LinkedHashMap<String, Long> recent = new LinkedHashMap<String, Long>();
+    private BitSet bloom = new BitSet(BLOOM_BITS);
+    private long oldestTimestamp = Long.MAX_VALUE;
+
+    private long checkedCount = 0;
+    private long duplicateCount = 0;
+
+    public static synchronized FirebasePluginMessageDedupIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginMessageDedupIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginMessageDedupIndex(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * @return true if the given message ID was already processed within the expiry window, i.e. the message is a duplicate
+     */
+    public synchronized boolean isDuplicate(String id) {
+        if (id == null || id.isEmpty()) return false;
+        long now = System.currentTimeMillis();
+        checkedCount++;
+        expire(now);
+
+        if (mightContain(id)) {
+            Long timestamp = recent.get(id);
+            if (timestamp != null && now - timestamp < EXPIRY_MS) {
+                duplicateCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the given message ID as processed.
+     * Called only once the message has been handled, so a redelivery of a message whose processing failed
+     * or was cut short by the process dying isn't dropped.
+     */
+    public synchronized void record(String id) {
+        if (id == null || id.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        recent.remove(id);
+        recent.put(id, now);
+        addToBloom(id);
+        oldestTimestamp = Math.min(oldestTimestamp, now);
+        if (recent.size() > MAX_ENTRIES) {
+            Iterator<Map.Entry<String, Long>> it = recent.entrySet().iterator();
+            it.next();
+            it.remove();
+            rebuild();
+        }
+        save();
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("checked", checkedCount);
+        metrics.put("duplicates", duplicateCount);
+        metrics.put("hitRate", checkedCount > 0 ? (double) duplicateCount / checkedCount : 0);
+        metrics.put("size", recent.size());
+        return metrics;
+    }
+
+    private void expire(long now) {
+        if (now - oldestTimestamp < EXPIRY_MS) return;
+        Iterator<Map.Entry<String, Long>> it = recent.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() >= EXPIRY_MS) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+        rebuild();
+        save();
+    }
+
+    // Bloom filters can't remove entries, so rebuild from the LRU whenever entries leave it
+    private void rebuild() {
+        bloom = new BitSet(BLOOM_BITS);
+        oldestTimestamp = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : recent.entrySet()) {
+            addToBloom(entry.getKey());
+            oldestTimestamp = Math.min(oldestTimestamp, entry.getValue());
+        }
+    }
+
+    private boolean mightContain(String id) {
+        int h1 = id.hashCode();
+        int h2 = secondaryHash(id);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            if (!bloom.get(index(h1, h2, i))) return false;
+        }
+        return true;
+    }
+
+    private void addToBloom(String id) {
+        int h1 = id.hashCode();
+        int h2 = secondaryHash(id);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            bloom.set(index(h1, h2, i));
+        }
+    }
+
+    private static int index(int h1, int h2, int i) {
+        return ((h1 + i * h2) & Integer.MAX_VALUE) % BLOOM_BITS;
+    }
+
+    // FNV-1a, independent of String.hashCode() for double hashing
+    private static int secondaryHash(String id) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+
+    private void load() {
+        String stored = preferences.getString(PREFS_KEY_IDS, null);
+        if (stored == null) return;
+        try {
+            JSONArray entries = new JSONArray(stored);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < entries.length(); i++) {
+                JSONArray entry = entries.getJSONArray(i);
+                long timestamp = entry.getLong(1);
+                if (now - timestamp < EXPIRY_MS) {
+                    recent.put(entry.getString(0), timestamp);
+                }
+            }
+            rebuild();
+            Log.d(TAG, "FirebasePluginMessageDedupIndex: Loaded " + recent.size() + " recent message IDs");
+        } catch (JSONException e) {
+            Log.w(TAG, "FirebasePluginMessageDedupIndex: Discarding unreadable index", e);
+            preferences.edit().remove(PREFS_KEY_IDS).apply();
+        }
+    }
+
+    private void save() {
+        JSONArray entries = new JSONArray();
+        for (Map.Entry<String, Long> entry : recent.entrySet()) {
+            entries.put(new JSONArray().put(entry.getKey()).put(entry.getValue().longValue()));
+        }
+        preferences.edit().putString(PREFS_KEY_IDS, entries.toString()).apply();
+    }
+}
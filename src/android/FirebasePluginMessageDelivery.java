@@ -0,0 +1,120 @@
+package org.apache.cordova.firebase;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Tracks which journaled messages have been sent to the JavaScript callback and which of those it has acknowledged,
+ * so messages stay in the journal until acknowledged and are replayed if lost in the WebView.
+ * The delivered sequence number is the last journaled message handed off to the current callback; unacknowledged
+ * sequence numbers are those sent to JavaScript and not yet acknowledged. Both are rewound when the callback is reset.
+ * Methods return the sequence number up to which the journal can be released rather than releasing it themselves.
+ * Has no Android dependencies so it can be stress tested on the JVM (see test/android).
+ */
+public class FirebasePluginMessageDelivery {
+
+    /**
+     * Where a drain started, so a batch it sent to a callback since reset isn't recorded against the new one.
+     */
+    public static final class Cursor {
+        public final long afterSeq;
+        private final long generation;
+
+        private Cursor(long afterSeq, long generation) {
+            this.afterSeq = afterSeq;
+            this.generation = generation;
+        }
+    }
+
+    private long deliveredSeq = 0;
+    private final TreeSet<Long> unackedSeqs = new TreeSet<Long>();
+    // JavaScript can acknowledge a message before the drain which sent it has recorded it
+    private long acknowledgedSeq = 0;
+    private long generation = 0;
+    private long acknowledgedCount = 0;
+    private long replayedCount = 0;
+
+    /**
+     * Rewinds delivery to the head of the journal, so unacknowledged messages are sent again to the next callback.
+     * @return the number of unacknowledged messages which will be replayed
+     */
+    public synchronized int reset() {
+        int replayed = deliveredSeq > 0 ? unackedSeqs.size() : 0;
+        replayedCount += replayed;
+        deliveredSeq = 0;
+        unackedSeqs.clear();
+        acknowledgedSeq = 0;
+        generation++;
+        return replayed;
+    }
+
+    public synchronized Cursor begin() {
+        return new Cursor(deliveredSeq, generation);
+    }
+
+    /**
+     * Records a batch handed off by a drain which started at the given cursor.
+     * @param throughSeq the last journaled message in the batch
+     * @param sentSeqs the messages in the batch sent to JavaScript; the rest were handled natively or skipped
+     * @return the sequence number up to which the journal can be released, or -1 if delivery was reset since the
+     * cursor was taken, in which case the batch will be sent again
+     */
+    public synchronized long delivered(Cursor cursor, long throughSeq, Collection<Long> sentSeqs) {
+        if (cursor.generation != generation) {
+            return -1;
+        }
+        deliveredSeq = throughSeq;
+        for (Long seq : sentSeqs) {
+            if (seq > acknowledgedSeq) {
+                unackedSeqs.add(seq);
+            } else {
+                acknowledgedCount++;
+            }
+        }
+        return releasableSeq();
+    }
+
+    /**
+     * Acknowledges the messages sent to JavaScript up to and including the given sequence number.
+     * @return the sequence number up to which the journal can be released
+     */
+    public synchronized long acknowledge(long upToSeq) {
+        SortedSet<Long> acknowledged = unackedSeqs.headSet(upToSeq, true);
+        acknowledgedCount += acknowledged.size();
+        acknowledged.clear();
+        acknowledgedSeq = Math.max(acknowledgedSeq, upToSeq);
+        return releasableSeq();
+    }
+
+    /**
+     * @return true if the journal holds messages not yet handed off to the current callback
+     */
+    public synchronized boolean hasUndelivered(long lastSeq) {
+        return lastSeq > deliveredSeq;
+    }
+
+    public synchronized long getDeliveredSeq() {
+        return deliveredSeq;
+    }
+
+    public synchronized int getUnacknowledgedCount() {
+        return unackedSeqs.size();
+    }
+
+    public synchronized long getAcknowledgedCount() {
+        return acknowledgedCount;
+    }
+
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * Delivered messages can be released up to the first one still awaiting acknowledgement.
+     * Messages handled natively need no acknowledgement, so are released as soon as those before them are.
+     */
+    private long releasableSeq() {
+        return unackedSeqs.isEmpty() ? deliveredSeq : unackedSeqs.first() - 1;
+    }
+}
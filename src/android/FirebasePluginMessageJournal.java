@@ -0,0 +1,394 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Crash-safe queue of messages waiting to be delivered to JavaScript.
+ * Messages are appended to memory-mapped segment files in app storage so they survive process death
+ * without being held on the heap. Segments rotate when full, fully consumed segments are deleted and
+ * the total number of segments is bounded, dropping the oldest messages when the bound is exceeded.
+ * The credentials a message carries for its notification actions are encrypted before it is written (see
+ * FirebasePluginCredentials), and the journal is cleared when the user signs out.
+ *
+ * Segment layout: header [magic:int][readPos:int][writePos:int][version:int][nextSeq:long]
+ * followed by records [length:int][seq:long][payload:byte[length]].
+ */
+public class FirebasePluginMessageJournal {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String JOURNAL_DIR = "firebase_message_journal";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int SEGMENT_SIZE = 512 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+
+    private static final int MAGIC = 0x46434d4a; // "FCMJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int OFFSET_READ_POS = 4;
+    private static final int OFFSET_WRITE_POS = 8;
+    private static final int OFFSET_NEXT_SEQ = 16;
+
+    public static class Entry {
+        public final long seq;
+        /** Decoded message, or null if the record could not be decoded. */
+        public final Bundle bundle;
+
+        Entry(long seq, Bundle bundle) {
+            this.seq = seq;
+            this.bundle = bundle;
+        }
+    }
+
+    private static FirebasePluginMessageJournal instance = null;
+
+    private final File dir;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private long nextSegmentIndex = 0;
+    private long nextSeq = 1;
+    private int pendingCount = 0;
+    private long droppedCount = 0;
+
+    public static synchronized FirebasePluginMessageJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginMessageJournal(new File(context.getApplicationContext().getFilesDir(), JOURNAL_DIR));
+        }
+        return instance;
+    }
+
+    private FirebasePluginMessageJournal(File dir) {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "FirebasePluginMessageJournal: Unable to create " + dir);
+        }
+        open();
+    }
+
+    /**
+     * Appends a message to the journal.
+     * @return the sequence number assigned to the message, or -1 if it could not be stored
+     */
+    public long append(Bundle bundle) {
+        byte[] payload;
+        try {
+            // Outside the lock, as the Keystore may be slow
+            Bundle persisted = FirebasePluginCredentials.sealFields(bundle);
+            if (persisted == null) {
+                Log.w(TAG, "FirebasePluginMessageJournal: Unable to encrypt message credentials, journaling it without them");
+                persisted = FirebasePluginCredentials.stripFields(bundle);
+            }
+            payload = FirebasePluginBundleCodec.encode(persisted);
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return -1;
+        }
+        return appendRecord(payload);
+    }
+
+    private synchronized long appendRecord(byte[] payload) {
+        try {
+            int recordSize = RECORD_HEADER_SIZE + payload.length;
+            if (recordSize > SEGMENT_SIZE - HEADER_SIZE) {
+                Log.w(TAG, "FirebasePluginMessageJournal: Message of " + payload.length + " bytes is too large to journal");
+                return -1;
+            }
+
+            Segment active = activeSegmentFor(recordSize);
+            long seq = nextSeq++;
+            MappedByteBuffer buffer = active.buffer;
+            // Write the record before publishing the new write position so a crash mid-write leaves the segment consistent
+            buffer.putInt(active.writePos, payload.length);
+            buffer.putLong(active.writePos + 4, seq);
+            for (int i = 0; i < payload.length; i++) {
+                buffer.put(active.writePos + RECORD_HEADER_SIZE + i, payload[i]);
+            }
+            active.writePos += recordSize;
+            active.count++;
+            buffer.putLong(OFFSET_NEXT_SEQ, nextSeq);
+            buffer.putInt(OFFSET_WRITE_POS, active.writePos);
+            pendingCount++;
+            return seq;
+        } catch (Exception e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns up to max unconsumed messages with a sequence number greater than afterSeq, in order, without removing them.
+     * Messages up to afterSeq are skipped without being decoded.
+     */
+    public List<Entry> peekAfter(long afterSeq, int max) {
+        List<Long> seqs = new ArrayList<Long>();
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                int pos = segment.readPos;
+                while (pos < segment.writePos && payloads.size() < max) {
+                    int length = segment.buffer.getInt(pos);
+                    long seq = segment.buffer.getLong(pos + 4);
+                    if (seq > afterSeq) {
+                        byte[] payload = new byte[length];
+                        for (int i = 0; i < length; i++) {
+                            payload[i] = segment.buffer.get(pos + RECORD_HEADER_SIZE + i);
+                        }
+                        seqs.add(seq);
+                        payloads.add(payload);
+                    }
+                    pos += RECORD_HEADER_SIZE + length;
+                }
+                if (payloads.size() >= max) break;
+            }
+        }
+
+        // Decoded outside the lock, as decrypting credentials may be slow
+        List<Entry> entries = new ArrayList<Entry>(payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            long seq = seqs.get(i);
+            Bundle bundle = null;
+            try {
+                bundle = FirebasePluginCredentials.openFields(FirebasePluginBundleCodec.decode(payloads.get(i)));
+            } catch (Exception e) {
+                Log.w(TAG, "FirebasePluginMessageJournal: Skipping undecodable record seq=" + seq);
+            }
+            entries.add(new Entry(seq, bundle));
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the messages at the head of the journal with a sequence number up to and including the given one.
+     * @return the number of messages removed
+     */
+    public synchronized int consumeThrough(long seq) {
+        int consumed = 0;
+        while (!segments.isEmpty()) {
+            Segment segment = segments.get(0);
+            if (segment.readPos >= segment.writePos) {
+                if (!compact(segment)) break;
+                continue;
+            }
+            if (segment.buffer.getLong(segment.readPos + 4) > seq) break;
+            consume(1);
+            consumed++;
+        }
+        return consumed;
+    }
+
+    /**
+     * @return the number of unconsumed messages with a sequence number greater than afterSeq
+     */
+    public synchronized int countAfter(long afterSeq) {
+        int count = 0;
+        for (Segment segment : segments) {
+            int pos = segment.readPos;
+            while (pos < segment.writePos) {
+                if (segment.buffer.getLong(pos + 4) > afterSeq) {
+                    count++;
+                }
+                pos += RECORD_HEADER_SIZE + segment.buffer.getInt(pos);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the sequence number of the last message appended, or 0 if none has been
+     */
+    public synchronized long getLastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * Removes the given number of messages from the head of the journal.
+     */
+    public synchronized void consume(int count) {
+        while (count > 0 && !segments.isEmpty()) {
+            Segment segment = segments.get(0);
+            if (segment.readPos >= segment.writePos) {
+                if (!compact(segment)) break;
+                continue;
+            }
+            int length = segment.buffer.getInt(segment.readPos);
+            segment.readPos += RECORD_HEADER_SIZE + length;
+            segment.count--;
+            segment.buffer.putInt(OFFSET_READ_POS, segment.readPos);
+            pendingCount--;
+            count--;
+            if (segment.readPos >= segment.writePos) {
+                compact(segment);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return pendingCount;
+    }
+
+    /**
+     * Removes every message, e.g. because the user they were sent to has signed out.
+     * Sequence numbers carry on from those already assigned.
+     */
+    public synchronized void clear() {
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        Log.d(TAG, "FirebasePluginMessageJournal: Cleared " + pendingCount + " pending messages");
+        pendingCount = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingCount == 0;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Reclaims a fully consumed segment: older segments are deleted, the active one is rewound.
+     * @return true if a segment was removed from the head of the list
+     */
+    private boolean compact(Segment segment) {
+        if (segment != segments.get(segments.size() - 1)) {
+            segments.remove(segment);
+            segment.delete();
+            return true;
+        }
+        segment.readPos = HEADER_SIZE;
+        segment.writePos = HEADER_SIZE;
+        segment.count = 0;
+        segment.buffer.putInt(OFFSET_READ_POS, HEADER_SIZE);
+        segment.buffer.putInt(OFFSET_WRITE_POS, HEADER_SIZE);
+        return false;
+    }
+
+    private Segment activeSegmentFor(int recordSize) throws IOException {
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active != null && active.readPos >= active.writePos) {
+            compact(active);
+        }
+        if (active == null || active.writePos + recordSize > SEGMENT_SIZE) {
+            active = Segment.create(new File(dir, segmentName(nextSegmentIndex++)), nextSeq);
+            segments.add(active);
+            Log.d(TAG, "FirebasePluginMessageJournal: Rotated to " + active.file.getName());
+        }
+        while (segments.size() > MAX_SEGMENTS) {
+            Segment oldest = segments.remove(0);
+            pendingCount -= oldest.count;
+            droppedCount += oldest.count;
+            Log.w(TAG, "FirebasePluginMessageJournal: Journal full, dropped " + oldest.count + " oldest messages");
+            oldest.delete();
+        }
+        return active;
+    }
+
+    private void open() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+            try {
+                long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = Segment.open(file);
+                if (segment == null) {
+                    Log.w(TAG, "FirebasePluginMessageJournal: Discarding invalid segment " + name);
+                    file.delete();
+                    continue;
+                }
+                segments.add(segment);
+                pendingCount += segment.count;
+                nextSeq = Math.max(nextSeq, segment.buffer.getLong(OFFSET_NEXT_SEQ));
+                nextSegmentIndex = Math.max(nextSegmentIndex, index + 1);
+            } catch (Exception e) {
+                Log.w(TAG, "FirebasePluginMessageJournal: Unable to open segment " + name, e);
+            }
+        }
+        Log.d(TAG, "FirebasePluginMessageJournal: Opened with " + pendingCount + " pending messages in " + segments.size() + " segments");
+    }
+
+    private static String segmentName(long index) {
+        return String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int readPos;
+        int writePos;
+        int count;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, long nextSeq) throws IOException {
+            Segment segment = new Segment(file, map(file));
+            segment.readPos = HEADER_SIZE;
+            segment.writePos = HEADER_SIZE;
+            segment.buffer.putInt(OFFSET_READ_POS, HEADER_SIZE);
+            segment.buffer.putInt(OFFSET_WRITE_POS, HEADER_SIZE);
+            segment.buffer.putInt(12, VERSION);
+            segment.buffer.putLong(OFFSET_NEXT_SEQ, nextSeq);
+            segment.buffer.putInt(0, MAGIC);
+            return segment;
+        }
+
+        static Segment open(File file) throws IOException {
+            if (file.length() != SEGMENT_SIZE) return null;
+            Segment segment = new Segment(file, map(file));
+            if (segment.buffer.getInt(0) != MAGIC) return null;
+            segment.readPos = segment.buffer.getInt(OFFSET_READ_POS);
+            segment.writePos = segment.buffer.getInt(OFFSET_WRITE_POS);
+            if (segment.readPos < HEADER_SIZE || segment.writePos > SEGMENT_SIZE || segment.readPos > segment.writePos) {
+                return null;
+            }
+            // Count the unconsumed records, truncating at the first one that doesn't fit
+            int pos = segment.readPos;
+            while (pos < segment.writePos) {
+                int length = segment.buffer.getInt(pos);
+                if (length < 0 || pos + RECORD_HEADER_SIZE + length > segment.writePos) {
+                    segment.writePos = pos;
+                    segment.buffer.putInt(OFFSET_WRITE_POS, pos);
+                    break;
+                }
+                pos += RECORD_HEADER_SIZE + length;
+                segment.count++;
+            }
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(SEGMENT_SIZE);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+
+        void delete() {
+            if (!file.delete()) {
+                Log.w(TAG, "FirebasePluginMessageJournal: Unable to delete " + file.getName());
+            }
+        }
+    }
+}
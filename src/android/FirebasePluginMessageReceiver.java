@@ -6,10 +6,24 @@ import com.google.firebase.messaging.RemoteMessage;
 
 public abstract class FirebasePluginMessageReceiver {
 
+    public static final int PRIORITY_LOW = -100;
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_HIGH = 100;
+
     public FirebasePluginMessageReceiver() {
         FirebasePluginMessageReceiverManager.register(this);
     }
 
+    /**
+     * Receivers with a higher priority are offered messages first; receivers of equal priority are offered them in registration order.
+     * Called during construction, so implementations should return a constant.
+     *
+     * @return priority of the receiver
+     */
+    public int getPriority() {
+        return PRIORITY_DEFAULT;
+    }
+
     /**
      * Concrete subclasses should override this and return true if they handle the received message.
      *
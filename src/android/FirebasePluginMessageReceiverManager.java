@@ -1,41 +1,139 @@
 package org.apache.cordova.firebase;
 
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.google.firebase.messaging.RemoteMessage;
 
-import java.util.ArrayList;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Registry of custom message receivers.
+ * Receivers are held in a copy-on-write list ordered by priority (highest first), so FCM threads can dispatch
+ * without locking while receivers register. Dispatch stops at the first receiver which handles the message.
+ * Each receiver's latency is recorded, and async receivers are bounded by their deadline with timeouts counted.
+ */
 public class FirebasePluginMessageReceiverManager {
 
-    private static List<FirebasePluginMessageReceiver> receivers = new ArrayList<FirebasePluginMessageReceiver>();
+    private static final String TAG = "FirebasePlugin";
+
+    // Synchronous receivers can't be interrupted, so ones slower than this are only logged
+    private static final long SLOW_RECEIVER_MS = 500;
+
+    private static final List<Registration> receivers = new CopyOnWriteArrayList<Registration>();
+
+    private static class Registration {
+        final FirebasePluginMessageReceiver receiver;
+        final int priority;
+        final FirebasePluginLatencyHistogram onMessageReceivedLatency = new FirebasePluginLatencyHistogram();
+        final FirebasePluginLatencyHistogram sendMessageLatency = new FirebasePluginLatencyHistogram();
+        final AtomicLong handled = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        Registration(FirebasePluginMessageReceiver receiver) {
+            this.receiver = receiver;
+            this.priority = receiver.getPriority();
+        }
+    }
 
     public static void register(FirebasePluginMessageReceiver receiver) {
-        receivers.add(receiver);
+        synchronized (receivers) {
+            // Insert after receivers of equal or higher priority so equal priorities keep registration order
+            int index = 0;
+            while (index < receivers.size() && receivers.get(index).priority >= receiver.getPriority()) {
+                index++;
+            }
+            receivers.add(index, new Registration(receiver));
+        }
+        Log.d(TAG, "FirebasePluginMessageReceiverManager: Registered " + receiver.getClass().getName() + " with priority " + receiver.getPriority());
+    }
+
+    public static void unregister(FirebasePluginMessageReceiver receiver) {
+        synchronized (receivers) {
+            for (Registration registration : receivers) {
+                if (registration.receiver == receiver) {
+                    receivers.remove(registration);
+                    break;
+                }
+            }
+        }
     }
 
     public static boolean onMessageReceived(RemoteMessage remoteMessage) {
-        boolean handled = false;
-        for (FirebasePluginMessageReceiver receiver : receivers) {
-            boolean wasHandled = receiver.onMessageReceived(remoteMessage);
+        for (Registration registration : receivers) {
+            long start = SystemClock.elapsedRealtime();
+            boolean wasHandled = false;
+            try {
+                if (registration.receiver instanceof FirebasePluginAsyncMessageReceiver) {
+                    wasHandled = ((FirebasePluginAsyncMessageReceiver) registration.receiver).awaitMessageReceived(remoteMessage);
+                } else {
+                    wasHandled = registration.receiver.onMessageReceived(remoteMessage);
+                }
+            } catch (TimeoutException e) {
+                registration.timeouts.incrementAndGet();
+                Log.w(TAG, "FirebasePluginMessageReceiverManager: " + registration.receiver.getClass().getName() + " timed out handling message");
+            } catch (Exception e) {
+                registration.errors.incrementAndGet();
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+            record(registration, registration.onMessageReceivedLatency, start, "onMessageReceived");
             if (wasHandled) {
-                handled = true;
+                registration.handled.incrementAndGet();
+                return true;
             }
         }
-
-        return handled;
+        return false;
     }
 
     public static boolean sendMessage(Bundle bundle) {
-            boolean handled = false;
-            for (FirebasePluginMessageReceiver receiver : receivers) {
-                boolean wasHandled = receiver.sendMessage(bundle);
-                if (wasHandled) {
-                    handled = true;
-                }
+        for (Registration registration : receivers) {
+            long start = SystemClock.elapsedRealtime();
+            boolean wasHandled = false;
+            try {
+                wasHandled = registration.receiver.sendMessage(bundle);
+            } catch (Exception e) {
+                registration.errors.incrementAndGet();
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+            record(registration, registration.sendMessageLatency, start, "sendMessage");
+            if (wasHandled) {
+                registration.handled.incrementAndGet();
+                return true;
             }
+        }
+        return false;
+    }
+
+    public static JSONArray getMetrics() throws JSONException {
+        JSONArray metrics = new JSONArray();
+        for (Registration registration : receivers) {
+            JSONObject receiver = new JSONObject();
+            receiver.put("name", registration.receiver.getClass().getName());
+            receiver.put("priority", registration.priority);
+            receiver.put("handled", registration.handled.get());
+            receiver.put("timeouts", registration.timeouts.get());
+            receiver.put("errors", registration.errors.get());
+            receiver.put("onMessageReceived", registration.onMessageReceivedLatency.toJson());
+            receiver.put("sendMessage", registration.sendMessageLatency.toJson());
+            metrics.put(receiver);
+        }
+        return metrics;
+    }
 
-            return handled;
+    private static void record(Registration registration, FirebasePluginLatencyHistogram histogram, long start, String stage) {
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        histogram.record(elapsed);
+        if (elapsed > SLOW_RECEIVER_MS) {
+            Log.w(TAG, "FirebasePluginMessageReceiverManager: " + registration.receiver.getClass().getName() + "." + stage + "() took " + elapsed + "ms");
         }
+    }
 }
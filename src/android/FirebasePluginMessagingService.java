@@ -5,7 +5,6 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.graphics.Bitmap;
 
 import android.media.RingtoneManager;
@@ -13,36 +12,24 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import androidx.core.app.NotificationCompat;
-import androidx.core.app.RemoteInput;
 import android.util.Log;
 import android.app.Notification;
 import android.text.TextUtils;
 import android.text.Html;
 import android.text.Spanned;
-import android.content.ContentResolver;
 import android.graphics.Color;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.Paint;
-import android.graphics.Canvas;
 
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
-import org.json.JSONArray;
+import android.service.notification.StatusBarNotification;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Random;
-import java.util.ArrayList;
 import java.util.List;
 
 public class FirebasePluginMessagingService extends FirebaseMessagingService {
@@ -54,6 +41,20 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
     static final String imageTypeCircle = "circle";
     static final String imageTypeBigPicture = "big_picture";
+    static final String imageTypeRounded = "rounded";
+
+    private static final long IMAGE_BLOCKING_TIMEOUT_MS = 15000;
+
+    // Builders of notifications waiting for their image, so the image job can update them without recovering
+    // the builder from the posted notification. Lost with the process, in which case the job recovers it.
+    // They outlive the service, so are created with the application context rather than holding on to it.
+    private static final int MAX_PENDING_IMAGE_BUILDERS = 16;
+    private static final Map<Integer, NotificationCompat.Builder> pendingImageBuilders = new LinkedHashMap<Integer, NotificationCompat.Builder>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, NotificationCompat.Builder> eldest) {
+            return size() > MAX_PENDING_IMAGE_BUILDERS;
+        }
+    };
 
     /**
      * Called if InstanceID token is updated. This may occur if the security of
@@ -72,18 +73,7 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
     }
 
     public Bitmap getBitmapFromURL(String strURL) {
-        try {
-            URL url = new URL(strURL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(15000);
-            connection.setDoInput(true);
-            connection.connect();
-            InputStream input = connection.getInputStream();
-            return BitmapFactory.decodeStream(input);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return FirebasePluginImageLoader.getInstance(this).loadBlocking(strURL, getImageTarget(this, null), IMAGE_BLOCKING_TIMEOUT_MS);
     }
 
     /**
@@ -97,6 +87,9 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
      */
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
+        FirebasePluginProcessingBudget budget = FirebasePluginProcessingBudget.start(this);
+        String dedupKey = null;
+        boolean processed = false;
         try{
             // [START_EXCLUDE]
             // There are two types of messages data messages and notification messages. Data messages are handled
@@ -108,12 +101,22 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             // messages. For more see: https://firebase.google.com/docs/cloud-messaging/concept-options
             // [END_EXCLUDE]
 
+            // Drop redeliveries of messages that have already been processed
+            budget.begin(FirebasePluginProcessingBudget.STAGE_RECEIVERS);
+            dedupKey = getDedupKey(remoteMessage);
+            if (FirebasePluginMessageDedupIndex.getInstance(this).isDuplicate(dedupKey)) {
+                Log.d(TAG, "Dropped duplicate message: " + dedupKey);
+                return;
+            }
+            FirebasePluginReceiptBatcher.getInstance(this).onMessageDelivered(remoteMessage);
+
             // Pass the message to the receiver manager so any registered receivers can decide to handle it
             boolean wasHandled = FirebasePluginMessageReceiverManager.onMessageReceived(remoteMessage);
             if (wasHandled) {
                 Log.d(TAG, "Message was handled by a registered receiver");
 
                 // Don't process the message in this method.
+                processed = true;
                 return;
             }
 
@@ -123,172 +126,114 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
 
             // TODO(developer): Handle FCM messages here.
             // Not getting messages here? See why this may be: https://goo.gl/39bRNJ
-            String messageType;
-            String title = null;
-            String titleLocKey = null;
-            String[] titleLocArgs = null;
-            String body = null;
-            String bodyLocKey = null;
-            String[] bodyLocArgs = null;
-            String bodyHtml = null;
-            String id = null;
-            String sound = null;
-            String vibrate = null;
-            String light = null;
-            String color = null;
-            String icon = null;
-            String channelId = null;
-            String visibility = null;
-            String priority = null;
-            String image = null;
-            String imageType = null;
-            boolean foregroundNotification = false;
-
+            budget.begin(FirebasePluginProcessingBudget.STAGE_PARSE);
             Map<String, String> data = remoteMessage.getData();
             
             // Check if message contains action buttons - if so, we need to handle it as data message
             // even if notification block is present, so we can create custom notification with actions
-            boolean hasActions = data != null && data.containsKey("actions");
+            boolean hasActions = data != null && (data.containsKey("actions") || data.containsKey("notification_android_category"));
 
+            NotificationPayload.Builder payloadBuilder;
             if (remoteMessage.getNotification() != null && !hasActions) {
                 // Notification message payload (only if no actions)
                 Log.i(TAG, "Received message: notification");
-                messageType = "notification";
-                id = remoteMessage.getMessageId();
+                payloadBuilder = new NotificationPayload.Builder(NotificationPayload.MESSAGE_TYPE_NOTIFICATION);
                 RemoteMessage.Notification notification = remoteMessage.getNotification();
-                title = notification.getTitle();
-                titleLocKey = notification.getTitleLocalizationKey();
-                titleLocArgs = notification.getTitleLocalizationArgs();
-                body = notification.getBody();
-                bodyLocKey = notification.getBodyLocalizationKey();
-                bodyLocArgs = notification.getBodyLocalizationArgs();
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    channelId = notification.getChannelId();
-                }
-                sound = notification.getSound();
-                color = notification.getColor();
-                icon = notification.getIcon();
-                if (notification.getImageUrl() != null) {
-                    image = notification.getImageUrl().toString();
-                }
+                String title = notification.getTitle();
+                String titleLocKey = notification.getTitleLocalizationKey();
+                String body = notification.getBody();
+                String bodyLocKey = notification.getBodyLocalizationKey();
+                FirebasePluginResourceIndex resourceIndex = FirebasePluginResourceIndex.get(this);
                 if (!TextUtils.isEmpty(titleLocKey)) {
-                    int titleId = getResources().getIdentifier(titleLocKey, "string", getPackageName());
-                    title = String.format(getResources().getString(titleId), (Object[])titleLocArgs);
+                    int titleId = resourceIndex.getStringId(titleLocKey);
+                    title = String.format(getResources().getString(titleId), (Object[])notification.getTitleLocalizationArgs());
                 }
                 if (!TextUtils.isEmpty(bodyLocKey)) {
-                    int bodyId = getResources().getIdentifier(bodyLocKey, "string", getPackageName());
-                    body = String.format(getResources().getString(bodyId), (Object[])bodyLocArgs);
+                    int bodyId = resourceIndex.getStringId(bodyLocKey);
+                    body = String.format(getResources().getString(bodyId), (Object[])notification.getBodyLocalizationArgs());
+                }
+                payloadBuilder
+                        .setId(remoteMessage.getMessageId())
+                        .setTitle(title)
+                        .setBody(body)
+                        .setSound(notification.getSound())
+                        .setColor(notification.getColor())
+                        .setIcon(notification.getIcon());
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    payloadBuilder.setChannelId(notification.getChannelId());
+                }
+                if (notification.getImageUrl() != null) {
+                    payloadBuilder.setImage(notification.getImageUrl().toString());
                 }
             }else{
                 Log.i(TAG, "Received message: data" + (hasActions ? " (with actions)" : ""));
-                messageType = "data";
-            }
-
-            if (data != null) {
-                // Data message payload
-                if(data.containsKey("notification_foreground")){
-                    foregroundNotification = true;
-                }
-                if(data.containsKey("notification_title")) title = data.get("notification_title");
-                if(data.containsKey("notification_body")) body = data.get("notification_body");
-                if(data.containsKey("notification_android_body_html")) bodyHtml = data.get("notification_android_body_html");
-                if(data.containsKey("notification_android_channel_id")) channelId = data.get("notification_android_channel_id");
-                if(data.containsKey("notification_android_id")) id = data.get("notification_android_id");
-                if(data.containsKey("notification_android_sound")) sound = data.get("notification_android_sound");
-                if(data.containsKey("notification_android_vibrate")) vibrate = data.get("notification_android_vibrate");
-                if(data.containsKey("notification_android_light")) light = data.get("notification_android_light"); //String containing hex ARGB color, miliseconds on, miliseconds off, example: '#FFFF00FF,1000,3000'
-                if(data.containsKey("notification_android_color")) color = data.get("notification_android_color");
-                if(data.containsKey("notification_android_icon")) icon = data.get("notification_android_icon");
-                if(data.containsKey("notification_android_visibility")) visibility = data.get("notification_android_visibility");
-                if(data.containsKey("notification_android_priority")) priority = data.get("notification_android_priority");
-                if(data.containsKey("notification_android_image")) image = data.get("notification_android_image");
-                if(data.containsKey("notification_android_image_type")) imageType = data.get("notification_android_image_type");
+                payloadBuilder = new NotificationPayload.Builder(NotificationPayload.MESSAGE_TYPE_DATA);
             }
 
-            if (TextUtils.isEmpty(id)) {
-                Random rand = new Random();
-                int n = rand.nextInt(50) + 1;
-                id = Integer.toString(n);
-            }
+            // Data message payload overrides the notification fields
+            NotificationPayload payload = payloadBuilder
+                    .parseData(data)
+                    .setFallbackId(remoteMessage.getMessageId())
+                    .build();
+            FirebasePluginActionCategoryRegistry.ActionSet actions = resolveActions(payload);
+            budget.end();
 
             Log.d(TAG, "From: " + remoteMessage.getFrom());
-            Log.d(TAG, "Id: " + id);
-            Log.d(TAG, "Title: " + title);
-            Log.d(TAG, "Body: " + body);
-            Log.d(TAG, "Sound: " + sound);
-            Log.d(TAG, "Vibrate: " + vibrate);
-            Log.d(TAG, "Light: " + light);
-            Log.d(TAG, "Color: " + color);
-            Log.d(TAG, "Icon: " + icon);
-            Log.d(TAG, "Channel Id: " + channelId);
-            Log.d(TAG, "Visibility: " + visibility);
-            Log.d(TAG, "Priority: " + priority);
-            Log.d(TAG, "Image: " + image);
-            Log.d(TAG, "image Type: " + imageType);
-
-
-            if (!TextUtils.isEmpty(body) || !TextUtils.isEmpty(title) || (data != null && !data.isEmpty())) {
-                // Parse action buttons from data payload
-                List<NotificationAction> actions = parseActions(data);
-                
-                // Update hasActions based on parsed actions (not just presence of "actions" key)
-                hasActions = actions != null && !actions.isEmpty();
-                
+            Log.d(TAG, "Payload: " + payload);
+
+            if (payload.hasContent() || (data != null && !data.isEmpty())) {
                 // Show notification if:
                 // - App is in background OR
                 // - No notification callback registered OR
                 // - notification_foreground is set OR
                 // - Message has action buttons (need to show buttons to user)
-                boolean showNotification = (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback() || foregroundNotification || hasActions) && (!TextUtils.isEmpty(body) || !TextUtils.isEmpty(title));
+                boolean showNotification = (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback() || payload.foregroundNotification || actions != null) && payload.hasContent();
                 
-                if (hasActions) {
-                    Log.d(TAG, "Message has " + actions.size() + " action buttons");
+                if (actions != null) {
+                    Log.d(TAG, "Message has " + actions.actions.size() + " action buttons");
                     
-                    // Start foreground service temporarily to keep process alive for action button handling
-                    // Service will auto-stop after 3 seconds to minimize notification visibility
+                    // Keep process alive in the foreground briefly for action button handling
+                    // Bursts of messages share one foreground session, stopped once the last lease expires
                     if (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback()) {
-                        try {
-                            Intent serviceIntent = new Intent(this, FirebaseForegroundService.class);
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                                startForegroundService(serviceIntent);
-                            } else {
-                                startService(serviceIntent);
-                            }
-                            Log.d(TAG, "Started temporary foreground service for action button handling");
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to start foreground service", e);
-                        }
+                        FirebasePluginKeepalive.acquire(this, FirebasePluginKeepalive.DEFAULT_LEASE_MS, "action buttons");
                     }
                 }
                 
-                sendMessage(remoteMessage, data, messageType, id, title, body, bodyHtml, showNotification, sound, vibrate, light, color, icon, channelId, priority, visibility, image, imageType, actions);
+                sendMessage(remoteMessage, data, payload, actions, showNotification, budget);
             }
+            processed = true;
         }catch (Exception e){
             FirebasePlugin.handleExceptionWithoutContext(e);
+        }finally{
+            // Only recorded once handled, so FCM's redelivery of a message which failed isn't dropped as a duplicate
+            if (processed) {
+                FirebasePluginMessageDedupIndex.getInstance(this).record(dedupKey);
+            }
+            budget.finish();
         }
     }
 
-    private void sendMessage(RemoteMessage remoteMessage, Map<String, String> data, String messageType, String id, String title, String body, String bodyHtml, boolean showNotification, String sound, String vibrate, String light, String color, String icon, String channelId, String priority, String visibility, String image, String imageType, List<NotificationAction> actions) {
-        Log.d(TAG, "sendMessage(): messageType="+messageType+"; showNotification="+showNotification+"; id="+id+"; title="+title+"; body="+body+"; sound="+sound+"; vibrate="+vibrate+"; light="+light+"; color="+color+"; icon="+icon+"; channel="+channelId+"; actions="+(actions != null ? actions.size() : 0)+"; data="+data.toString());
+    private void sendMessage(RemoteMessage remoteMessage, Map<String, String> data, NotificationPayload payload, FirebasePluginActionCategoryRegistry.ActionSet actions, boolean showNotification, FirebasePluginProcessingBudget budget) {
+        Log.d(TAG, "sendMessage(): showNotification="+showNotification+"; "+payload+"; data="+data.toString());
         Bundle bundle = new Bundle();
-        for (String key : data.keySet()) {
-            bundle.putString(key, data.get(key));
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            bundle.putString(entry.getKey(), entry.getValue());
         }
-        bundle.putString("messageType", messageType);
-        this.putKVInBundle("id", id, bundle);
-        this.putKVInBundle("title", title, bundle);
-        this.putKVInBundle("body", body, bundle);
-        this.putKVInBundle("body_html", bodyHtml, bundle);
-        this.putKVInBundle("sound", sound, bundle);
-        this.putKVInBundle("vibrate", vibrate, bundle);
-        this.putKVInBundle("light", light, bundle);
-        this.putKVInBundle("color", color, bundle);
-        this.putKVInBundle("icon", icon, bundle);
-        this.putKVInBundle("channel_id", channelId, bundle);
-        this.putKVInBundle("priority", priority, bundle);
-        this.putKVInBundle("visibility", visibility, bundle);
-        this.putKVInBundle("image", image, bundle);
-        this.putKVInBundle("image_type", imageType, bundle);
+        bundle.putString("messageType", payload.messageType);
+        this.putKVInBundle("id", payload.id, bundle);
+        this.putKVInBundle("title", payload.title, bundle);
+        this.putKVInBundle("body", payload.body, bundle);
+        this.putKVInBundle("body_html", payload.bodyHtml, bundle);
+        this.putKVInBundle("sound", payload.sound, bundle);
+        this.putKVInBundle("vibrate", payload.vibrate, bundle);
+        this.putKVInBundle("light", payload.light, bundle);
+        this.putKVInBundle("color", payload.color, bundle);
+        this.putKVInBundle("icon", payload.icon, bundle);
+        this.putKVInBundle("channel_id", payload.channelId, bundle);
+        this.putKVInBundle("priority", payload.priority, bundle);
+        this.putKVInBundle("visibility", payload.visibility, bundle);
+        this.putKVInBundle("image", payload.image, bundle);
+        this.putKVInBundle("image_type", payload.imageType, bundle);
         this.putKVInBundle("show_notification", String.valueOf(showNotification), bundle);
         this.putKVInBundle("from", remoteMessage.getFrom(), bundle);
         this.putKVInBundle("collapse_key", remoteMessage.getCollapseKey(), bundle);
@@ -296,42 +241,52 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
         this.putKVInBundle("ttl", String.valueOf(remoteMessage.getTtl()), bundle);
         
         // Store actions in bundle for JavaScript
-        if (actions != null && !actions.isEmpty()) {
-            try {
-                JSONArray actionsJson = new JSONArray();
-                for (NotificationAction action : actions) {
-                    JSONObject actionJson = new JSONObject();
-                    actionJson.put("id", action.id);
-                    actionJson.put("title", action.title);
-                    actionJson.put("icon", action.icon);
-                    actionsJson.put(actionJson);
-                }
-                bundle.putString("actions", actionsJson.toString());
-            } catch (JSONException e) {
-                Log.e(TAG, "Error serializing actions", e);
-            }
+        if (actions != null) {
+            bundle.putString("actions", actions.actionsJson);
         }
 
         if (showNotification) {
 
+            String channelId = payload.channelId;
+
+            FirebasePluginNotificationIdAllocator idAllocator = FirebasePluginNotificationIdAllocator.getInstance(this);
+            final int notificationId = idAllocator.idFor(channelId, payload.id);
+
             Intent intent;
             PendingIntent pendingIntent;
             final int flag = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE : PendingIntent.FLAG_UPDATE_CURRENT;  // Only add on platform levels that support FLAG_MUTABLE
 
+            // Intents reference the stored payload by key rather than each carrying a copy of it
+            Bundle intentExtras = bundle;
+            PendingIntent deleteIntent = null;
+            String payloadKey = FirebasePluginPayloadStore.getInstance(this).put(bundle);
+            if (payloadKey != null) {
+                intentExtras = new Bundle();
+                intentExtras.putString(FirebasePluginPayloadStore.EXTRA_PAYLOAD_KEY, payloadKey);
+
+                Intent dismissIntent = new Intent(this, FirebaseActionReceiver.class);
+                dismissIntent.setAction(FirebaseActionReceiver.ACTION_DISMISSED);
+                dismissIntent.putExtras(intentExtras);
+                dismissIntent.putExtra("notificationId", notificationId);
+                deleteIntent = PendingIntent.getBroadcast(this, idAllocator.nextRequestCode(), dismissIntent, flag);
+            }
+
             if(getApplicationInfo().targetSdkVersion >= Build.VERSION_CODES.S && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                 intent = new Intent(this, OnNotificationReceiverActivity.class);
-                intent.putExtras(bundle);
-                pendingIntent = PendingIntent.getActivity(this, id.hashCode(), intent, flag);
+                intent.putExtras(intentExtras);
+                pendingIntent = PendingIntent.getActivity(this, idAllocator.nextRequestCode(), intent, flag);
             }else{
                 intent = new Intent(this, OnNotificationOpenReceiver.class);
-                intent.putExtras(bundle);
-                pendingIntent = PendingIntent.getBroadcast(this, id.hashCode(), intent, flag);
+                intent.putExtras(intentExtras);
+                pendingIntent = PendingIntent.getBroadcast(this, idAllocator.nextRequestCode(), intent, flag);
             }
 
 
             // Channel
-            if(channelId == null || !FirebasePlugin.channelExists(channelId)){
-                channelId = FirebasePlugin.defaultChannelId;
+            budget.begin(FirebasePluginProcessingBudget.STAGE_CHANNEL);
+            FirebasePluginChannelRegistry channelRegistry = FirebasePluginChannelRegistry.getInstance(this);
+            if(channelId == null || !channelRegistry.exists(channelId)){
+                channelId = channelRegistry.getDefaultChannelId();
             }
             // Fallback if app was killed and defaultChannelId not initialized
             if(channelId == null) {
@@ -339,7 +294,7 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
                 // Create default channel if it doesn't exist
                 if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
                     NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-                    if(notificationManager != null && notificationManager.getNotificationChannel(channelId) == null) {
+                    if(notificationManager != null && !channelRegistry.exists(channelId)) {
                         NotificationChannel channel = new NotificationChannel(
                             channelId,
                             "Push notifications",
@@ -352,6 +307,7 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
                         channel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
                         channel.setBypassDnd(true); // Bypass Do Not Disturb mode
                         notificationManager.createNotificationChannel(channel);
+                        channelRegistry.put(channel);
                         Log.d(TAG, "Created fallback notification channel: " + channelId);
                     }
                 }
@@ -361,90 +317,77 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             }
 
 
-            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this, channelId);
+            budget.begin(FirebasePluginProcessingBudget.STAGE_BUILD);
+            FirebasePluginResourceIndex resourceIndex = FirebasePluginResourceIndex.get(this);
+            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(getApplicationContext(), channelId);
             notificationBuilder
-                    .setContentTitle(title)
+                    .setContentTitle(payload.title)
                     .setAutoCancel(true)
                     .setContentIntent(pendingIntent)
                     .setCategory(NotificationCompat.CATEGORY_MESSAGE)
                     .setDefaults(Notification.DEFAULT_ALL);
+            if (deleteIntent != null) {
+                notificationBuilder.setDeleteIntent(deleteIntent);
+            }
 
-            if(bodyHtml != null) {
+            if(payload.bodyHtml != null) {
                 notificationBuilder
-                    .setContentText(fromHtml(body))
-                    .setStyle(new NotificationCompat.BigTextStyle().bigText(fromHtml(body)));
+                    .setContentText(fromHtml(payload.body))
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(fromHtml(payload.body)));
             }else{
                 notificationBuilder
-                    .setContentText(body)
-                    .setStyle(new NotificationCompat.BigTextStyle().bigText(body));
+                    .setContentText(payload.body)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(payload.body));
             }
 
 
             // On Android O+ the sound/lights/vibration are determined by the channel ID
             if(Build.VERSION.SDK_INT < Build.VERSION_CODES.O){
                 // Sound
-                if (sound == null) {
+                if (payload.sound == null) {
                     Log.d(TAG, "Sound: none");
-                }else if (sound.equals("default")) {
+                }else if (payload.sound.equals("default")) {
                     notificationBuilder.setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION));
                     Log.d(TAG, "Sound: default");
                 }else{
-                    Uri soundPath = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + getPackageName() + "/raw/" + sound);
-                    Log.d(TAG, "Sound: custom=" + sound+"; path="+soundPath.toString());
+                    Uri soundPath = resourceIndex.getSoundUri(payload.sound);
+                    Log.d(TAG, "Sound: custom=" + payload.sound+"; path="+soundPath.toString());
                     notificationBuilder.setSound(soundPath);
                 }
 
                 // Light
-                if (light != null) {
+                if (payload.lightColor != null) {
                     try {
-                        String[] lightsComponents = color.replaceAll("\\s", "").split(",");
-                        if (lightsComponents.length == 3) {
-                            int lightArgb = Color.parseColor(lightsComponents[0]);
-                            int lightOnMs = Integer.parseInt(lightsComponents[1]);
-                            int lightOffMs = Integer.parseInt(lightsComponents[2]);
-                            notificationBuilder.setLights(lightArgb, lightOnMs, lightOffMs);
-                            Log.d(TAG, "Lights: color="+lightsComponents[0]+"; on(ms)="+lightsComponents[2]+"; off(ms)="+lightsComponents[3]);
-                        }
-
+                        notificationBuilder.setLights(Color.parseColor(payload.lightColor), payload.lightOnMs, payload.lightOffMs);
+                        Log.d(TAG, "Lights: color="+payload.lightColor+"; on(ms)="+payload.lightOnMs+"; off(ms)="+payload.lightOffMs);
                     } catch (Exception e) {}
                 }
 
                 // Vibrate
-                if (vibrate != null){
-                    try {
-                        String[] sVibrations = vibrate.replaceAll("\\s", "").split(",");
-                        long[] lVibrations = new long[sVibrations.length];
-                        int i=0;
-                        for(String sVibration: sVibrations){
-                            lVibrations[i] = Integer.parseInt(sVibration.trim());
-                            i++;
-                        }
-                        notificationBuilder.setVibrate(lVibrations);
-                        Log.d(TAG, "Vibrate: "+vibrate);
-                    } catch (Exception e) {
-                        Log.e(TAG, e.getMessage());
-                    }
+                if (payload.vibratePattern != null){
+                    notificationBuilder.setVibrate(payload.vibratePattern);
+                    Log.d(TAG, "Vibrate: "+payload.vibrate);
                 }
             }
 
 
             // Icon
-            int defaultSmallIconResID = getResources().getIdentifier(defaultSmallIconName, "drawable", getPackageName());
+            int defaultSmallIconResID = resourceIndex.getDrawableId(defaultSmallIconName);
             int customSmallIconResID = 0;
-            if(icon != null){
-                customSmallIconResID = getResources().getIdentifier(icon, "drawable", getPackageName());
+            if(payload.icon != null){
+                customSmallIconResID = resourceIndex.getDrawableId(payload.icon);
             }
 
             if (customSmallIconResID != 0) {
                 notificationBuilder.setSmallIcon(customSmallIconResID);
-                Log.d(TAG, "Small icon: custom="+icon);
+                Log.d(TAG, "Small icon: custom="+payload.icon);
             }else if (defaultSmallIconResID != 0) {
                 Log.d(TAG, "Small icon: default="+defaultSmallIconName);
                 notificationBuilder.setSmallIcon(defaultSmallIconResID);
             } else {
                 // Fallback: use ic_launcher_foreground if available (typically monochrome-friendly)
                 // or android.R.drawable.ic_dialog_info as last resort
-                int fallbackIcon = getResources().getIdentifier("ic_launcher_foreground", "drawable", getPackageName());
+                int fallbackIcon = resourceIndex.getDrawableId(FirebasePluginResourceIndex.launcherForegroundIconName);
                 if (fallbackIcon != 0) {
                     Log.d(TAG, "Small icon: ic_launcher_foreground");
                     notificationBuilder.setSmallIcon(fallbackIcon);
@@ -455,186 +398,226 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
             }
 
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                int defaultLargeIconResID = getResources().getIdentifier(defaultLargeIconName, "drawable", getPackageName());
+                int defaultLargeIconResID = resourceIndex.getDrawableId(defaultLargeIconName);
                 int customLargeIconResID = 0;
-                if(icon != null){
-                    customLargeIconResID = getResources().getIdentifier(icon+"_large", "drawable", getPackageName());
+                if(payload.icon != null){
+                    customLargeIconResID = resourceIndex.getDrawableId(payload.icon+"_large");
                 }
 
                 int largeIconResID;
                 if (customLargeIconResID != 0 || defaultLargeIconResID != 0) {
                     if (customLargeIconResID != 0) {
                         largeIconResID = customLargeIconResID;
-                        Log.d(TAG, "Large icon: custom="+icon);
+                        Log.d(TAG, "Large icon: custom="+payload.icon);
                     }else{
                         Log.d(TAG, "Large icon: default="+defaultLargeIconName);
                         largeIconResID = defaultLargeIconResID;
                     }
-                    notificationBuilder.setLargeIcon(BitmapFactory.decodeResource(getApplicationContext().getResources(), largeIconResID));
-                }
-            }
-
-            // Image
-            if (image != null) {
-                Log.d(TAG, "Large icon: image="+image);
-                Bitmap bitmap = getBitmapFromURL(image);
-                if(bitmap != null) {
-                    if(imageTypeCircle.equalsIgnoreCase(imageType)) {
-                        bitmap = getCircleBitmap(bitmap);
-                    }
-                    else if(imageTypeBigPicture.equalsIgnoreCase(imageType)) {
-                        notificationBuilder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(bitmap).bigLargeIcon((Bitmap) null));
-                    }
-                    notificationBuilder.setLargeIcon(bitmap);
+                    notificationBuilder.setLargeIcon(resourceIndex.getLargeIcon(largeIconResID));
                 }
             }
 
             // Color
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                int defaultColor = getResources().getColor(getResources().getIdentifier("accent", "color", getPackageName()), null);
-                if(color != null){
-                    notificationBuilder.setColor(Color.parseColor(color));
-                    Log.d(TAG, "Color: custom="+color);
-                }else{
+                Integer defaultColor = resourceIndex.getAccentColor();
+                if(payload.color != null){
+                    notificationBuilder.setColor(Color.parseColor(payload.color));
+                    Log.d(TAG, "Color: custom="+payload.color);
+                }else if(defaultColor != null){
                     Log.d(TAG, "Color: default");
                     notificationBuilder.setColor(defaultColor);
                 }
             }
 
             // Visibility
-            int iVisibility = NotificationCompat.VISIBILITY_PUBLIC;
-            if(visibility != null){
-                iVisibility = Integer.parseInt(visibility);
-            }
+            int iVisibility = payload.visibilityValue != null ? payload.visibilityValue : NotificationCompat.VISIBILITY_PUBLIC;
             Log.d(TAG, "Visibility: " + iVisibility);
             notificationBuilder.setVisibility(iVisibility);
 
             // Priority
-            int iPriority = NotificationCompat.PRIORITY_MAX;
-            if(priority != null){
-                iPriority = Integer.parseInt(priority);
-            }
+            int iPriority = payload.priorityValue != null ? payload.priorityValue : NotificationCompat.PRIORITY_MAX;
             Log.d(TAG, "Priority: " + iPriority);
             notificationBuilder.setPriority(iPriority);
 
             // Action Buttons
-            if (actions != null && !actions.isEmpty()) {
-                addActionButtons(notificationBuilder, actions, bundle, id);
+            if (actions != null) {
+                addActionButtons(notificationBuilder, actions.actions, intentExtras, notificationId);
+            }
+
+            // Image - use it straight away if already decoded, otherwise post without it and update when loaded.
+            // Fetching it is optional: if the processing budget is running out the notification is posted without it,
+            // rather than spending network, decoding and job queue time on it while the device is under load.
+            budget.begin(FirebasePluginProcessingBudget.STAGE_IMAGE);
+            boolean imagePending = false;
+            if (payload.image != null) {
+                Log.d(TAG, "Large icon: image="+payload.image);
+                Bitmap bitmap = FirebasePluginImageLoader.getInstance(this).getCached(payload.image, getImageTarget(this, payload.imageType));
+                if(bitmap != null) {
+                    applyImage(notificationBuilder, bitmap, payload.imageType);
+                }else{
+                    imagePending = budget.allowOptional(FirebasePluginProcessingBudget.STAGE_IMAGE);
+                }
             }
 
             // Build notification
+            budget.begin(FirebasePluginProcessingBudget.STAGE_NOTIFY);
             Notification notification = notificationBuilder.build();
 
-            // Display notification
-            NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            // Display notification - rate limited, bursts are coalesced per collapse key or channel
+            final FirebasePluginNotificationPoster poster = FirebasePluginNotificationPoster.getInstance(this);
+            String collapseKey = remoteMessage.getCollapseKey();
+            // FCM uses the package name as the collapse key of non-collapsible messages
+            String groupKey = collapseKey != null && !collapseKey.equals(getPackageName()) ? collapseKey : channelId;
             Log.d(TAG, "show notification: "+notification.toString());
-            notificationManager.notify(id.hashCode(), notification);
+            poster.post(notificationId, notification, groupKey, channelId, payload.title, payload.body);
+
+            if (imagePending) {
+                // Fetch the image in the job queue so it is still attached if the process dies in the meantime
+                synchronized (pendingImageBuilders) {
+                    pendingImageBuilders.put(notificationId, notificationBuilder);
+                }
+                try {
+                    JSONObject args = new JSONObject();
+                    args.put("notificationId", notificationId);
+                    args.put("image", payload.image);
+                    args.put("imageType", payload.imageType);
+                    FirebasePluginJobQueue.getInstance(this).enqueue(FirebasePluginJobQueue.TYPE_NOTIFICATION_IMAGE, args, FirebasePluginJobQueue.CONSTRAINT_NETWORK);
+                } catch (JSONException e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+            budget.end();
         }
         // Send to plugin
         FirebasePlugin.sendMessage(bundle, this.getApplicationContext());
     }
 
-    private Bitmap getCircleBitmap(Bitmap bitmap) {
-
-        if (bitmap == null) {
-            return null;
+    /**
+     * @return the message's inline actions, otherwise those of its registered category, or null if it has neither
+     */
+    private FirebasePluginActionCategoryRegistry.ActionSet resolveActions(NotificationPayload payload) {
+        FirebasePluginActionCategoryRegistry registry = FirebasePluginActionCategoryRegistry.getInstance(this);
+        if (payload.hasActions()) {
+            try {
+                return registry.prepare(payload.actions);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error serializing actions", e);
+                return null;
+            }
         }
-
-        final Bitmap output = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(output);
-        final int color = Color.RED;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        float cx = bitmap.getWidth() / 2;
-        float cy = bitmap.getHeight() / 2;
-        float radius = cx < cy ? cx : cy;
-        canvas.drawCircle(cx, cy, radius, paint);
-
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-
-        bitmap.recycle();
-
-        return output;
+        if (payload.category == null) return null;
+        FirebasePluginActionCategoryRegistry.ActionSet actions = registry.get(payload.category);
+        if (actions == null) {
+            Log.w(TAG, "Notification category is not registered: " + payload.category);
+        }
+        return actions != null && !actions.isEmpty() ? actions : null;
     }
 
-    private Spanned fromHtml(String source) {
-        if (source != null)
-            return Html.fromHtml(source);
-        else
-            return null;
+    /**
+     * Identifies a message for de-duplication by its FCM message ID.
+     * notification_android_id is only used when there is no message ID, since senders reuse it to update a displayed notification.
+     */
+    private static String getDedupKey(RemoteMessage remoteMessage) {
+        String messageId = remoteMessage.getMessageId();
+        if (!TextUtils.isEmpty(messageId)) return messageId;
+        String notificationId = remoteMessage.getData().get("notification_android_id");
+        return !TextUtils.isEmpty(notificationId) ? "notification_android_id:" + notificationId : null;
     }
 
-    private void putKVInBundle(String k, String v, Bundle b){
-        if(v != null && !b.containsKey(k)){
-            b.putString(k, v);
+    /**
+     * Sets an image decoded for getImageTarget() on the notification.
+     */
+    private static void applyImage(NotificationCompat.Builder notificationBuilder, Bitmap bitmap, String imageType) {
+        if(imageTypeBigPicture.equalsIgnoreCase(imageType)) {
+            notificationBuilder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(bitmap).bigLargeIcon((Bitmap) null));
         }
+        notificationBuilder.setLargeIcon(bitmap);
     }
 
     /**
-     * Helper class to store notification action data
+     * @return the size and shape to decode an image of the given notification_android_image_type at
      */
-    private static class NotificationAction {
-        String id;
-        String title;
-        String icon;
-        boolean requiresInput;
-        String inputPlaceholder;
-
-        NotificationAction(String id, String title, String icon, boolean requiresInput, String inputPlaceholder) {
-            this.id = id;
-            this.title = title;
-            this.icon = icon;
-            this.requiresInput = requiresInput;
-            this.inputPlaceholder = inputPlaceholder;
+    private static FirebasePluginBitmapTransformer.Target getImageTarget(Context context, String imageType) {
+        if(imageTypeBigPicture.equalsIgnoreCase(imageType)) {
+            return FirebasePluginBitmapTransformer.bigPicture(context);
+        }
+        int shape = FirebasePluginBitmapTransformer.SHAPE_SQUARE;
+        if(imageTypeCircle.equalsIgnoreCase(imageType)) {
+            shape = FirebasePluginBitmapTransformer.SHAPE_CIRCLE;
+        }else if(imageTypeRounded.equalsIgnoreCase(imageType)) {
+            shape = FirebasePluginBitmapTransformer.SHAPE_ROUNDED;
         }
+        return FirebasePluginBitmapTransformer.largeIcon(context, shape);
     }
 
     /**
-     * Parse action buttons from the push payload data
-     * Expected format: data.actions = [{"id":"accept","title":"Accept","icon":"ic_accept"},{"id":"reject","title":"Reject","icon":"ic_reject"}]
+     * Fetches a notification's image and updates the notification with it.
+     * If the process was restarted since the notification was posted, its builder is recovered from the posted notification.
+     * Nothing is done if the notification has since been dismissed.
      */
-    private List<NotificationAction> parseActions(Map<String, String> data) {
-        List<NotificationAction> actions = new ArrayList<>();
-        
-        if (data == null || !data.containsKey("actions")) {
-            return actions;
-        }
-        
-        String actionsJson = data.get("actions");
-        if (actionsJson == null || actionsJson.isEmpty()) {
-            return actions;
+    static class NotificationImageJob implements FirebasePluginJobQueue.Handler {
+        @Override
+        public boolean run(Context context, JSONObject args) throws Exception {
+            int notificationId = args.getInt("notificationId");
+            String url = args.getString("image");
+            String imageType = args.optString("imageType", null);
+
+            Bitmap bitmap = FirebasePluginImageLoader.getInstance(context).loadBlocking(url, getImageTarget(context, imageType), IMAGE_BLOCKING_TIMEOUT_MS);
+            if (bitmap == null) return false;
+
+            NotificationCompat.Builder builder;
+            synchronized (pendingImageBuilders) {
+                builder = pendingImageBuilders.remove(notificationId);
+            }
+            Notification notification = null;
+            if (builder != null) {
+                applyImage(builder, bitmap, imageType);
+                builder.setOnlyAlertOnce(true);
+                notification = builder.build();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                Notification posted = getActiveNotification(context, notificationId);
+                if (posted == null) {
+                    Log.d(TAG, "Notification " + notificationId + " is no longer shown, not attaching image");
+                    return true;
+                }
+                Notification.Builder recovered = Notification.Builder.recoverBuilder(context, posted);
+                if (imageTypeBigPicture.equalsIgnoreCase(imageType)) {
+                    recovered.setStyle(new Notification.BigPictureStyle().bigPicture(bitmap).bigLargeIcon((Bitmap) null));
+                }
+                recovered.setLargeIcon(bitmap);
+                recovered.setOnlyAlertOnce(true);
+                notification = recovered.build();
+            }
+            if (notification != null) {
+                FirebasePluginNotificationPoster.getInstance(context).postUpdate(notificationId, notification);
+                Log.d(TAG, "Updated notification " + notificationId + " with image " + url);
+            }
+            return true;
         }
-        
-        try {
-            JSONArray actionsArray = new JSONArray(actionsJson);
-            Log.d(TAG, "Parsing " + actionsArray.length() + " action buttons");
-            
-            for (int i = 0; i < actionsArray.length(); i++) {
-                JSONObject actionObj = actionsArray.getJSONObject(i);
-                String id = actionObj.optString("id", null);
-                String title = actionObj.optString("title", null);
-                String icon = actionObj.optString("icon", null);
-                boolean requiresInput = actionObj.optBoolean("requiresInput", false);
-                String inputPlaceholder = actionObj.optString("inputPlaceholder", null);
-                
-                if (id != null && title != null) {
-                    actions.add(new NotificationAction(id, title, icon, requiresInput, inputPlaceholder));
-                    Log.d(TAG, "Added action: id=" + id + ", title=" + title + ", icon=" + icon + ", requiresInput=" + requiresInput);
-                } else {
-                    Log.w(TAG, "Skipping action with missing id or title");
+
+        private static Notification getActiveNotification(Context context, int notificationId) {
+            NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            if (notificationManager == null) return null;
+            for (StatusBarNotification active : notificationManager.getActiveNotifications()) {
+                if (active.getId() == notificationId) {
+                    return active.getNotification();
                 }
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing actions JSON", e);
+            return null;
+        }
+    }
+
+    private Spanned fromHtml(String source) {
+        if (source != null)
+            return Html.fromHtml(source);
+        else
+            return null;
+    }
+
+    private void putKVInBundle(String k, String v, Bundle b){
+        if(v != null && !b.containsKey(k)){
+            b.putString(k, v);
         }
-        
-        return actions;
     }
 
     /**
@@ -642,22 +625,23 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
      * Compatible with Android 13+ (API 33+) using FLAG_IMMUTABLE
      */
     private void addActionButtons(NotificationCompat.Builder notificationBuilder, 
-                                   List<NotificationAction> actions, 
-                                   Bundle originalBundle, 
-                                   String notificationId) {
+                                   List<FirebasePluginActionCategoryRegistry.PreparedAction> actions, 
+                                   Bundle intentExtras, 
+                                   int notificationId) {
 
-        for (NotificationAction action : actions) {
-            Bundle actionBundle = new Bundle(originalBundle);
+        for (FirebasePluginActionCategoryRegistry.PreparedAction prepared : actions) {
+            NotificationAction action = prepared.action;
+            Bundle actionBundle = new Bundle(intentExtras);
             actionBundle.putString("action", action.id);
-            actionBundle.putInt("notificationId", notificationId.hashCode());
+            actionBundle.putInt("notificationId", notificationId);
 
-            // Create unique request code to ensure each action gets its own PendingIntent
-            int requestCode = (notificationId + "_" + action.id).hashCode();
+            // Each action needs its own request code, otherwise FLAG_UPDATE_CURRENT overwrites another PendingIntent's extras
+            int requestCode = FirebasePluginNotificationIdAllocator.getInstance(this).nextRequestCode();
             
             PendingIntent actionPendingIntent;
             
-            // For reply and mark_read actions, use BroadcastReceiver (don't open app)
-            if (action.requiresInput || action.id.equals("reply") || action.id.equals("mark_read") || action.id.equals("dismiss")) {
+            // For reply and mark_read actions, and actions routed to HTTP requests, use BroadcastReceiver (don't open app)
+            if (prepared.background || FirebasePluginActionRouter.getInstance(this).isBackground(action.id)) {
                 Intent actionIntent = new Intent(this, FirebaseActionReceiver.class);
                 actionIntent.setAction(FirebaseActionReceiver.ACTION_CLICK);
                 actionIntent.putExtras(actionBundle);
@@ -692,23 +676,13 @@ public class FirebasePluginMessagingService extends FirebaseMessagingService {
                 );
             }
 
-            // Get icon resource if specified
-            int iconResId = 0;
-            if (action.icon != null && !action.icon.isEmpty()) {
-                iconResId = getResources().getIdentifier(action.icon, "drawable", getPackageName());
-            }
-
-            // Add the action to the notification
+            // Add the action to the notification - the icon and RemoteInput are prepared once per action
             NotificationCompat.Action.Builder actionBuilder = 
-                new NotificationCompat.Action.Builder(iconResId, action.title, actionPendingIntent);
+                new NotificationCompat.Action.Builder(prepared.iconResId, action.title, actionPendingIntent);
             
             // Add inline reply if action requires input
-            if (action.requiresInput) {
-                String replyLabel = action.inputPlaceholder != null ? action.inputPlaceholder : "Enter your reply...";
-                RemoteInput remoteInput = new RemoteInput.Builder(FirebaseActionReceiver.KEY_TEXT_REPLY)
-                    .setLabel(replyLabel)
-                    .build();
-                actionBuilder.addRemoteInput(remoteInput);
+            if (prepared.remoteInput != null) {
+                actionBuilder.addRemoteInput(prepared.remoteInput);
                 Log.d(TAG, "Added inline reply to action: " + action.title);
             }
             
@@ -0,0 +1,161 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Allocates collision-free integer IDs for notifications and PendingIntent request codes.
+ * IDs come from a monotonic counter which is persisted by reserving blocks of IDs, so allocating an ID
+ * only writes to storage once per block. External message IDs are mapped to stable notification IDs,
+ * namespaced per channel, so a message re-sent with the same ID replaces its notification rather than
+ * another one. Mappings are persisted (bounded, least recently allocated evicted first) and can be
+ * looked up in reverse to target a notification precisely.
+ */
+public class FirebasePluginNotificationIdAllocator {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String PREFS_NAME = "firebase_notification_ids";
+    private static final String PREFS_KEY_RESERVED = "reserved";
+    private static final String PREFS_KEY_MAPPINGS = "mappings";
+
+    // Keeps allocated IDs clear of the small fixed IDs used elsewhere (e.g. foreground service notifications)
+    private static final int FIRST_ID = 0x100000;
+    private static final int BLOCK_SIZE = 64;
+    private static final int MAX_MAPPINGS = 256;
+
+    private static final String DEFAULT_NAMESPACE = "default";
+
+    private static FirebasePluginNotificationIdAllocator instance = null;
+
+    private final SharedPreferences preferences;
+    private final LinkedHashMap<String, Integer> ids = new LinkedHashMap<String, Integer>();
+    private final Map<Integer, String> keys = new HashMap<Integer, String>();
+    private int next;
+    private int reservedUntil;
+
+    public static synchronized FirebasePluginNotificationIdAllocator getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginNotificationIdAllocator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginNotificationIdAllocator(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        // Start after the last reserved block: IDs unused by a previous process are skipped, never reused
+        next = Math.max(preferences.getInt(PREFS_KEY_RESERVED, FIRST_ID), FIRST_ID);
+        reservedUntil = next;
+        load();
+    }
+
+    /**
+     * @return the notification ID for the given message, allocating one if the message hasn't been seen
+     * @param namespace  channel ID the message is posted to, or null for the default namespace
+     * @param messageId  external ID of the message
+     */
+    public synchronized int idFor(String namespace, String messageId) {
+        String key = (namespace != null ? namespace : DEFAULT_NAMESPACE) + ":" + messageId;
+        Integer id = ids.remove(key);
+        if (id == null) {
+            id = allocate();
+            keys.put(id, key);
+            if (ids.size() >= MAX_MAPPINGS) {
+                Iterator<Map.Entry<String, Integer>> it = ids.entrySet().iterator();
+                keys.remove(it.next().getValue());
+                it.remove();
+            }
+        }
+        ids.put(key, id);
+        save();
+        return id;
+    }
+
+    /**
+     * @return a request code which is not used by any other PendingIntent created by the plugin
+     */
+    public synchronized int nextRequestCode() {
+        return allocate();
+    }
+
+    /**
+     * @return the "namespace:messageId" key the given notification ID was allocated for, or null if unknown
+     */
+    public synchronized String lookup(int id) {
+        return keys.get(id);
+    }
+
+    /**
+     * Forgets the mapping of a notification which has been dismissed or cancelled.
+     */
+    public synchronized void release(int id) {
+        String key = keys.remove(id);
+        if (key != null) {
+            ids.remove(key);
+            save();
+        }
+    }
+
+    /**
+     * Forgets all mappings, e.g. after all notifications have been cancelled.
+     */
+    public synchronized void releaseAll() {
+        ids.clear();
+        keys.clear();
+        save();
+    }
+
+    private int allocate() {
+        int id;
+        do {
+            if (next == Integer.MAX_VALUE) {
+                next = FIRST_ID;
+                reservedUntil = FIRST_ID;
+            }
+            id = next++;
+        } while (keys.containsKey(id));
+        if (next > reservedUntil) {
+            reservedUntil = next > Integer.MAX_VALUE - BLOCK_SIZE ? Integer.MAX_VALUE : next + BLOCK_SIZE;
+            preferences.edit().putInt(PREFS_KEY_RESERVED, reservedUntil).apply();
+        }
+        return id;
+    }
+
+    private void load() {
+        String stored = preferences.getString(PREFS_KEY_MAPPINGS, null);
+        if (stored == null) return;
+        try {
+            JSONArray mappings = new JSONArray(stored);
+            for (int i = 0; i < mappings.length(); i++) {
+                JSONArray mapping = mappings.getJSONArray(i);
+                String key = mapping.getString(0);
+                int id = mapping.getInt(1);
+                ids.put(key, id);
+                keys.put(id, key);
+            }
+            Log.d(TAG, "FirebasePluginNotificationIdAllocator: Loaded " + ids.size() + " notification ID mappings");
+        } catch (JSONException e) {
+            Log.w(TAG, "FirebasePluginNotificationIdAllocator: Discarding unreadable mappings", e);
+            ids.clear();
+            keys.clear();
+            preferences.edit().remove(PREFS_KEY_MAPPINGS).apply();
+        }
+    }
+
+    private void save() {
+        JSONArray mappings = new JSONArray();
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            mappings.put(new JSONArray().put(entry.getKey()).put(entry.getValue().intValue()));
+        }
+        preferences.edit().putString(PREFS_KEY_MAPPINGS, mappings.toString()).apply();
+    }
+}
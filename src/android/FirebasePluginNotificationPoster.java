@@ -0,0 +1,226 @@
+package org.apache.cordova.firebase;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posting stage in front of NotificationManager.notify().
+ * Android silently drops notifications posted faster than its per-app enqueue rate, so posts are
+ * metered by a token bucket. Posts over the rate are coalesced per group (collapse key or channel)
+ * and a deferred flush posts either the single held notification or an InboxStyle summary of the group.
+ */
+public class FirebasePluginNotificationPoster {
+
+    private static final String TAG = "FirebasePlugin";
+
+    // Android's NotificationManagerService enqueue limit is 5 per second per package
+    private static final int BUCKET_CAPACITY = 5;
+    private static final double TOKENS_PER_MS = 5.0 / 1000;
+    private static final int MAX_GROUPS = 20;
+    private static final int MAX_LINES_PER_GROUP = 50;
+    private static final int INBOX_STYLE_MAX_LINES = 6;
+
+    private static FirebasePluginNotificationPoster instance = null;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, CoalescedGroup> groups = new LinkedHashMap<String, CoalescedGroup>();
+    private final Map<Integer, Notification> deferredUpdates = new LinkedHashMap<Integer, Notification>();
+
+    private double tokens = BUCKET_CAPACITY;
+    private long lastRefill = SystemClock.elapsedRealtime();
+    private boolean flushScheduled = false;
+
+    private long postedCount = 0;
+    private long coalescedCount = 0;
+    private long droppedCount = 0;
+    private long summaryCount = 0;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private static class CoalescedGroup {
+        final String channelId;
+        final List<CharSequence> lines = new ArrayList<CharSequence>();
+        int count = 0;
+        int latestId;
+        Notification latest;
+
+        CoalescedGroup(String channelId) {
+            this.channelId = channelId;
+        }
+    }
+
+    public static synchronized FirebasePluginNotificationPoster getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginNotificationPoster(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginNotificationPoster(Context context) {
+        this.context = context;
+        this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    /**
+     * Posts a new notification, or coalesces it into its group if the post rate has been exceeded.
+     *
+     * @param groupKey  collapse key or channel ID used to group coalesced notifications
+     * @param title     title shown on the notification's line in a summary
+     * @param text      text shown on the notification's line in a summary
+     */
+    public synchronized void post(int id, Notification notification, String groupKey, String channelId, CharSequence title, CharSequence text) {
+        if (tryAcquire()) {
+            notify(id, notification);
+            return;
+        }
+
+        CoalescedGroup group = groups.get(groupKey);
+        if (group == null) {
+            if (groups.size() >= MAX_GROUPS) {
+                droppedCount++;
+                Log.w(TAG, "FirebasePluginNotificationPoster: Too many coalesced groups, dropped notification " + id);
+                return;
+            }
+            group = new CoalescedGroup(channelId);
+            groups.put(groupKey, group);
+        }
+        group.count++;
+        group.latestId = id;
+        group.latest = notification;
+        if (group.lines.size() >= MAX_LINES_PER_GROUP) {
+            group.lines.remove(0);
+        }
+        group.lines.add(title != null && text != null ? title + ": " + text : (title != null ? title : text));
+        coalescedCount++;
+        Log.d(TAG, "FirebasePluginNotificationPoster: Rate limited, coalesced notification " + id + " into group " + groupKey + " (" + group.count + ")");
+        scheduleFlush();
+    }
+
+    /**
+     * Re-posts an already displayed notification. If the rate has been exceeded only the final state is
+     * posted once tokens become available; if the notification is still held for coalescing the held copy is replaced.
+     */
+    public synchronized void postUpdate(int id, Notification notification) {
+        for (CoalescedGroup group : groups.values()) {
+            if (group.latestId == id) {
+                group.latest = notification;
+                return;
+            }
+        }
+        if (deferredUpdates.isEmpty() && tryAcquire()) {
+            notify(id, notification);
+            return;
+        }
+        deferredUpdates.put(id, notification);
+        scheduleFlush();
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("posted", postedCount);
+        metrics.put("coalesced", coalescedCount);
+        metrics.put("dropped", droppedCount);
+        metrics.put("summaries", summaryCount);
+        metrics.put("pendingGroups", groups.size());
+        return metrics;
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+
+        Iterator<Map.Entry<Integer, Notification>> updates = deferredUpdates.entrySet().iterator();
+        while (updates.hasNext() && tryAcquire()) {
+            Map.Entry<Integer, Notification> update = updates.next();
+            notify(update.getKey(), update.getValue());
+            updates.remove();
+        }
+
+        Iterator<Map.Entry<String, CoalescedGroup>> it = groups.entrySet().iterator();
+        while (it.hasNext() && tryAcquire()) {
+            Map.Entry<String, CoalescedGroup> entry = it.next();
+            CoalescedGroup group = entry.getValue();
+            if (group.count == 1) {
+                notify(group.latestId, group.latest);
+            } else {
+                notify(FirebasePluginNotificationIdAllocator.getInstance(context).idFor(group.channelId, "summary:" + entry.getKey()), buildSummary(group));
+                summaryCount++;
+            }
+            it.remove();
+        }
+
+        if (!groups.isEmpty() || !deferredUpdates.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    private Notification buildSummary(CoalescedGroup group) {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        int start = Math.max(0, group.lines.size() - INBOX_STYLE_MAX_LINES);
+        for (int i = group.lines.size() - 1; i >= start; i--) {
+            style.addLine(group.lines.get(i));
+        }
+        int more = group.count - (group.lines.size() - start);
+        if (more > 0) {
+            style.setSummaryText("+" + more + " more");
+        }
+        CharSequence title = group.count + " new notifications";
+        style.setBigContentTitle(title);
+
+        return new NotificationCompat.Builder(context, group.channelId)
+                .setSmallIcon(group.latest.icon)
+                .setContentTitle(title)
+                .setContentText(group.lines.get(group.lines.size() - 1))
+                .setStyle(style)
+                .setNumber(group.count)
+                .setContentIntent(group.latest.contentIntent)
+                .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                .setAutoCancel(true)
+                .build();
+    }
+
+    private void notify(int id, Notification notification) {
+        notificationManager.notify(id, notification);
+        postedCount++;
+    }
+
+    private boolean tryAcquire() {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(BUCKET_CAPACITY, tokens + (now - lastRefill) * TOKENS_PER_MS);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        long delay = (long) Math.ceil((1 - tokens) / TOKENS_PER_MS);
+        handler.postDelayed(flushRunnable, Math.max(delay, 1));
+    }
+}
@@ -0,0 +1,299 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Keyed store of notification payloads, so the PendingIntents of a notification carry only a compact key
+ * rather than each copying the whole message Bundle through binder.
+ * Payloads are written to disk so a tap after the process has been killed can still be rehydrated,
+ * with the most recent kept in memory. They are evicted when the notification is tapped or dismissed,
+ * and otherwise expire after a fixed TTL, with the number stored bounded.
+ * The credentials a payload carries for its notification actions are encrypted before it is written (see
+ * FirebasePluginCredentials), and the store is cleared when the user signs out.
+ */
+public class FirebasePluginPayloadStore {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String EXTRA_PAYLOAD_KEY = "_payloadKey";
+
+    private static final String STORE_DIR = "firebase_notification_payloads";
+    private static final long TTL_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int MAX_ENTRIES = 128;
+    private static final int MAX_MEMORY_ENTRIES = 16;
+
+    // Keys come from intent extras, which an exported activity can receive from anywhere, so only accept our own format
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{32}");
+
+    // Fields of a payload are passed on to the app's launch intent up to these sizes; larger ones are stored and
+    // referenced by key, so the launch intent stays well within the binder transaction limit
+    private static final int MAX_LAUNCH_EXTRA_CHARS = 1024;
+    private static final int MAX_LAUNCH_EXTRAS_CHARS = 16 * 1024;
+
+    private static FirebasePluginPayloadStore instance = null;
+
+    private final File storeDir;
+    private final LinkedHashMap<String, Bundle> memory = new LinkedHashMap<String, Bundle>(MAX_MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bundle> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    public static synchronized FirebasePluginPayloadStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginPayloadStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginPayloadStore(Context context) {
+        storeDir = new File(context.getFilesDir(), STORE_DIR);
+        if (!storeDir.exists() && !storeDir.mkdirs()) {
+            Log.w(TAG, "FirebasePluginPayloadStore: Unable to create store at " + storeDir);
+        }
+    }
+
+    /**
+     * Stores a payload.
+     * @return the key to reference it by, or null if it couldn't be stored, in which case the payload should be passed directly
+     */
+    public String put(Bundle payload) {
+        byte[] encoded;
+        try {
+            // Outside the lock, as the Keystore may be slow
+            Bundle persisted = FirebasePluginCredentials.sealFields(payload);
+            if (persisted == null) {
+                Log.w(TAG, "FirebasePluginPayloadStore: Unable to encrypt payload credentials, not storing it");
+                return null;
+            }
+            encoded = FirebasePluginBundleCodec.encode(persisted);
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginPayloadStore: Unable to encode payload", e);
+            return null;
+        }
+        return put(payload, encoded);
+    }
+
+    private synchronized String put(Bundle payload, byte[] encoded) {
+        String key = UUID.randomUUID().toString().replace("-", "");
+        File file = new File(storeDir, key);
+        File tmpFile = new File(storeDir, key + ".tmp");
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(tmpFile);
+            output.write(encoded);
+            output.close();
+            output = null;
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to move payload into store");
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginPayloadStore: Unable to store payload", e);
+            tmpFile.delete();
+            return null;
+        } finally {
+            if (output != null) {
+                try { output.close(); } catch (IOException ignored) {}
+            }
+        }
+        memory.put(key, new Bundle(payload));
+        trim();
+        return key;
+    }
+
+    /**
+     * @return a copy of the stored payload, or null if it doesn't exist or has expired
+     */
+    public Bundle get(String key) {
+        if (!isValidKey(key)) return null;
+        Bundle payload;
+        synchronized (this) {
+            payload = memory.get(key);
+            if (payload != null) return new Bundle(payload);
+            payload = read(key);
+        }
+        // Outside the lock, as the Keystore may be slow
+        return payload != null ? FirebasePluginCredentials.openFields(payload) : null;
+    }
+
+    private Bundle read(String key) {
+        File file = new File(storeDir, key);
+        if (!file.exists()) return null;
+        if (System.currentTimeMillis() - file.lastModified() > TTL_MS) {
+            file.delete();
+            return null;
+        }
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < bytes.length && (read = input.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+            return FirebasePluginBundleCodec.decode(bytes);
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginPayloadStore: Unable to read payload " + key, e);
+            return null;
+        } finally {
+            if (input != null) {
+                try { input.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    public synchronized void remove(String key) {
+        if (!isValidKey(key)) return;
+        memory.remove(key);
+        new File(storeDir, key).delete();
+    }
+
+    /**
+     * Removes every payload, e.g. because the user they were sent to has signed out.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        File[] files = storeDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+        Log.d(TAG, "FirebasePluginPayloadStore: Cleared " + files.length + " stored payloads");
+    }
+
+    /**
+     * Restores the full payload referenced by the given intent extras, merged with the extras themselves.
+     * Extras without a payload key are returned as they are.
+     * @param evict true to remove the payload from the store, i.e. because its notification has been tapped
+     */
+    public static Bundle rehydrate(Context context, Bundle extras, boolean evict) {
+        if (extras == null) return new Bundle();
+        String key = extras.getString(EXTRA_PAYLOAD_KEY);
+        if (key == null) return extras;
+
+        FirebasePluginPayloadStore store = getInstance(context);
+        Bundle data = store.get(key);
+        if (evict) {
+            store.remove(key);
+        }
+        if (data == null) {
+            Log.w(TAG, "FirebasePluginPayloadStore: Payload " + key + " has expired");
+            data = new Bundle();
+        }
+        extras.remove(EXTRA_PAYLOAD_KEY);
+        data.putAll(extras);
+        return data;
+    }
+
+    /**
+     * Builds the extras of the app's launch intent from a payload.
+     * Strings and primitives are passed on as they are, except those too large to send through binder, which are
+     * stored and referenced by EXTRA_PAYLOAD_KEY; the plugin restores them with rehydrate() before the message is
+     * delivered to JavaScript.
+     * @return the fields of a payload to pass to the app's launch intent
+     */
+    public static Bundle launchExtras(Context context, Bundle data) {
+        Bundle extras = new Bundle();
+        Bundle oversized = new Bundle();
+        int size = 0;
+        for (String key : data.keySet()) {
+            Object value = data.get(key);
+            int valueSize = launchExtraSize(value);
+            if (valueSize < 0) continue;
+            if (valueSize <= MAX_LAUNCH_EXTRA_CHARS && size + key.length() + valueSize <= MAX_LAUNCH_EXTRAS_CHARS) {
+                size += key.length() + valueSize;
+                putLaunchExtra(extras, key, value);
+            } else {
+                putLaunchExtra(oversized, key, value);
+            }
+        }
+        if (!oversized.isEmpty()) {
+            String payloadKey = getInstance(context).put(oversized);
+            if (payloadKey != null) {
+                extras.putString(EXTRA_PAYLOAD_KEY, payloadKey);
+            } else {
+                Log.w(TAG, "FirebasePluginPayloadStore: Unable to store oversized launch extras, omitting " + oversized.keySet());
+            }
+        }
+        return extras;
+    }
+
+    /**
+     * @return the approximate size of a launch extra, or -1 if it isn't a type passed on to the launch intent
+     */
+    private static int launchExtraSize(Object value) {
+        if (value instanceof String) return ((String) value).length();
+        if (value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Float) return 8;
+        return -1;
+    }
+
+    private static void putLaunchExtra(Bundle extras, String key, Object value) {
+        if (value instanceof String) {
+            extras.putString(key, (String) value);
+        } else if (value instanceof Boolean) {
+            extras.putBoolean(key, (Boolean) value);
+        } else if (value instanceof Integer) {
+            extras.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            extras.putLong(key, (Long) value);
+        } else if (value instanceof Double) {
+            extras.putDouble(key, (Double) value);
+        } else if (value instanceof Float) {
+            extras.putFloat(key, (Float) value);
+        }
+    }
+
+    /**
+     * Deletes expired payloads and, if there are still too many, the oldest ones.
+     */
+    private void trim() {
+        File[] files = storeDir.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        List<File> live = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (now - file.lastModified() > TTL_MS) {
+                memory.remove(file.getName());
+                file.delete();
+            } else {
+                live.add(file);
+            }
+        }
+        if (live.size() <= MAX_ENTRIES) return;
+
+        Collections.sort(live, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < live.size() - MAX_ENTRIES; i++) {
+            memory.remove(live.get(i).getName());
+            live.get(i).delete();
+        }
+    }
+
+    private static boolean isValidKey(String key) {
+        return key != null && KEY_PATTERN.matcher(key).matches();
+    }
+}
@@ -0,0 +1,193 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watchdog for the time budget FCM gives onMessageReceived().
+ * Each processing stage of a message is timed and, once the configured fraction of the budget has been used,
+ * callers are told to skip optional work (e.g. post without fetching the image).
+ * Stage latencies, skipped stages and over-budget messages are recorded across messages as metrics.
+ *
+ * The budget and degrade threshold are read from the ANDROID_MESSAGING_PROCESSING_BUDGET_MS and
+ * ANDROID_MESSAGING_DEGRADE_THRESHOLD plugin variables via manifest meta-data.
+ */
+public class FirebasePluginProcessingBudget {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String STAGE_RECEIVERS = "receivers";
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_CHANNEL = "channel";
+    public static final String STAGE_IMAGE = "image";
+    public static final String STAGE_BUILD = "build";
+    public static final String STAGE_NOTIFY = "notify";
+    private static final String STAGE_TOTAL = "total";
+
+    static final String META_DATA_BUDGET_MS = "firebase_messaging_processing_budget_ms";
+    static final String META_DATA_DEGRADE_THRESHOLD = "firebase_messaging_degrade_threshold";
+
+    // FCM allows high priority messages around 10 seconds of processing
+    private static final long DEFAULT_BUDGET_MS = 10000;
+    private static final double DEFAULT_DEGRADE_THRESHOLD = 0.5;
+
+    private static volatile long budgetMs = -1;
+    private static volatile double degradeThreshold = DEFAULT_DEGRADE_THRESHOLD;
+
+    private static final ConcurrentHashMap<String, FirebasePluginLatencyHistogram> stageLatency = new ConcurrentHashMap<String, FirebasePluginLatencyHistogram>();
+    private static final ConcurrentHashMap<String, AtomicLong> stageSkips = new ConcurrentHashMap<String, AtomicLong>();
+    private static final AtomicLong overBudgetCount = new AtomicLong();
+
+    private final long start;
+    private String stage;
+    private long stageStart;
+
+    public static FirebasePluginProcessingBudget start(Context context) {
+        if (budgetMs < 0) {
+            loadConfig(context);
+        }
+        return new FirebasePluginProcessingBudget();
+    }
+
+    private FirebasePluginProcessingBudget() {
+        start = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Ends the current stage, if any, and starts timing the given one.
+     */
+    public void begin(String stage) {
+        end();
+        this.stage = stage;
+        this.stageStart = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Ends the current stage, if any.
+     */
+    public void end() {
+        if (stage == null) return;
+        histogram(stage).record(SystemClock.elapsedRealtime() - stageStart);
+        stage = null;
+    }
+
+    public long elapsedMs() {
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * @return true if enough of the budget has been used that optional stages should be skipped
+     */
+    public boolean shouldDegrade() {
+        return elapsedMs() >= budgetMs * degradeThreshold;
+    }
+
+    /**
+     * Returns whether the given optional stage should run, recording a skip if it shouldn't.
+     */
+    public boolean allowOptional(String stage) {
+        if (!shouldDegrade()) return true;
+        counter(stage).incrementAndGet();
+        Log.w(TAG, "FirebasePluginProcessingBudget: Skipping " + stage + " after " + elapsedMs() + "ms of " + budgetMs + "ms budget");
+        return false;
+    }
+
+    /**
+     * Ends timing of the message.
+     */
+    public void finish() {
+        end();
+        long elapsed = elapsedMs();
+        histogram(STAGE_TOTAL).record(elapsed);
+        if (elapsed > budgetMs) {
+            overBudgetCount.incrementAndGet();
+            Log.w(TAG, "FirebasePluginProcessingBudget: Message processing took " + elapsed + "ms, over the " + budgetMs + "ms budget");
+        }
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("budgetMs", budgetMs < 0 ? DEFAULT_BUDGET_MS : budgetMs);
+        metrics.put("degradeThreshold", degradeThreshold);
+        metrics.put("overBudget", overBudgetCount.get());
+        JSONObject stages = new JSONObject();
+        for (Map.Entry<String, FirebasePluginLatencyHistogram> entry : stageLatency.entrySet()) {
+            JSONObject stage = entry.getValue().toJson();
+            AtomicLong skips = stageSkips.get(entry.getKey());
+            stage.put("skipped", skips != null ? skips.get() : 0);
+            stages.put(entry.getKey(), stage);
+        }
+        for (Map.Entry<String, AtomicLong> entry : stageSkips.entrySet()) {
+            if (!stages.has(entry.getKey())) {
+                stages.put(entry.getKey(), new JSONObject().put("count", 0).put("skipped", entry.getValue().get()));
+            }
+        }
+        metrics.put("stages", stages);
+        return metrics;
+    }
+
+    private static FirebasePluginLatencyHistogram histogram(String stage) {
+        FirebasePluginLatencyHistogram histogram = stageLatency.get(stage);
+        if (histogram == null) {
+            stageLatency.putIfAbsent(stage, new FirebasePluginLatencyHistogram());
+            histogram = stageLatency.get(stage);
+        }
+        return histogram;
+    }
+
+    private static AtomicLong counter(String stage) {
+        AtomicLong counter = stageSkips.get(stage);
+        if (counter == null) {
+            stageSkips.putIfAbsent(stage, new AtomicLong());
+            counter = stageSkips.get(stage);
+        }
+        return counter;
+    }
+
+    private static synchronized void loadConfig(Context context) {
+        if (budgetMs >= 0) return;
+        long budget = DEFAULT_BUDGET_MS;
+        double threshold = DEFAULT_DEGRADE_THRESHOLD;
+        try {
+            ApplicationInfo info = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            Bundle metaData = info.metaData;
+            if (metaData != null) {
+                budget = (long) getNumber(metaData, META_DATA_BUDGET_MS, budget);
+                threshold = getNumber(metaData, META_DATA_DEGRADE_THRESHOLD, threshold);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginProcessingBudget: Unable to read configuration, using defaults", e);
+        }
+        degradeThreshold = threshold > 0 && threshold <= 1 ? threshold : DEFAULT_DEGRADE_THRESHOLD;
+        budgetMs = budget > 0 ? budget : DEFAULT_BUDGET_MS;
+        Log.d(TAG, "FirebasePluginProcessingBudget: budget=" + budgetMs + "ms; degradeThreshold=" + degradeThreshold);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static double getNumber(Bundle metaData, String name, double defaultValue) {
+        // Manifest meta-data values are typed by how they parse: "10000" is an Integer, "0.5" a Float
+        Object value = metaData.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "FirebasePluginProcessingBudget: Invalid " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+}
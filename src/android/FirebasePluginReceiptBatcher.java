@@ -0,0 +1,401 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Batches mark-read and delivery receipts so they are sent to the API as one request rather than one per message.
+ * Receipts are accumulated for a short window, or until a batch is full, then posted as a JSON array to the batch
+ * endpoint (ANDROID_RECEIPT_BATCH_PATH, relative to the message's apiUrl). If the server doesn't have the batch
+ * endpoint (404), read receipts fall back to individual mark-read requests.
+ * Pending receipts are persisted, encrypted as they hold auth tokens, so they survive the process being killed,
+ * and are flushed when the app goes to the background. Batches which fail are retried through FirebasePluginJobQueue.
+ */
+public class FirebasePluginReceiptBatcher {
+
+    private static final String TAG = "FirebasePlugin";
+
+    public static final String TYPE_READ = "read";
+    public static final String TYPE_DELIVERED = "delivered";
+
+    static final String META_DATA_BATCH_PATH = "firebase_receipt_batch_path";
+    static final String META_DATA_DELIVERY_RECEIPTS = "firebase_messaging_delivery_receipts";
+
+    private static final String DEFAULT_BATCH_PATH = "api/messages/receipts";
+
+    private static final long BATCH_WINDOW_MS = 2000;
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final int MAX_PENDING = 500;
+
+    private static final String PREFS_NAME = "firebase_receipts";
+    private static final String PREFS_KEY_PENDING = "pending";
+
+    /**
+     * Sends a batch of receipts which failed to send, as a job queue job.
+     * Args are the apiUrl, authToken and receipts of the batch.
+     */
+    static class BatchJob implements FirebasePluginJobQueue.Handler {
+        @Override
+        public boolean run(Context context, JSONObject args) throws Exception {
+            return getInstance(context).sendBatch(args.getString("apiUrl"), args.getString("authToken"), args.getJSONArray("receipts"));
+        }
+    }
+
+    private static FirebasePluginReceiptBatcher instance = null;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final String batchPath;
+    private final boolean deliveryReceiptsEnabled;
+    private final List<JSONObject> pending = new ArrayList<JSONObject>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FirebasePluginReceiptBatcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ScheduledFuture<?> scheduledFlush;
+
+    // API URLs whose batch endpoint returned 404, so receipts are sent individually for the rest of the process
+    private final Set<String> batchUnsupported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final FirebasePluginLatencyHistogram latency = new FirebasePluginLatencyHistogram();
+    private long batchCount = 0;
+    private long batchedReceiptCount = 0;
+    private long maxBatchSize = 0;
+    private long individualCount = 0;
+    private long retriedCount = 0;
+    private long droppedCount = 0;
+
+    public static synchronized FirebasePluginReceiptBatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginReceiptBatcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginReceiptBatcher(Context context) {
+        this.context = context;
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        String path = DEFAULT_BATCH_PATH;
+        boolean deliveryReceipts = false;
+        try {
+            ApplicationInfo info = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            Bundle metaData = info.metaData;
+            if (metaData != null) {
+                String configuredPath = metaData.getString(META_DATA_BATCH_PATH);
+                if (configuredPath != null && !configuredPath.isEmpty()) {
+                    path = configuredPath;
+                }
+                deliveryReceipts = "true".equals(String.valueOf(metaData.get(META_DATA_DELIVERY_RECEIPTS)));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginReceiptBatcher: Unable to read configuration, using defaults", e);
+        }
+        batchPath = path;
+        deliveryReceiptsEnabled = deliveryReceipts;
+
+        // Send receipts left over from a previous process
+        String persisted = preferences.getString(PREFS_KEY_PENDING, null);
+        if (persisted != null) {
+            try {
+                String plaintext = FirebasePluginCredentials.open(persisted);
+                if (plaintext == null) {
+                    throw new JSONException("Unable to decrypt pending receipts");
+                }
+                JSONArray receipts = new JSONArray(plaintext);
+                for (int i = 0; i < receipts.length(); i++) {
+                    pending.add(receipts.getJSONObject(i));
+                }
+            } catch (JSONException e) {
+                Log.w(TAG, "FirebasePluginReceiptBatcher: Discarding unreadable pending receipts", e);
+                preferences.edit().remove(PREFS_KEY_PENDING).apply();
+            }
+            if (!pending.isEmpty()) {
+                Log.d(TAG, "FirebasePluginReceiptBatcher: Restored " + pending.size() + " pending receipts");
+                scheduleFlush(0);
+            }
+        }
+    }
+
+    /**
+     * Adds a receipt to the current batch.
+     * @param type TYPE_READ or TYPE_DELIVERED
+     */
+    public synchronized void add(String type, String messageId, String apiUrl, String authToken) {
+        JSONObject receipt = new JSONObject();
+        try {
+            receipt.put("type", type);
+            receipt.put("messageId", messageId);
+            receipt.put("apiUrl", apiUrl);
+            receipt.put("authToken", authToken);
+            receipt.put("at", System.currentTimeMillis());
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return;
+        }
+        pending.add(receipt);
+        if (pending.size() > MAX_PENDING) {
+            pending.remove(0);
+            droppedCount++;
+        }
+        persist();
+        scheduleFlush(pending.size() >= MAX_BATCH_SIZE ? 0 : BATCH_WINDOW_MS);
+    }
+
+    /**
+     * Adds a delivery receipt for a received message if they are enabled and the message identifies where to send it.
+     */
+    public void onMessageDelivered(RemoteMessage remoteMessage) {
+        if (!deliveryReceiptsEnabled) return;
+        Map<String, String> data = remoteMessage.getData();
+        String messageId = data.get("messageId");
+        String apiUrl = data.get("apiUrl");
+        String authToken = data.get("authToken");
+        if (messageId != null && apiUrl != null && authToken != null) {
+            add(TYPE_DELIVERED, messageId, apiUrl, authToken);
+        }
+    }
+
+    /**
+     * Sends pending receipts now rather than waiting for the batch window, e.g. because the app is going to the background.
+     */
+    public synchronized void flush() {
+        if (!pending.isEmpty()) {
+            scheduleFlush(0);
+        }
+    }
+
+    /**
+     * Discards pending receipts, e.g. because the user has signed out so their auth tokens are no longer valid.
+     */
+    public synchronized void clear() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        droppedCount += pending.size();
+        pending.clear();
+        persist();
+    }
+
+    public synchronized JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("pending", pending.size());
+        metrics.put("batches", batchCount);
+        metrics.put("meanBatchSize", batchCount > 0 ? (double) batchedReceiptCount / batchCount : 0);
+        metrics.put("maxBatchSize", maxBatchSize);
+        metrics.put("individual", individualCount);
+        metrics.put("retried", retriedCount);
+        metrics.put("dropped", droppedCount);
+        metrics.put("latency", latency.toJson());
+        return metrics;
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (scheduledFlush != null) {
+            if (delayMs > 0) return;
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                sendPending();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPending() {
+        List<JSONObject> receipts;
+        synchronized (this) {
+            scheduledFlush = null;
+            receipts = new ArrayList<JSONObject>(pending);
+        }
+        if (receipts.isEmpty()) return;
+
+        // Receipts are sent to the API of the message they belong to, with its credentials
+        Map<String, List<JSONObject>> batches = new LinkedHashMap<String, List<JSONObject>>();
+        for (JSONObject receipt : receipts) {
+            String key = receipt.optString("apiUrl") + "\n" + receipt.optString("authToken");
+            List<JSONObject> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<JSONObject>();
+                batches.put(key, batch);
+            }
+            batch.add(receipt);
+        }
+
+        for (List<JSONObject> group : batches.values()) {
+            String apiUrl = group.get(0).optString("apiUrl");
+            String authToken = group.get(0).optString("authToken");
+            for (int start = 0; start < group.size(); start += MAX_BATCH_SIZE) {
+                JSONArray batch = new JSONArray();
+                for (JSONObject receipt : group.subList(start, Math.min(start + MAX_BATCH_SIZE, group.size()))) {
+                    batch.put(toPayload(receipt));
+                }
+                if (!sendBatch(apiUrl, authToken, batch)) {
+                    retryLater(apiUrl, authToken, batch);
+                }
+            }
+        }
+
+        synchronized (this) {
+            // Receipts added while sending stay pending
+            pending.removeAll(receipts);
+            persist();
+        }
+    }
+
+    /**
+     * @return false if the batch failed in a way that is worth retrying
+     */
+    boolean sendBatch(String apiUrl, String authToken, JSONArray receipts) {
+        if (batchUnsupported.contains(apiUrl)) {
+            return sendIndividually(apiUrl, authToken, receipts);
+        }
+        long start = SystemClock.elapsedRealtime();
+        Request request = FirebasePluginHttpClient.postJson(apiUrl + batchPath, receipts)
+                .header("X-Auth-Token", authToken)
+                .build();
+        Response response = null;
+        try {
+            response = FirebasePluginHttpClient.getInstance(context).send(request);
+            int responseCode = response.code();
+            if (response.isSuccessful()) {
+                latency.record(SystemClock.elapsedRealtime() - start);
+                synchronized (this) {
+                    batchCount++;
+                    batchedReceiptCount += receipts.length();
+                    maxBatchSize = Math.max(maxBatchSize, receipts.length());
+                }
+                Log.d(TAG, "FirebasePluginReceiptBatcher: Sent batch of " + receipts.length() + " receipts");
+                return true;
+            } else if (responseCode == 404) {
+                Log.w(TAG, "FirebasePluginReceiptBatcher: Batch endpoint not found, sending receipts individually");
+                batchUnsupported.add(apiUrl);
+                return sendIndividually(apiUrl, authToken, receipts);
+            } else if (responseCode >= 500) {
+                Log.e(TAG, "FirebasePluginReceiptBatcher: Server returned error: " + responseCode + ", will retry");
+                return false;
+            } else {
+                Log.e(TAG, "FirebasePluginReceiptBatcher: Server returned error: " + responseCode + ", dropping " + receipts.length() + " receipts");
+                synchronized (this) {
+                    droppedCount += receipts.length();
+                }
+                return true;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "FirebasePluginReceiptBatcher: Failed to send batch, will retry", e);
+            return false;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Sends read receipts one at a time to the mark-read endpoint; there is no individual endpoint for delivery receipts,
+     * so they are dropped. Read receipts which fail are put in the outbox individually, which retries them with backoff
+     * through sendReadReceipt() rather than adding them back to a batch.
+     */
+    private boolean sendIndividually(String apiUrl, String authToken, JSONArray receipts) {
+        for (int i = 0; i < receipts.length(); i++) {
+            JSONObject receipt = receipts.optJSONObject(i);
+            if (receipt == null) continue;
+            String messageId = receipt.optString("messageId");
+            if (!TYPE_READ.equals(receipt.optString("type"))) {
+                synchronized (this) {
+                    droppedCount++;
+                }
+                continue;
+            }
+            synchronized (this) {
+                individualCount++;
+            }
+            if (!FirebaseHttpService.sendReadReceipt(context, apiUrl, authToken, messageId)) {
+                Bundle action = new Bundle();
+                action.putString("action", "mark_read");
+                action.putString("messageId", messageId);
+                action.putString("apiUrl", apiUrl);
+                action.putString("authToken", authToken);
+                action.putString(FirebaseHttpService.EXTRA_IDEMPOTENCY_KEY, "read:" + messageId);
+                action.putString(FirebaseHttpService.EXTRA_QUIET, "true");
+                FirebaseHttpService.enqueueAction(context, action);
+            }
+        }
+        return true;
+    }
+
+    private void retryLater(String apiUrl, String authToken, JSONArray receipts) {
+        try {
+            JSONObject args = new JSONObject();
+            args.put("apiUrl", apiUrl);
+            args.put("authToken", authToken);
+            args.put("receipts", receipts);
+            FirebasePluginJobQueue.getInstance(context).enqueue(FirebasePluginJobQueue.TYPE_RECEIPT_BATCH, args, FirebasePluginJobQueue.CONSTRAINT_NETWORK);
+            synchronized (this) {
+                retriedCount += receipts.length();
+            }
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+    }
+
+    /**
+     * @return the receipt as sent to the API, i.e. without where to send it
+     */
+    private static JSONObject toPayload(JSONObject receipt) {
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("type", receipt.optString("type"));
+            payload.put("messageId", receipt.optString("messageId"));
+            payload.put("at", receipt.optLong("at"));
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+        return payload;
+    }
+
+    private void persist() {
+        String sealed = pending.isEmpty() ? null : FirebasePluginCredentials.seal(new JSONArray(pending).toString());
+        if (sealed == null) {
+            if (!pending.isEmpty()) {
+                Log.w(TAG, "FirebasePluginReceiptBatcher: Unable to encrypt pending receipts, keeping them in memory only");
+            }
+            preferences.edit().remove(PREFS_KEY_PENDING).apply();
+        } else {
+            preferences.edit().putString(PREFS_KEY_PENDING, sealed).apply();
+        }
+    }
+}
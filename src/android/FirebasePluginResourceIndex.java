@@ -0,0 +1,171 @@
+package org.apache.cordova.firebase;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide index of the resources used to render notifications.
+ * Resource names are resolved with getIdentifier() at most once per configuration and large icon
+ * bitmaps are decoded once, so rendering a notification does no reflection or decoding in steady state.
+ * The index is rebuilt lazily when the configuration (e.g. locale or density) changes.
+ */
+public class FirebasePluginResourceIndex {
+
+    private static final String TAG = "FirebasePlugin";
+
+    private static final String TYPE_DRAWABLE = "drawable";
+    private static final String TYPE_COLOR = "color";
+    private static final String TYPE_RAW = "raw";
+    private static final String TYPE_STRING = "string";
+
+    // Bounds the maps against arbitrary names arriving in payloads; names beyond this are resolved uncached
+    private static final int MAX_ENTRIES_PER_TYPE = 256;
+
+    static final String launcherForegroundIconName = "ic_launcher_foreground";
+    static final String accentColorName = "accent";
+
+    private static volatile FirebasePluginResourceIndex instance = null;
+
+    private final Resources resources;
+    private final String packageName;
+    private final Configuration configuration;
+    private final Map<String, Integer> drawables = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> colors = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> raws = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Integer> strings = new ConcurrentHashMap<String, Integer>();
+    private final Map<Integer, Bitmap> largeIcons = new ConcurrentHashMap<Integer, Bitmap>();
+    private final Map<String, Uri> soundUris = new ConcurrentHashMap<String, Uri>();
+    private volatile Integer accentColor = null;
+
+    public static FirebasePluginResourceIndex get(Context context) {
+        FirebasePluginResourceIndex index = instance;
+        Configuration current = context.getResources().getConfiguration();
+        if (index == null || index.configuration.diff(current) != 0) {
+            synchronized (FirebasePluginResourceIndex.class) {
+                index = instance;
+                if (index == null || index.configuration.diff(current) != 0) {
+                    index = new FirebasePluginResourceIndex(context.getApplicationContext());
+                    instance = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Discards the index so it is rebuilt against the new configuration on next use.
+     */
+    public static void invalidate() {
+        synchronized (FirebasePluginResourceIndex.class) {
+            instance = null;
+        }
+        Log.d(TAG, "FirebasePluginResourceIndex: Invalidated");
+    }
+
+    private FirebasePluginResourceIndex(Context context) {
+        resources = context.getResources();
+        packageName = context.getPackageName();
+        configuration = new Configuration(resources.getConfiguration());
+
+        // Resolve the names used for every notification up front
+        getDrawableId(FirebasePluginMessagingService.defaultSmallIconName);
+        getDrawableId(FirebasePluginMessagingService.defaultLargeIconName);
+        getDrawableId(launcherForegroundIconName);
+        getColorId(accentColorName);
+        Log.d(TAG, "FirebasePluginResourceIndex: Built for locale " + configuration.locale);
+    }
+
+    public int getDrawableId(String name) {
+        return lookup(drawables, name, TYPE_DRAWABLE);
+    }
+
+    public int getColorId(String name) {
+        return lookup(colors, name, TYPE_COLOR);
+    }
+
+    public int getRawId(String name) {
+        return lookup(raws, name, TYPE_RAW);
+    }
+
+    public int getStringId(String name) {
+        return lookup(strings, name, TYPE_STRING);
+    }
+
+    /**
+     * @return the string resource with the given name, or null if there is none
+     */
+    public String getString(String name) {
+        int id = getStringId(name);
+        return id != 0 ? resources.getString(id) : null;
+    }
+
+    /**
+     * @return the default notification accent color, or null if the app doesn't define one
+     */
+    public Integer getAccentColor() {
+        Integer color = accentColor;
+        if (color == null) {
+            int id = getColorId(accentColorName);
+            if (id == 0) return null;
+            color = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? resources.getColor(id, null) : resources.getColor(id);
+            accentColor = color;
+        }
+        return color;
+    }
+
+    /**
+     * @return the decoded large icon for the given drawable ID, decoding it only on first use
+     */
+    public Bitmap getLargeIcon(int resId) {
+        if (resId == 0) return null;
+        Bitmap bitmap = largeIcons.get(resId);
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeResource(resources, resId);
+            if (bitmap != null) {
+                largeIcons.put(resId, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the URI of the raw sound resource with the given name
+     */
+    public Uri getSoundUri(String name) {
+        Uri uri = soundUris.get(name);
+        if (uri == null) {
+            int id = getRawId(name);
+            if (id != 0) {
+                uri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/" + id);
+            } else {
+                uri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/raw/" + name);
+            }
+            if (soundUris.size() < MAX_ENTRIES_PER_TYPE) {
+                soundUris.put(name, uri);
+            }
+        }
+        return uri;
+    }
+
+    private int lookup(Map<String, Integer> map, String name, String type) {
+        if (name == null || name.isEmpty()) return 0;
+        Integer id = map.get(name);
+        if (id == null) {
+            id = resources.getIdentifier(name, type, packageName);
+            if (map.size() < MAX_ENTRIES_PER_TYPE) {
+                map.put(name, id);
+            }
+        }
+        return id;
+    }
+}
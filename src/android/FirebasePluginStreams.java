@@ -0,0 +1,267 @@
+package org.apache.cordova.firebase;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Credit-based flow control for streams of results sent to JavaScript, e.g. keep-callback results, so a fast
+ * producer can't flood the bridge faster than JavaScript handles them.
+ * JavaScript grants a stream credits, each event sent uses one, and once they run out events are held natively
+ * until more are granted. How held events are kept depends on the stream's policy: all of them queued, only the
+ * latest (conflated), or up to a bound, dropping the oldest.
+ */
+public class FirebasePluginStreams {
+
+    private static final String TAG = "FirebasePlugin";
+
+    /** Credits a stream starts with if not specified; the JS wrapper uses the same window */
+    public static final int DEFAULT_CREDITS = 16;
+    /** Credits of a stream which isn't flow-controlled */
+    public static final int UNLIMITED = -1;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    public enum Policy {
+        /** Hold every event */
+        QUEUE,
+        /** Hold only the latest event, for streams of state where only the current value matters */
+        CONFLATE,
+        /** Hold up to the stream's capacity, dropping the oldest */
+        DROP_OLDEST;
+
+        static Policy parse(String value, Policy defaultPolicy) {
+            if (value == null) return defaultPolicy;
+            switch (value) {
+                case "queue":
+                    return QUEUE;
+                case "conflate":
+                    return CONFLATE;
+                case "dropOldest":
+                    return DROP_OLDEST;
+                default:
+                    Log.w(TAG, "FirebasePluginStreams: Unknown policy '" + value + "', using " + defaultPolicy);
+                    return defaultPolicy;
+            }
+        }
+
+        @Override
+        public String toString() {
+            switch (this) {
+                case CONFLATE:
+                    return "conflate";
+                case DROP_OLDEST:
+                    return "dropOldest";
+                default:
+                    return "queue";
+            }
+        }
+    }
+
+    /**
+     * Sends an event to JavaScript.
+     */
+    public interface Sink<T> {
+        void send(T event);
+    }
+
+    /**
+     * Events held outside the stream itself, e.g. messages in the message journal, counted towards its depth.
+     */
+    public interface Backlog {
+        int depth();
+    }
+
+    public static final class Stream<T> {
+        public final String id;
+        public final Policy policy;
+        private final int capacity;
+        private final Sink<T> sink;
+        private final Runnable onCredit;
+        private final Backlog backlog;
+        private final ArrayDeque<T> held = new ArrayDeque<T>();
+        private int credits;
+        private boolean closed = false;
+
+        private long sentCount = 0;
+        private long heldCount = 0;
+        private long conflatedCount = 0;
+        private long droppedCount = 0;
+
+        Stream(String id, Policy policy, int capacity, int credits, Sink<T> sink, Runnable onCredit, Backlog backlog) {
+            this.id = id;
+            this.policy = policy;
+            this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+            this.credits = credits;
+            this.sink = sink;
+            this.onCredit = onCredit;
+            this.backlog = backlog;
+        }
+
+        /**
+         * Sends the event if the stream has credit, otherwise holds it according to the stream's policy.
+         * Events are sent under the stream's lock so they reach the sink in order.
+         * @return true if the event was sent
+         */
+        public synchronized boolean emit(T event) {
+            if (closed) return false;
+            if (held.isEmpty() && hasCredit()) {
+                send(event);
+                return true;
+            }
+            switch (policy) {
+                case CONFLATE:
+                    if (!held.isEmpty()) {
+                        conflatedCount += held.size();
+                        held.clear();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    if (held.size() >= capacity) {
+                        held.poll();
+                        droppedCount++;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            held.add(event);
+            heldCount++;
+            return false;
+        }
+
+        /**
+         * Adds credits, sending held events with them.
+         */
+        public void grant(int count) {
+            synchronized (this) {
+                if (closed || credits == UNLIMITED || count <= 0) return;
+                credits = (int) Math.min(Integer.MAX_VALUE, (long) credits + count);
+                while (!held.isEmpty() && credits > 0) {
+                    send(held.poll());
+                }
+            }
+            // Run outside the lock as it may emit events itself
+            if (onCredit != null) {
+                onCredit.run();
+            }
+        }
+
+        /**
+         * @return the number of events which may be sent now, or UNLIMITED
+         */
+        public synchronized int getCredits() {
+            return credits;
+        }
+
+        public synchronized boolean hasCredit() {
+            return credits == UNLIMITED || credits > 0;
+        }
+
+        public int getDepth() {
+            int heldSize;
+            synchronized (this) {
+                heldSize = held.size();
+            }
+            // Outside the lock, as the backlog has locks of its own
+            return heldSize + (backlog != null ? backlog.depth() : 0);
+        }
+
+        synchronized void close() {
+            closed = true;
+            held.clear();
+        }
+
+        JSONObject getMetrics() throws JSONException {
+            JSONObject metrics = new JSONObject();
+            metrics.put("depth", getDepth());
+            synchronized (this) {
+                metrics.put("policy", policy.toString());
+                metrics.put("credits", credits);
+                metrics.put("sent", sentCount);
+                metrics.put("held", heldCount);
+                metrics.put("conflated", conflatedCount);
+                metrics.put("dropped", droppedCount);
+            }
+            return metrics;
+        }
+
+        private void send(T event) {
+            if (credits != UNLIMITED) {
+                credits--;
+            }
+            sentCount++;
+            sink.send(event);
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Stream<?>> streams = new ConcurrentHashMap<String, Stream<?>>();
+
+    /**
+     * Opens a stream, replacing any open stream with the same ID.
+     * @param credits initial credits, or UNLIMITED for a stream which isn't flow-controlled
+     * @param onCredit (optional) run when credits are granted, for streams which hold events in their backlog
+     * @param backlog (optional) events held outside the stream
+     */
+    public static <T> Stream<T> open(String id, Policy policy, int capacity, int credits, Sink<T> sink, Runnable onCredit, Backlog backlog) {
+        Stream<T> stream = new Stream<T>(id, policy, capacity, credits, sink, onCredit, backlog);
+        Stream<?> previous = streams.put(id, stream);
+        if (previous != null) {
+            previous.close();
+        }
+        return stream;
+    }
+
+    /**
+     * Opens a stream described by JavaScript as {"id": "...", "credits": n, "policy": "queue" | "conflate" | "dropOldest", "capacity": n}.
+     * If there is no descriptor, e.g. on an older JS API, the stream isn't flow-controlled.
+     */
+    public static <T> Stream<T> open(JSONObject descriptor, String defaultId, Policy defaultPolicy, Sink<T> sink, Runnable onCredit, Backlog backlog) {
+        if (descriptor == null || !descriptor.has("id")) {
+            return open(defaultId, defaultPolicy, 0, UNLIMITED, sink, onCredit, backlog);
+        }
+        int credits = descriptor.optInt("credits", DEFAULT_CREDITS);
+        return open(descriptor.optString("id"),
+                Policy.parse(descriptor.optString("policy", null), defaultPolicy),
+                descriptor.optInt("capacity", DEFAULT_CAPACITY),
+                credits > 0 ? credits : DEFAULT_CREDITS,
+                sink, onCredit, backlog);
+    }
+
+    /**
+     * @return false if there is no open stream with the ID, e.g. because it has been closed
+     */
+    public static boolean grant(String id, int count) {
+        Stream<?> stream = streams.get(id);
+        if (stream == null) return false;
+        stream.grant(count);
+        return true;
+    }
+
+    public static void close(Stream<?> stream) {
+        if (stream == null) return;
+        streams.remove(stream.id, stream);
+        stream.close();
+    }
+
+    /**
+     * Closes all streams, e.g. because the WebView has been reset so their callbacks are gone.
+     */
+    public static void closeAll() {
+        for (Stream<?> stream : streams.values()) {
+            stream.close();
+        }
+        streams.clear();
+    }
+
+    public static JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        for (Stream<?> stream : streams.values()) {
+            metrics.put(stream.id, stream.getMetrics());
+        }
+        return metrics;
+    }
+}
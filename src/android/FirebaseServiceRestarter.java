@@ -9,13 +9,14 @@ import android.util.Log;
 /**
  * Restarts FirebaseForegroundService on boot or when killed
  * Needed for devices with aggressive battery optimization (Lenovo, Xiaomi, Huawei, etc.)
+ * Also reschedules pending background jobs, such as notification actions in the outbox
  */
 public class FirebaseServiceRestarter extends BroadcastReceiver {
     
     private static final String TAG = "FirebasePlugin";
     
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, Intent intent) {
         String action = intent.getAction();
         Log.d(TAG, "FirebaseServiceRestarter: onReceive - action=" + action);
         
@@ -24,9 +25,24 @@ public class FirebaseServiceRestarter extends BroadcastReceiver {
             
             Log.d(TAG, "FirebaseServiceRestarter: Ensuring FCM service is ready");
             
-            // Just log - FirebaseMessagingService should handle itself
+            // FirebaseMessagingService should handle itself
             // But we ensure it's enabled by this receiver being triggered
             Log.d(TAG, "FirebaseServiceRestarter: FCM service should be active now");
+
+            // Persisted jobs normally survive a reboot, but not a force-stop, so make sure they are all scheduled
+            final PendingResult result = goAsync();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FirebasePluginJobQueue.getInstance(context).rescheduleAll();
+                    } catch (Exception e) {
+                        FirebasePlugin.handleExceptionWithoutContext(e);
+                    } finally {
+                        result.finish();
+                    }
+                }
+            }).start();
         }
     }
 }
@@ -0,0 +1,51 @@
+package org.apache.cordova.firebase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Action button of a notification, as specified in the "actions" field of a message's data payload:
+ * {"id":"reply","title":"Reply","icon":"ic_reply","requiresInput":true,"inputPlaceholder":"Type a reply"}
+ */
+public final class NotificationAction {
+    public final String id;
+    public final String title;
+    public final String icon;
+    public final boolean requiresInput;
+    public final String inputPlaceholder;
+
+    public NotificationAction(String id, String title, String icon, boolean requiresInput, String inputPlaceholder) {
+        this.id = id;
+        this.title = title;
+        this.icon = icon;
+        this.requiresInput = requiresInput;
+        this.inputPlaceholder = inputPlaceholder;
+    }
+
+    /**
+     * @return the action, or null if it is missing its id or title
+     */
+    public static NotificationAction fromJson(JSONObject json) {
+        String id = json.optString("id", null);
+        String title = json.optString("title", null);
+        if (id == null || title == null) return null;
+        return new NotificationAction(
+                id,
+                title,
+                json.optString("icon", null),
+                json.optBoolean("requiresInput", false),
+                json.optString("inputPlaceholder", null)
+        );
+    }
+
+    /**
+     * @return the fields of the action passed to JavaScript
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("title", title);
+        json.put("icon", icon);
+        return json;
+    }
+}
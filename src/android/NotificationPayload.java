@@ -0,0 +1,248 @@
+package org.apache.cordova.firebase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Immutable model of the notification fields of a received message.
+ * Built by walking the message's data map once, recognising the notification_* keys in a single switch,
+ * and parsing numeric fields (priority, visibility, vibrate, light) and the actions JSON up front.
+ * Uses no Android APIs so it can be exercised on a plain JVM.
+ */
+public final class NotificationPayload {
+
+    public static final String MESSAGE_TYPE_NOTIFICATION = "notification";
+    public static final String MESSAGE_TYPE_DATA = "data";
+
+    public final String messageType;
+    public final String id;
+    public final String title;
+    public final String body;
+    public final String bodyHtml;
+    public final String sound;
+    public final String color;
+    public final String icon;
+    public final String channelId;
+    public final String image;
+    public final String imageType;
+    public final boolean foregroundNotification;
+
+    /** Raw values as received, passed on to JavaScript. */
+    public final String vibrate;
+    public final String light;
+    public final String visibility;
+    public final String priority;
+
+    /** Parsed values, null (or lightColor null) if absent or invalid. */
+    public final long[] vibratePattern;
+    public final String lightColor;
+    public final int lightOnMs;
+    public final int lightOffMs;
+    public final Integer visibilityValue;
+    public final Integer priorityValue;
+
+    /** Valid action buttons, never null. */
+    public final List<NotificationAction> actions;
+    /** Name of a registered action category, used when there are no inline actions. */
+    public final String category;
+
+    private NotificationPayload(Builder builder) {
+        messageType = builder.messageType;
+        id = builder.id;
+        title = builder.title;
+        body = builder.body;
+        bodyHtml = builder.bodyHtml;
+        sound = builder.sound;
+        color = builder.color;
+        icon = builder.icon;
+        channelId = builder.channelId;
+        image = builder.image;
+        imageType = builder.imageType;
+        foregroundNotification = builder.foregroundNotification;
+        vibrate = builder.vibrate;
+        light = builder.light;
+        visibility = builder.visibility;
+        priority = builder.priority;
+        vibratePattern = builder.vibratePattern;
+        lightColor = builder.lightColor;
+        lightOnMs = builder.lightOnMs;
+        lightOffMs = builder.lightOffMs;
+        visibilityValue = builder.visibilityValue;
+        priorityValue = builder.priorityValue;
+        actions = builder.actions != null ? Collections.unmodifiableList(builder.actions) : Collections.<NotificationAction>emptyList();
+        category = builder.category;
+    }
+
+    public boolean hasActions() {
+        return !actions.isEmpty();
+    }
+
+    /**
+     * @return true if there is a title or body to display
+     */
+    public boolean hasContent() {
+        return !isEmpty(title) || !isEmpty(body);
+    }
+
+    @Override
+    public String toString() {
+        return "messageType=" + messageType + "; id=" + id + "; title=" + title + "; body=" + body + "; sound=" + sound
+                + "; vibrate=" + vibrate + "; light=" + light + "; color=" + color + "; icon=" + icon + "; channel=" + channelId
+                + "; visibility=" + visibility + "; priority=" + priority + "; image=" + image + "; imageType=" + imageType
+                + "; actions=" + actions.size() + "; category=" + category;
+    }
+
+    public static final class Builder {
+        private final String messageType;
+        private String id;
+        private String fallbackId;
+        private String title;
+        private String body;
+        private String bodyHtml;
+        private String sound;
+        private String color;
+        private String icon;
+        private String channelId;
+        private String image;
+        private String imageType;
+        private boolean foregroundNotification;
+        private String vibrate;
+        private String light;
+        private String visibility;
+        private String priority;
+        private long[] vibratePattern;
+        private String lightColor;
+        private int lightOnMs;
+        private int lightOffMs;
+        private Integer visibilityValue;
+        private Integer priorityValue;
+        private List<NotificationAction> actions;
+        private String category;
+
+        public Builder(String messageType) {
+            this.messageType = messageType;
+        }
+
+        public Builder setId(String id) { this.id = id; return this; }
+        /** ID to use if the payload doesn't specify one; a random ID is generated if this is also empty. */
+        public Builder setFallbackId(String fallbackId) { this.fallbackId = fallbackId; return this; }
+        public Builder setTitle(String title) { this.title = title; return this; }
+        public Builder setBody(String body) { this.body = body; return this; }
+        public Builder setSound(String sound) { this.sound = sound; return this; }
+        public Builder setColor(String color) { this.color = color; return this; }
+        public Builder setIcon(String icon) { this.icon = icon; return this; }
+        public Builder setChannelId(String channelId) { this.channelId = channelId; return this; }
+        public Builder setImage(String image) { this.image = image; return this; }
+
+        /**
+         * Applies the notification fields of a message's data payload, which override those of its notification payload.
+         */
+        public Builder parseData(Map<String, String> data) {
+            if (data == null) return this;
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                String value = entry.getValue();
+                switch (entry.getKey()) {
+                    case "notification_foreground": foregroundNotification = true; break;
+                    case "notification_title": title = value; break;
+                    case "notification_body": body = value; break;
+                    case "notification_android_body_html": bodyHtml = value; break;
+                    case "notification_android_channel_id": channelId = value; break;
+                    case "notification_android_id": id = value; break;
+                    case "notification_android_sound": sound = value; break;
+                    case "notification_android_vibrate": setVibrate(value); break;
+                    // String containing hex ARGB color, milliseconds on, milliseconds off, e.g. '#FFFF00FF,1000,3000'
+                    case "notification_android_light": setLight(value); break;
+                    case "notification_android_color": color = value; break;
+                    case "notification_android_icon": icon = value; break;
+                    case "notification_android_visibility": visibility = value; visibilityValue = parseInteger(value); break;
+                    case "notification_android_priority": priority = value; priorityValue = parseInteger(value); break;
+                    case "notification_android_image": image = value; break;
+                    case "notification_android_image_type": imageType = value; break;
+                    case "actions": actions = parseActions(value); break;
+                    case "notification_android_category": category = isEmpty(value) ? null : value; break;
+                    default: break;
+                }
+            }
+            return this;
+        }
+
+        public NotificationPayload build() {
+            if (isEmpty(id)) id = fallbackId;
+            if (isEmpty(id)) id = UUID.randomUUID().toString();
+            return new NotificationPayload(this);
+        }
+
+        private void setVibrate(String value) {
+            vibrate = value;
+            vibratePattern = null;
+            if (value == null) return;
+            try {
+                String[] parts = value.replaceAll("\\s", "").split(",");
+                long[] pattern = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    pattern[i] = Integer.parseInt(parts[i]);
+                }
+                vibratePattern = pattern;
+            } catch (NumberFormatException e) {
+                // Invalid pattern is ignored
+            }
+        }
+
+        private void setLight(String value) {
+            light = value;
+            lightColor = null;
+            if (value == null) return;
+            String[] parts = value.replaceAll("\\s", "").split(",");
+            if (parts.length != 3) return;
+            try {
+                lightOnMs = Integer.parseInt(parts[1]);
+                lightOffMs = Integer.parseInt(parts[2]);
+                lightColor = parts[0];
+            } catch (NumberFormatException e) {
+                // Invalid light is ignored
+            }
+        }
+
+        private static Integer parseInteger(String value) {
+            if (value == null) return null;
+            try {
+                return Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Expected format: [{"id":"accept","title":"Accept","icon":"ic_accept"},{"id":"reject","title":"Reject","icon":"ic_reject"}]
+         * Malformed JSON yields no actions and actions missing an id or title are skipped.
+         */
+        private static List<NotificationAction> parseActions(String json) {
+            List<NotificationAction> actions = new ArrayList<NotificationAction>();
+            if (isEmpty(json)) return actions;
+            try {
+                JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject object = array.optJSONObject(i);
+                    NotificationAction action = object != null ? NotificationAction.fromJson(object) : null;
+                    if (action != null) {
+                        actions.add(action);
+                    }
+                }
+            } catch (JSONException e) {
+                actions.clear();
+            }
+            return actions;
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+}
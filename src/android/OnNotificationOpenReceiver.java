@@ -19,7 +19,8 @@ public class OnNotificationOpenReceiver extends BroadcastReceiver {
             Intent launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
             launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
 
-            Bundle data = intent.getExtras();
+            // Restore the payload the intent references, which is no longer needed once the notification has been tapped
+            Bundle data = FirebasePluginPayloadStore.rehydrate(context, intent.getExtras(), true);
             if(!data.containsKey("messageType")) data.putString("messageType", "notification");
             data.putString("tap", FirebasePlugin.inBackground() ? "background" : "foreground");
 
@@ -27,7 +28,7 @@ public class OnNotificationOpenReceiver extends BroadcastReceiver {
 
             FirebasePlugin.sendMessage(data, context);
 
-            launchIntent.putExtras(data);
+            launchIntent.putExtras(FirebasePluginPayloadStore.launchExtras(context, data));
             context.startActivity(launchIntent);
         }catch (Exception e){
             FirebasePlugin.handleExceptionWithoutContext(e);
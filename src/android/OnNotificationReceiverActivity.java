@@ -26,7 +26,8 @@ public class OnNotificationReceiverActivity extends Activity {
 
     private static void handleNotification(Context context, Intent intent) {
         try{
-            Bundle data = intent.getExtras();
+            // Restore the payload the intent references, which is no longer needed once the notification has been tapped
+            Bundle data = FirebasePluginPayloadStore.rehydrate(context, intent.getExtras(), true);
             if(!data.containsKey("messageType")) data.putString("messageType", "notification");
             
             // Dismiss the notification if notificationId is present
@@ -59,12 +60,18 @@ public class OnNotificationReceiverActivity extends Activity {
             }
             FirebasePlugin.sendMessage(data, context);
 
+            // Send the request of an action routed to HTTP which also requires UI
+            FirebasePluginActionRouter.Route route = FirebasePluginActionRouter.getInstance(context).get(action);
+            if (route != null) {
+                FirebasePluginActionRouter.getInstance(context).dispatch(route, data);
+            }
+
             // Launch main activity to bring app to foreground
             PackageManager pm = context.getPackageManager();
             Intent launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
             // Use SINGLE_TOP to reuse existing activity instead of creating new one
             launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            launchIntent.putExtras(data);
+            launchIntent.putExtras(FirebasePluginPayloadStore.launchExtras(context, data));
             context.startActivity(launchIntent);
         }catch (Exception e){
             FirebasePlugin.handleExceptionWithoutContext(e);
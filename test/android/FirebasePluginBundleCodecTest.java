@@ -0,0 +1,152 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Round-trip test of the codec used to journal and store messages, run on the JVM by test/test-bundle-codec.sh
+ * against the stand-ins in test/android/stubs.
+ * Checks that each value type is restored with the type it was put with, and that a decoded message is delivered to
+ * JavaScript exactly as the original would have been.
+ */
+public class FirebasePluginBundleCodecTest {
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        failures += run("scalars", FirebasePluginBundleCodecTest::testScalars);
+        failures += run("arrays", FirebasePluginBundleCodecTest::testArrays);
+        failures += run("lists", FirebasePluginBundleCodecTest::testLists);
+        failures += run("nested bundles", FirebasePluginBundleCodecTest::testNestedBundles);
+        failures += run("untyped sequences", FirebasePluginBundleCodecTest::testUntypedSequences);
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All tests passed");
+    }
+
+    interface Test {
+        void run() throws Exception;
+    }
+
+    private static int run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (Throwable e) {
+            System.out.println("FAIL " + name + ": " + e);
+            return 1;
+        }
+    }
+
+    static void testScalars() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putString("title", "Hello \"world\"\n" + (char) 0x2028);
+        bundle.putBoolean("silent", true);
+        bundle.putInt("badge", 3);
+        bundle.putLong("sentTime", 1700000000000L);
+        bundle.putDouble("ratio", 0.25);
+        assertRoundTrip(bundle);
+    }
+
+    static void testArrays() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putStringArray("tags", new String[]{"a", null, "c,d"});
+        bundle.putBooleanArray("flags", new boolean[]{true, false});
+        bundle.putIntArray("counts", new int[]{1, -2, Integer.MAX_VALUE});
+        bundle.putLongArray("ids", new long[]{Long.MAX_VALUE, 0});
+        bundle.putDoubleArray("weights", new double[]{1.5, 2, -0.125});
+        bundle.putFloatArray("scales", new float[]{0.5f, 3f});
+        bundle.putStringArray("empty", new String[0]);
+        assertRoundTrip(bundle);
+    }
+
+    static void testLists() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putStringArrayList("names", new ArrayList<String>(Arrays.asList("x", "y")));
+        bundle.putIntegerArrayList("sizes", new ArrayList<Integer>(Arrays.asList(4, null, 6)));
+        assertRoundTrip(bundle);
+    }
+
+    static void testNestedBundles() throws Exception {
+        Bundle inner = new Bundle();
+        inner.putIntArray("points", new int[]{1, 2});
+        inner.putString("label", "inner");
+        Bundle bundle = new Bundle();
+        bundle.putBundle("data", inner);
+        assertRoundTrip(bundle);
+    }
+
+    /**
+     * A sequence which can't be restored with its type is still stored as its JSON, not as Java's toString().
+     */
+    static void testUntypedSequences() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putSerializable("mixed", new ArrayList<Object>(Arrays.asList("a", 1, true)));
+        Bundle decoded = FirebasePluginBundleCodec.decode(FirebasePluginBundleCodec.encode(bundle));
+        assertEquals("[\"a\",1,true]", decoded.get("mixed"), "mixed");
+    }
+
+    private static void assertRoundTrip(Bundle bundle) throws Exception {
+        Bundle decoded = FirebasePluginBundleCodec.decode(FirebasePluginBundleCodec.encode(bundle));
+        assertEquals(bundle, decoded, "bundle");
+        assertDeliveredEqual(bundle, decoded, "bundle");
+    }
+
+    /**
+     * Compares the JSON each value is delivered to JavaScript as; decoded values are grouped by type, so the order of
+     * keys differs.
+     */
+    private static void assertDeliveredEqual(Bundle expected, Bundle actual, String path) {
+        for (String key : expected.keySet()) {
+            Object value = expected.get(key);
+            if (value instanceof Bundle) {
+                assertDeliveredEqual((Bundle) value, actual.getBundle(key), path + "." + key);
+            } else {
+                assertEquals(FirebasePluginBundleJsonEncoder.encodeValue(value), FirebasePluginBundleJsonEncoder.encodeValue(actual.get(key)), path + "." + key + " as JSON");
+            }
+        }
+    }
+
+    private static void assertEquals(Object expected, Object actual, String path) {
+        if (expected instanceof Bundle && actual instanceof Bundle) {
+            Bundle expectedBundle = (Bundle) expected;
+            Bundle actualBundle = (Bundle) actual;
+            if (!expectedBundle.keySet().equals(actualBundle.keySet())) {
+                throw new AssertionError(path + ": keys " + actualBundle.keySet() + ", expected " + expectedBundle.keySet());
+            }
+            for (String key : expectedBundle.keySet()) {
+                assertEquals(expectedBundle.get(key), actualBundle.get(key), path + "." + key);
+            }
+            return;
+        }
+        if (expected != null && actual != null && expected.getClass().isArray()) {
+            if (expected.getClass() != actual.getClass()) {
+                throw new AssertionError(path + ": " + actual.getClass().getSimpleName() + ", expected " + expected.getClass().getSimpleName());
+            }
+            int length = Array.getLength(expected);
+            if (Array.getLength(actual) != length) {
+                throw new AssertionError(path + ": length " + Array.getLength(actual) + ", expected " + length);
+            }
+            for (int i = 0; i < length; i++) {
+                assertEquals(Array.get(expected, i), Array.get(actual, i), path + "[" + i + "]");
+            }
+            return;
+        }
+        if (expected instanceof Collection && !(actual instanceof ArrayList)) {
+            throw new AssertionError(path + ": " + actual + " is not a list");
+        }
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(path + ": " + describe(actual) + ", expected " + describe(expected));
+        }
+    }
+
+    private static String describe(Object value) {
+        return value == null ? "null" : value + " (" + value.getClass().getSimpleName() + ")";
+    }
+}
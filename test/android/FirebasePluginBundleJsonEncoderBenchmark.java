@@ -0,0 +1,91 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Microbenchmark of encoding message Bundles for delivery to JavaScript, run on the JVM by
+ * test/benchmark-bundle-json.sh against the stand-ins in test/android/stubs.
+ * Compares the previous path, which put each value into a JSONObject and serialized it, with
+ * FirebasePluginBundleJsonEncoder, for payloads of 20, 50 and 200 keys. Reports the time and the bytes allocated per
+ * message. org.json is the test stand-in rather than Android's, so the figures compare the two approaches rather than
+ * predicting timings on a device.
+ */
+public class FirebasePluginBundleJsonEncoderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 50000;
+
+    interface Encoding {
+        String encode(Bundle bundle) throws Exception;
+    }
+
+    private static final Encoding JSON_OBJECT = new Encoding() {
+        @Override
+        @SuppressWarnings("deprecation")
+        public String encode(Bundle bundle) throws Exception {
+            JSONObject json = new JSONObject();
+            for (String key : bundle.keySet()) {
+                json.put(key, bundle.get(key));
+            }
+            return json.toString();
+        }
+    };
+
+    private static final Encoding ENCODER = new Encoding() {
+        @Override
+        public String encode(Bundle bundle) {
+            return FirebasePluginBundleJsonEncoder.encode(bundle);
+        }
+    };
+
+    // Written so the JIT can't discard the encodings
+    static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(String.format("%-6s %-12s %12s %14s %10s", "keys", "path", "ns/message", "bytes/message", "chars"));
+        for (int keys : new int[]{20, 50, 200}) {
+            Bundle bundle = payload(keys);
+            run(keys, "JSONObject", JSON_OBJECT, bundle);
+            run(keys, "encoder", ENCODER, bundle);
+        }
+    }
+
+    /**
+     * A message as FCM delivers it, mostly string fields, with a few typed values as the plugin adds them.
+     */
+    static Bundle payload(int keys) {
+        Bundle bundle = new Bundle();
+        bundle.putString("google.message_id", "0:1700000000000000%abcdef0123456789");
+        bundle.putLong("google.sent_time", 1700000000000L);
+        bundle.putString("messageType", "notification");
+        bundle.putBoolean("tap", false);
+        bundle.putInt("badge", 3);
+        for (int i = bundle.size(); i < keys; i++) {
+            bundle.putString("field" + i, "Value of field " + i + " with \"quotes\" and\nnewlines");
+        }
+        return bundle;
+    }
+
+    private static void run(int keys, String name, Encoding encoding, Bundle bundle) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += encoding.encode(bundle).length();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int chars = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            chars = encoding.encode(bundle).length();
+            sink += chars;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(String.format("%-6d %-12s %12d %14d %10d", keys, name,
+                elapsed / MEASURED_ITERATIONS, allocated / MEASURED_ITERATIONS, chars));
+    }
+}
@@ -0,0 +1,247 @@
+package org.apache.cordova.firebase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stress test of the single-flight drain used to send the message journal to JavaScript, run on the JVM by
+ * test/test-drain-scheduler.sh.
+ * Producers append to a model of the journal and request a drain, as sendMessage() does; the drain sends in batches
+ * limited by credits, as drainPendingNotifications() does. Checks that drains never overlap, every message is sent
+ * exactly once and in order, and none is left behind once the producers stop.
+ */
+public class FirebasePluginDrainSchedulerTest {
+
+    private static final int BATCH_SIZE = 10;
+
+    /**
+     * Model of the journal and its delivery state.
+     */
+    static class Journal implements FirebasePluginDrainScheduler.Drain {
+        final AtomicLong lastSeq = new AtomicLong(0);
+        final AtomicLong deliveredSeq = new AtomicLong(0);
+        final AtomicInteger credits;
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final AtomicLong drains = new AtomicLong(0);
+        volatile String failure = null;
+
+        Journal(int credits) {
+            this.credits = new AtomicInteger(credits);
+        }
+
+        long append() {
+            return lastSeq.incrementAndGet();
+        }
+
+        @Override
+        public boolean hasWork() {
+            return lastSeq.get() > deliveredSeq.get() && credits.get() != 0;
+        }
+
+        @Override
+        public void drain() {
+            int concurrent = running.incrementAndGet();
+            maxRunning.accumulateAndGet(concurrent, Math::max);
+            drains.incrementAndGet();
+            try {
+                while (true) {
+                    int available = credits.get();
+                    if (available == 0) break;
+                    int batchSize = available < 0 ? BATCH_SIZE : Math.min(available, BATCH_SIZE);
+                    long from = deliveredSeq.get();
+                    long to = Math.min(lastSeq.get(), from + batchSize);
+                    if (to == from) break;
+                    // Only one drain may advance delivery, so it must still be where this one left it
+                    if (!deliveredSeq.compareAndSet(from, to)) {
+                        failure = "Delivery advanced by another drain from " + from;
+                        return;
+                    }
+                    if (available > 0) {
+                        credits.addAndGet(-(int) (to - from));
+                    }
+                    Thread.yield();
+                }
+                // Work done after the last look at the journal, e.g. flushing a frame, widens the window in which
+                // a message can be appended after the drain has stopped looking but before its flag is cleared
+                LockSupport.parkNanos(20000);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        failures += run("concurrent producers", FirebasePluginDrainSchedulerTest::testConcurrentProducers);
+        failures += run("bursts of messages", FirebasePluginDrainSchedulerTest::testBursts);
+        failures += run("producers with credits", FirebasePluginDrainSchedulerTest::testCredits);
+        failures += run("rejected execution", FirebasePluginDrainSchedulerTest::testRejectedExecution);
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All tests passed");
+    }
+
+    interface Test {
+        void run() throws Exception;
+    }
+
+    private static int run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (Throwable e) {
+            System.out.println("FAIL " + name + ": " + e);
+            return 1;
+        }
+    }
+
+    /**
+     * Many producers append and request drains at once, repeatedly, so appends land while a drain is finishing.
+     */
+    static void testConcurrentProducers() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            Journal journal = new Journal(-1);
+            ExecutorService pool = Executors.newCachedThreadPool();
+            FirebasePluginDrainScheduler scheduler = new FirebasePluginDrainScheduler(pool, journal);
+            produce(journal, scheduler, 8, 2000);
+            awaitDelivered(journal, scheduler);
+            pool.shutdownNow();
+            check(journal);
+        }
+    }
+
+    /**
+     * Short bursts, so the last message of each often lands as a drain finishes, which is where a wakeup would be lost.
+     */
+    static void testBursts() throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        for (int round = 0; round < 2000; round++) {
+            Journal journal = new Journal(-1);
+            FirebasePluginDrainScheduler scheduler = new FirebasePluginDrainScheduler(pool, journal);
+            produce(journal, scheduler, 4, 1 + round % 5);
+            awaitDelivered(journal, scheduler);
+            check(journal);
+        }
+        pool.shutdownNow();
+    }
+
+    /**
+     * Producers append while the drain runs out of credits, and a consumer grants more as it goes, as JavaScript does.
+     */
+    static void testCredits() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final Journal journal = new Journal(16);
+            ExecutorService pool = Executors.newCachedThreadPool();
+            final FirebasePluginDrainScheduler scheduler = new FirebasePluginDrainScheduler(pool, journal);
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (done.getCount() > 0 || journal.deliveredSeq.get() < journal.lastSeq.get()) {
+                        if (journal.credits.get() < 4) {
+                            journal.credits.addAndGet(16);
+                            scheduler.request();
+                        }
+                        Thread.yield();
+                    }
+                }
+            });
+            consumer.start();
+            produce(journal, scheduler, 4, 2000);
+            done.countDown();
+            consumer.join(TimeUnit.SECONDS.toMillis(10));
+            awaitDelivered(journal, scheduler);
+            pool.shutdownNow();
+            check(journal);
+        }
+    }
+
+    /**
+     * A drain which couldn't be scheduled mustn't leave the scheduler believing one is running.
+     */
+    static void testRejectedExecution() throws Exception {
+        Journal journal = new Journal(-1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        pool.shutdown();
+        FirebasePluginDrainScheduler scheduler = new FirebasePluginDrainScheduler(pool, journal);
+        journal.append();
+        try {
+            scheduler.request();
+            throw new AssertionError("Expected the request to be rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        if (scheduler.isDraining()) {
+            throw new AssertionError("Scheduler still draining after rejected execution");
+        }
+
+        ExecutorService running = Executors.newSingleThreadExecutor();
+        scheduler = new FirebasePluginDrainScheduler(running, journal);
+        scheduler.request();
+        awaitDelivered(journal, scheduler);
+        running.shutdownNow();
+        check(journal);
+    }
+
+    private static void produce(final Journal journal, final FirebasePluginDrainScheduler scheduler, int producers, final int messagesEach) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < messagesEach; n++) {
+                        journal.append();
+                        scheduler.request();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Waits for the drains to catch up with the producers; a lost wakeup leaves messages behind with no drain running.
+     */
+    private static void awaitDelivered(Journal journal, FirebasePluginDrainScheduler scheduler) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2);
+        while (journal.deliveredSeq.get() < journal.lastSeq.get() || scheduler.isDraining()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Delivered " + journal.deliveredSeq.get() + " of " + journal.lastSeq.get()
+                        + " messages, draining " + scheduler.isDraining());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void check(Journal journal) {
+        if (journal.failure != null) {
+            throw new AssertionError(journal.failure);
+        }
+        if (journal.maxRunning.get() != 1) {
+            throw new AssertionError(journal.maxRunning.get() + " drains ran at once");
+        }
+        if (journal.deliveredSeq.get() != journal.lastSeq.get()) {
+            throw new AssertionError("Delivered " + journal.deliveredSeq.get() + " of " + journal.lastSeq.get() + " messages");
+        }
+    }
+}
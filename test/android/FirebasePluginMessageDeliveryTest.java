@@ -0,0 +1,385 @@
+package org.apache.cordova.firebase;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of the bookkeeping which keeps journaled messages until JavaScript acknowledges them, run on the JVM by
+ * test/test-drain-scheduler.sh.
+ * Drives FirebasePluginMessageDelivery and FirebasePluginDrainScheduler as FirebasePlugin does, with a model of the
+ * journal: producers append messages and request a drain, as sendMessage() does; the drain sends batches to the
+ * current callback, as drainPendingNotifications() does; an acknowledger acknowledges what the callback received, as
+ * ackMessages() does; and the callback is reset and replaced, as onReset() and onMessageReceived() do.
+ * Checks that drains never overlap, each callback receives messages in order, the journal only releases messages
+ * which were acknowledged or handled natively, and every message is received once the producers stop.
+ */
+public class FirebasePluginMessageDeliveryTest {
+
+    private static final int BATCH_SIZE = 10;
+
+    /**
+     * Model of the message journal, holding whether each message is handled natively rather than sent to JavaScript.
+     */
+    static class Journal {
+        private final TreeMap<Long, Boolean> messages = new TreeMap<Long, Boolean>();
+        private long lastSeq = 0;
+        final Set<Long> handledNatively = ConcurrentHashMap.newKeySet();
+        final Set<Long> handedOff = ConcurrentHashMap.newKeySet();
+        final Set<Long> acknowledged = ConcurrentHashMap.newKeySet();
+        volatile String failure = null;
+
+        synchronized long append(boolean handledNatively) {
+            messages.put(++lastSeq, handledNatively);
+            if (handledNatively) {
+                this.handledNatively.add(lastSeq);
+            }
+            return lastSeq;
+        }
+
+        synchronized List<Map.Entry<Long, Boolean>> peekAfter(long afterSeq, int max) {
+            List<Map.Entry<Long, Boolean>> entries = new ArrayList<Map.Entry<Long, Boolean>>();
+            for (Map.Entry<Long, Boolean> entry : messages.tailMap(afterSeq, false).entrySet()) {
+                if (entries.size() == max) break;
+                entries.add(new AbstractMap.SimpleImmutableEntry<Long, Boolean>(entry));
+            }
+            return entries;
+        }
+
+        synchronized void consumeThrough(long seq) {
+            Iterator<Map.Entry<Long, Boolean>> it = messages.headMap(seq, true).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Boolean> entry = it.next();
+                if (!handedOff.contains(entry.getKey())) {
+                    failure = "Released message " + entry.getKey() + " before it was handed off";
+                } else if (!entry.getValue() && !acknowledged.contains(entry.getKey())) {
+                    failure = "Released message " + entry.getKey() + " before it was acknowledged";
+                }
+                it.remove();
+            }
+        }
+
+        synchronized long getLastSeq() {
+            return lastSeq;
+        }
+
+        synchronized boolean isEmpty() {
+            return messages.isEmpty();
+        }
+    }
+
+    /**
+     * A JavaScript callback, recording the messages sent to it.
+     */
+    static class Callback {
+        private final List<Long> received = new ArrayList<Long>();
+        private int acknowledgedIndex = 0;
+
+        synchronized void receive(long seq, Journal journal) {
+            if (!received.isEmpty() && seq <= received.get(received.size() - 1)) {
+                journal.failure = "Callback received " + seq + " after " + received.get(received.size() - 1);
+            }
+            received.add(seq);
+        }
+
+        /**
+         * @return the last message received since the previous call, or 0 if none, as JavaScript passes to ackMessages()
+         */
+        synchronized long takeUnacknowledged(Journal journal) {
+            if (acknowledgedIndex == received.size()) return 0;
+            journal.acknowledged.addAll(received.subList(acknowledgedIndex, received.size()));
+            acknowledgedIndex = received.size();
+            return received.get(received.size() - 1);
+        }
+
+        synchronized List<Long> getReceived() {
+            return new ArrayList<Long>(received);
+        }
+    }
+
+    /**
+     * The plugin's delivery state, with the callback swapped while holding the delivery lock as FirebasePlugin does.
+     */
+    static class Plugin implements FirebasePluginDrainScheduler.Drain {
+        final Journal journal = new Journal();
+        final FirebasePluginMessageDelivery delivery = new FirebasePluginMessageDelivery();
+        final List<Callback> callbacks = new ArrayList<Callback>();
+        volatile Callback callback = null;
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        void setCallback(Callback callback) {
+            synchronized (delivery) {
+                delivery.reset();
+                this.callback = callback;
+                if (callback != null) {
+                    synchronized (callbacks) {
+                        callbacks.add(callback);
+                    }
+                }
+            }
+        }
+
+        void acknowledge() {
+            Callback current = callback;
+            if (current == null) return;
+            long upToSeq = current.takeUnacknowledged(journal);
+            if (upToSeq > 0) {
+                release(delivery.acknowledge(upToSeq));
+            }
+        }
+
+        private void release(long releasableSeq) {
+            if (releasableSeq > 0) {
+                journal.consumeThrough(releasableSeq);
+            }
+        }
+
+        @Override
+        public boolean hasWork() {
+            return callback != null && !journal.isEmpty() && delivery.hasUndelivered(journal.getLastSeq());
+        }
+
+        @Override
+        public void drain() {
+            int concurrent = running.incrementAndGet();
+            maxRunning.accumulateAndGet(concurrent, Math::max);
+            try {
+                while (true) {
+                    Callback current;
+                    FirebasePluginMessageDelivery.Cursor cursor;
+                    synchronized (delivery) {
+                        current = callback;
+                        if (current == null) break;
+                        cursor = delivery.begin();
+                    }
+                    List<Map.Entry<Long, Boolean>> entries = journal.peekAfter(cursor.afterSeq, BATCH_SIZE);
+                    if (entries.isEmpty()) break;
+                    List<Long> sentSeqs = new ArrayList<Long>(entries.size());
+                    for (Map.Entry<Long, Boolean> entry : entries) {
+                        journal.handedOff.add(entry.getKey());
+                        if (!entry.getValue()) {
+                            current.receive(entry.getKey(), journal);
+                            sentSeqs.add(entry.getKey());
+                        }
+                    }
+                    Thread.yield();
+                    long releasableSeq = delivery.delivered(cursor, entries.get(entries.size() - 1).getKey(), sentSeqs);
+                    if (releasableSeq < 0) break;
+                    release(releasableSeq);
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = 0;
+        failures += run("release order", FirebasePluginMessageDeliveryTest::testReleaseOrder);
+        failures += run("reset during a batch", FirebasePluginMessageDeliveryTest::testResetDuringBatch);
+        failures += run("acknowledged before recorded", FirebasePluginMessageDeliveryTest::testAcknowledgedBeforeRecorded);
+        failures += run("concurrent delivery", FirebasePluginMessageDeliveryTest::testConcurrentDelivery);
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All tests passed");
+    }
+
+    interface Test {
+        void run() throws Exception;
+    }
+
+    private static int run(String name, Test test) {
+        try {
+            test.run();
+            System.out.println("PASS " + name);
+            return 0;
+        } catch (Throwable e) {
+            System.out.println("FAIL " + name + ": " + e);
+            return 1;
+        }
+    }
+
+    /**
+     * Messages are released up to the first one awaiting acknowledgement, and handled ones with those before them.
+     */
+    static void testReleaseOrder() {
+        FirebasePluginMessageDelivery delivery = new FirebasePluginMessageDelivery();
+        assertEquals(1L, delivery.delivered(delivery.begin(), 5, Arrays.asList(2L, 4L)), "released after delivery");
+        assertEquals(true, delivery.hasUndelivered(6), "undelivered after 5");
+        assertEquals(false, delivery.hasUndelivered(5), "undelivered through 5");
+        assertEquals(1L, delivery.acknowledge(1), "released after acknowledging nothing sent");
+        assertEquals(3L, delivery.acknowledge(2), "released after acknowledging 2");
+        assertEquals(5L, delivery.acknowledge(4), "released after acknowledging 4");
+        assertEquals(2L, delivery.getAcknowledgedCount(), "acknowledged");
+        assertEquals(0, delivery.getUnacknowledgedCount(), "unacknowledged");
+    }
+
+    /**
+     * A batch sent to a callback which has since been reset isn't recorded, so it is replayed to the next.
+     */
+    static void testResetDuringBatch() {
+        FirebasePluginMessageDelivery delivery = new FirebasePluginMessageDelivery();
+        delivery.delivered(delivery.begin(), 3, Arrays.asList(1L, 2L, 3L));
+        FirebasePluginMessageDelivery.Cursor cursor = delivery.begin();
+        assertEquals(3L, cursor.afterSeq, "cursor");
+        assertEquals(3, delivery.reset(), "replayed");
+        assertEquals(-1L, delivery.delivered(cursor, 6, Arrays.asList(4L, 5L, 6L)), "stale batch");
+        assertEquals(0L, delivery.getDeliveredSeq(), "delivered after reset");
+        assertEquals(0, delivery.getUnacknowledgedCount(), "unacknowledged after reset");
+        assertEquals(3L, delivery.getReplayedCount(), "replayed count");
+    }
+
+    /**
+     * JavaScript can acknowledge a batch before the drain which sent it has recorded it as delivered.
+     */
+    static void testAcknowledgedBeforeRecorded() {
+        FirebasePluginMessageDelivery delivery = new FirebasePluginMessageDelivery();
+        FirebasePluginMessageDelivery.Cursor cursor = delivery.begin();
+        assertEquals(0L, delivery.acknowledge(2), "released before recorded");
+        assertEquals(2L, delivery.delivered(cursor, 3, Arrays.asList(1L, 2L, 3L)), "released once recorded");
+        assertEquals(1, delivery.getUnacknowledgedCount(), "unacknowledged");
+        assertEquals(2L, delivery.getAcknowledgedCount(), "acknowledged");
+    }
+
+    /**
+     * Producers, an acknowledger and callback resets all run at once, repeatedly.
+     */
+    static void testConcurrentDelivery() throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        for (int round = 0; round < 20; round++) {
+            final Plugin plugin = new Plugin();
+            final FirebasePluginDrainScheduler scheduler = new FirebasePluginDrainScheduler(pool, plugin);
+            plugin.setCallback(new Callback());
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread acknowledger = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (done.getCount() > 0) {
+                        plugin.acknowledge();
+                        scheduler.request();
+                        Thread.yield();
+                    }
+                }
+            });
+            Thread resetter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int resets = 0;
+                    while (done.getCount() > 0) {
+                        // As onReset() then onMessageReceived() when the page reloads
+                        if (resets++ % 2 == 0) {
+                            plugin.setCallback(null);
+                        }
+                        plugin.setCallback(new Callback());
+                        scheduler.request();
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            });
+            acknowledger.start();
+            resetter.start();
+            produce(plugin, scheduler, 4, 2000);
+            resetter.interrupt();
+            resetter.join();
+            plugin.setCallback(new Callback());
+            scheduler.request();
+            awaitReleased(plugin, scheduler);
+            done.countDown();
+            acknowledger.join();
+            check(plugin);
+        }
+        pool.shutdownNow();
+    }
+
+    private static void produce(final Plugin plugin, final FirebasePluginDrainScheduler scheduler, int producers, final int messagesEach) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int n = 0; n < messagesEach; n++) {
+                        // Some messages are taken by a registered receiver rather than sent to JavaScript
+                        plugin.journal.append((n + producer) % 7 == 0);
+                        scheduler.request();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Waits for every message to be acknowledged and released; a lost wakeup or a skipped replay leaves some behind.
+     */
+    private static void awaitReleased(Plugin plugin, FirebasePluginDrainScheduler scheduler) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!plugin.journal.isEmpty() || scheduler.isDraining()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Journal not released: delivered " + plugin.delivery.getDeliveredSeq() + " of "
+                        + plugin.journal.getLastSeq() + ", " + plugin.delivery.getUnacknowledgedCount()
+                        + " unacknowledged, draining " + scheduler.isDraining());
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void check(Plugin plugin) {
+        Journal journal = plugin.journal;
+        if (journal.failure != null) {
+            throw new AssertionError(journal.failure);
+        }
+        if (plugin.maxRunning.get() != 1) {
+            throw new AssertionError(plugin.maxRunning.get() + " drains ran at once");
+        }
+        Set<Long> received = ConcurrentHashMap.newKeySet();
+        synchronized (plugin.callbacks) {
+            for (Callback callback : plugin.callbacks) {
+                received.addAll(callback.getReceived());
+            }
+        }
+        for (long seq = 1; seq <= journal.getLastSeq(); seq++) {
+            if (!journal.handedOff.contains(seq)) {
+                throw new AssertionError("Message " + seq + " was never handed off");
+            }
+            if (!journal.handledNatively.contains(seq) && !received.contains(seq)) {
+                throw new AssertionError("Message " + seq + " was never received");
+            }
+        }
+        assertEquals(0, plugin.delivery.getUnacknowledgedCount(), "unacknowledged");
+    }
+
+    private static void assertEquals(Object expected, Object actual, String name) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": " + actual + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package android.os;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal JVM stand-in for android.os.Bundle, so classes which only store values in Bundles can be tested on the JVM.
+ * Holds values in a map with the typed accessors the plugin uses; nothing is parcelled.
+ */
+public class Bundle {
+
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    public Bundle() {
+    }
+
+    public Bundle(Bundle bundle) {
+        values.putAll(bundle.values);
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    public void putAll(Bundle bundle) {
+        values.putAll(bundle.values);
+    }
+
+    public void putString(String key, String value) { values.put(key, value); }
+    public void putBoolean(String key, boolean value) { values.put(key, value); }
+    public void putInt(String key, int value) { values.put(key, value); }
+    public void putLong(String key, long value) { values.put(key, value); }
+    public void putFloat(String key, float value) { values.put(key, value); }
+    public void putDouble(String key, double value) { values.put(key, value); }
+    public void putBundle(String key, Bundle value) { values.put(key, value); }
+    public void putStringArray(String key, String[] value) { values.put(key, value); }
+    public void putBooleanArray(String key, boolean[] value) { values.put(key, value); }
+    public void putIntArray(String key, int[] value) { values.put(key, value); }
+    public void putLongArray(String key, long[] value) { values.put(key, value); }
+    public void putFloatArray(String key, float[] value) { values.put(key, value); }
+    public void putDoubleArray(String key, double[] value) { values.put(key, value); }
+    public void putStringArrayList(String key, ArrayList<String> value) { values.put(key, value); }
+    public void putIntegerArrayList(String key, ArrayList<Integer> value) { values.put(key, value); }
+    public void putSerializable(String key, Serializable value) { values.put(key, value); }
+
+    public String getString(String key) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public boolean getBoolean(String key) {
+        return getBoolean(key, false);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public int getInt(String key) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+
+    public long getLong(String key) {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : 0L;
+    }
+
+    public double getDouble(String key) {
+        Object value = values.get(key);
+        return value instanceof Double ? (Double) value : 0.0;
+    }
+
+    public Bundle getBundle(String key) {
+        Object value = values.get(key);
+        return value instanceof Bundle ? (Bundle) value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle" + values;
+    }
+}
@@ -0,0 +1,45 @@
+package org.apache.cordova;
+
+/**
+ * Minimal JVM stand-in for Cordova's PluginResult, so classes producing plugin results compile on the JVM.
+ */
+public class PluginResult {
+
+    public static final int MESSAGE_TYPE_STRING = 1;
+    public static final int MESSAGE_TYPE_JSON = 2;
+
+    public enum Status {
+        NO_RESULT,
+        OK,
+        ERROR
+    }
+
+    private final Status status;
+    private final String message;
+    private boolean keepCallback = false;
+
+    public PluginResult(Status status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getStatus() {
+        return status.ordinal();
+    }
+
+    public int getMessageType() {
+        return MESSAGE_TYPE_STRING;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean getKeepCallback() {
+        return keepCallback;
+    }
+
+    public void setKeepCallback(boolean keepCallback) {
+        this.keepCallback = keepCallback;
+    }
+}
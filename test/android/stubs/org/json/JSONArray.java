@@ -0,0 +1,89 @@
+package org.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal JVM stand-in for Android's org.json.JSONArray, following its coercion and formatting rules for the
+ * methods the plugin uses.
+ */
+public class JSONArray {
+
+    private final List<Object> values = new ArrayList<Object>();
+
+    public JSONArray() {
+    }
+
+    public JSONArray(String json) throws JSONException {
+        Object value = new JSONTokener(json).nextValue();
+        if (!(value instanceof JSONArray)) {
+            throw new JSONException("Value " + json + " is not a JSONArray");
+        }
+        values.addAll(((JSONArray) value).values);
+    }
+
+    public int length() {
+        return values.size();
+    }
+
+    public JSONArray put(Object value) {
+        values.add(value);
+        return this;
+    }
+
+    public Object opt(int index) {
+        return index >= 0 && index < values.size() ? values.get(index) : null;
+    }
+
+    public Object get(int index) throws JSONException {
+        Object value = opt(index);
+        if (value == null) {
+            throw new JSONException("Value at " + index + " is null");
+        }
+        return value;
+    }
+
+    public boolean isNull(int index) {
+        Object value = opt(index);
+        return value == null || value == JSONObject.NULL;
+    }
+
+    public String getString(int index) throws JSONException {
+        return String.valueOf(get(index));
+    }
+
+    public boolean getBoolean(int index) throws JSONException {
+        return JSONObject.toBoolean(get(index), index);
+    }
+
+    public int getInt(int index) throws JSONException {
+        return (int) JSONObject.toDouble(get(index), index);
+    }
+
+    public long getLong(int index) throws JSONException {
+        Object value = get(index);
+        return value instanceof Number ? ((Number) value).longValue() : (long) JSONObject.toDouble(value, index);
+    }
+
+    public double getDouble(int index) throws JSONException {
+        return JSONObject.toDouble(get(index), index);
+    }
+
+    public double optDouble(int index) {
+        try {
+            return JSONObject.toDouble(opt(index), index);
+        } catch (JSONException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) sb.append(',');
+            JSONObject.writeValue(sb, values.get(i));
+        }
+        return sb.append(']').toString();
+    }
+}
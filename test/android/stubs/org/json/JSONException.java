@@ -0,0 +1,11 @@
+package org.json;
+
+/**
+ * JVM stand-in for Android's org.json.JSONException.
+ */
+public class JSONException extends Exception {
+
+    public JSONException(String message) {
+        super(message);
+    }
+}
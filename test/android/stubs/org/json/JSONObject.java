@@ -0,0 +1,238 @@
+package org.json;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JVM stand-in for Android's org.json.JSONObject, following its coercion and formatting rules for the
+ * methods the plugin uses.
+ */
+public class JSONObject {
+
+    public static final Object NULL = new Object() {
+        @Override
+        public boolean equals(Object o) {
+            return o == this || o == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+    public JSONObject() {
+    }
+
+    public JSONObject(String json) throws JSONException {
+        Object value = new JSONTokener(json).nextValue();
+        if (!(value instanceof JSONObject)) {
+            throw new JSONException("Value " + json + " is not a JSONObject");
+        }
+        values.putAll(((JSONObject) value).values);
+    }
+
+    public JSONObject put(String name, Object value) throws JSONException {
+        if (value == null) {
+            values.remove(name);
+            return this;
+        }
+        if (value instanceof Number) {
+            checkDouble(((Number) value).doubleValue());
+        }
+        values.put(checkName(name), value);
+        return this;
+    }
+
+    public JSONObject put(String name, boolean value) throws JSONException {
+        values.put(checkName(name), value);
+        return this;
+    }
+
+    public JSONObject put(String name, int value) throws JSONException {
+        values.put(checkName(name), value);
+        return this;
+    }
+
+    public JSONObject put(String name, long value) throws JSONException {
+        values.put(checkName(name), value);
+        return this;
+    }
+
+    public JSONObject put(String name, double value) throws JSONException {
+        values.put(checkName(name), checkDouble(value));
+        return this;
+    }
+
+    public Object remove(String name) {
+        return values.remove(name);
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    public int length() {
+        return values.size();
+    }
+
+    public Iterator<String> keys() {
+        return values.keySet().iterator();
+    }
+
+    public Object opt(String name) {
+        return values.get(name);
+    }
+
+    public Object get(String name) throws JSONException {
+        Object value = values.get(name);
+        if (value == null) {
+            throw new JSONException("No value for " + name);
+        }
+        return value;
+    }
+
+    public String getString(String name) throws JSONException {
+        return String.valueOf(get(name));
+    }
+
+    public boolean getBoolean(String name) throws JSONException {
+        return toBoolean(get(name), name);
+    }
+
+    public int getInt(String name) throws JSONException {
+        return (int) toDouble(get(name), name);
+    }
+
+    public long getLong(String name) throws JSONException {
+        Object value = get(name);
+        return value instanceof Number ? ((Number) value).longValue() : (long) toDouble(value, name);
+    }
+
+    public double getDouble(String name) throws JSONException {
+        return toDouble(get(name), name);
+    }
+
+    public JSONObject getJSONObject(String name) throws JSONException {
+        Object value = get(name);
+        if (!(value instanceof JSONObject)) {
+            throw new JSONException("Value at " + name + " is not a JSONObject");
+        }
+        return (JSONObject) value;
+    }
+
+    public JSONObject optJSONObject(String name) {
+        Object value = values.get(name);
+        return value instanceof JSONObject ? (JSONObject) value : null;
+    }
+
+    public JSONArray getJSONArray(String name) throws JSONException {
+        Object value = get(name);
+        if (!(value instanceof JSONArray)) {
+            throw new JSONException("Value at " + name + " is not a JSONArray");
+        }
+        return (JSONArray) value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append(quote(entry.getKey())).append(':');
+            writeValue(sb, entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    public static String quote(String data) {
+        if (data == null) return "\"\"";
+        StringBuilder sb = new StringBuilder(data.length() + 2).append('"');
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '/': sb.append("\\/"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    if (c <= 0x1f) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static void writeValue(StringBuilder sb, Object value) {
+        if (value == null || value == NULL) {
+            sb.append("null");
+        } else if (value instanceof JSONObject || value instanceof JSONArray || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Number) {
+            sb.append(numberToString((Number) value));
+        } else {
+            // As Android's JSONStringer does, other objects are written as the string of their toString()
+            sb.append(quote(value.toString()));
+        }
+    }
+
+    static String numberToString(Number number) {
+        double doubleValue = number.doubleValue();
+        long longValue = number.longValue();
+        if (doubleValue == (double) longValue) {
+            return Long.toString(longValue);
+        }
+        return number.toString();
+    }
+
+    static boolean toBoolean(Object value, Object location) throws JSONException {
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof String) {
+            if ("true".equalsIgnoreCase((String) value)) return true;
+            if ("false".equalsIgnoreCase((String) value)) return false;
+        }
+        throw new JSONException("Value at " + location + " is not a boolean");
+    }
+
+    static double toDouble(Object value, Object location) throws JSONException {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new JSONException("Value at " + location + " is not a number");
+    }
+
+    private static String checkName(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        return name;
+    }
+
+    static double checkDouble(double d) throws JSONException {
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("Forbidden numeric value: " + d);
+        }
+        return d;
+    }
+}
@@ -0,0 +1,130 @@
+package org.json;
+
+/**
+ * Minimal JVM stand-in for Android's org.json.JSONTokener, parsing numbers to the narrowest of Integer, Long and
+ * Double as it does.
+ */
+public class JSONTokener {
+
+    private final String in;
+    private int pos;
+
+    public JSONTokener(String in) {
+        this.in = in;
+    }
+
+    public Object nextValue() throws JSONException {
+        char c = nextClean();
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+            case '\'':
+                return readString(c);
+            default:
+                pos--;
+                return readLiteral();
+        }
+    }
+
+    private char nextClean() throws JSONException {
+        while (pos < in.length()) {
+            char c = in.charAt(pos++);
+            if (!Character.isWhitespace(c)) return c;
+        }
+        throw new JSONException("End of input at character " + pos);
+    }
+
+    private JSONObject readObject() throws JSONException {
+        JSONObject object = new JSONObject();
+        if (nextClean() == '}') return object;
+        pos--;
+        while (true) {
+            Object name = nextValue();
+            if (nextClean() != ':') {
+                throw new JSONException("Expected ':' after " + name);
+            }
+            object.put(String.valueOf(name), nextValue());
+            char c = nextClean();
+            if (c == '}') return object;
+            if (c != ',') {
+                throw new JSONException("Unterminated object at character " + pos);
+            }
+        }
+    }
+
+    private JSONArray readArray() throws JSONException {
+        JSONArray array = new JSONArray();
+        if (nextClean() == ']') return array;
+        pos--;
+        while (true) {
+            array.put(nextValue());
+            char c = nextClean();
+            if (c == ']') return array;
+            if (c != ',') {
+                throw new JSONException("Unterminated array at character " + pos);
+            }
+        }
+    }
+
+    private String readString(char quote) throws JSONException {
+        StringBuilder sb = new StringBuilder();
+        while (pos < in.length()) {
+            char c = in.charAt(pos++);
+            if (c == quote) return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= in.length()) break;
+            char escaped = in.charAt(pos++);
+            switch (escaped) {
+                case 'u':
+                    if (pos + 4 > in.length()) {
+                        throw new JSONException("Unterminated escape sequence");
+                    }
+                    sb.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                default: sb.append(escaped);
+            }
+        }
+        throw new JSONException("Unterminated string");
+    }
+
+    private Object readLiteral() throws JSONException {
+        int start = pos;
+        while (pos < in.length() && ",:]}/\\\"[{;=# \t\n\r\f".indexOf(in.charAt(pos)) < 0) {
+            pos++;
+        }
+        String literal = in.substring(start, pos);
+        if (literal.isEmpty()) {
+            throw new JSONException("Expected literal value at character " + start);
+        }
+        if ("null".equalsIgnoreCase(literal)) return JSONObject.NULL;
+        if ("true".equalsIgnoreCase(literal)) return Boolean.TRUE;
+        if ("false".equalsIgnoreCase(literal)) return Boolean.FALSE;
+        if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+            try {
+                long longValue = Long.parseLong(literal);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException ignored) {
+        }
+        return literal;
+    }
+}
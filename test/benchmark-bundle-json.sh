@@ -0,0 +1,13 @@
+#!/bin/bash
+set -x #echo on
+set -e #exit on error
+
+# Benchmarks encoding message Bundles for delivery to JavaScript on the JVM, against the stand-ins for the Android
+# and Cordova APIs in test/android/stubs; needs only a JDK
+BUILD_DIR=$(mktemp -d)
+trap 'rm -rf "$BUILD_DIR"' EXIT
+
+javac -encoding UTF-8 -d "$BUILD_DIR" $(find ./test/android/stubs -name "*.java") \
+    ./src/android/FirebasePluginBundleJsonEncoder.java \
+    ./test/android/FirebasePluginBundleJsonEncoderBenchmark.java
+java -cp "$BUILD_DIR" org.apache.cordova.firebase.FirebasePluginBundleJsonEncoderBenchmark
@@ -0,0 +1,12 @@
+#!/bin/bash
+set -x #echo on
+set -e #exit on error
+
+# Stress tests the single-flight drain of the message journal and its delivery bookkeeping on the JVM; needs only a JDK
+BUILD_DIR=$(mktemp -d)
+trap 'rm -rf "$BUILD_DIR"' EXIT
+
+javac -d "$BUILD_DIR" ./src/android/FirebasePluginDrainScheduler.java ./src/android/FirebasePluginMessageDelivery.java \
+    ./test/android/FirebasePluginDrainSchedulerTest.java ./test/android/FirebasePluginMessageDeliveryTest.java
+java -cp "$BUILD_DIR" org.apache.cordova.firebase.FirebasePluginDrainSchedulerTest
+java -cp "$BUILD_DIR" org.apache.cordova.firebase.FirebasePluginMessageDeliveryTest
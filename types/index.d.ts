@@ -13,6 +13,190 @@ export interface IChannelOptions {
     streamType?: number
 }
 
+export interface IMessageReceivedOptions {
+    batch?: boolean
+    maxFrameSize?: number
+    manualAck?: boolean
+}
+
+export interface INotificationMetrics {
+    posted: number
+    coalesced: number
+    summaries: number
+    dropped: number
+    pendingGroups: number
+}
+
+export interface IMessageDedupMetrics {
+    checked: number
+    duplicates: number
+    hitRate: number
+    size: number
+}
+
+export interface ILatencyMetrics {
+    count: number
+    meanMs: number
+    p50Ms: number
+    p95Ms: number
+    p99Ms: number
+    maxMs: number
+}
+
+export interface IMessageReceiverMetrics {
+    name: string
+    priority: number
+    handled: number
+    timeouts: number
+    errors: number
+    onMessageReceived: ILatencyMetrics
+    sendMessage: ILatencyMetrics
+}
+
+export interface IProcessingStageMetrics extends ILatencyMetrics {
+    skipped: number
+}
+
+export interface IProcessingMetrics {
+    budgetMs: number
+    degradeThreshold: number
+    overBudget: number
+    stages: { [stage: string]: IProcessingStageMetrics }
+}
+
+export interface INotificationAction {
+    id: string
+    title: string
+    icon?: string
+    requiresInput?: boolean
+    inputPlaceholder?: string
+}
+
+export interface IActionRoute {
+    action: string
+    method?: string
+    url: string
+    body?: object | string
+    headers?: { [name: string]: string }
+    retry?: { maxAttempts: number }
+    requiresUi?: boolean
+}
+
+export interface INotificationCategory {
+    category: string
+    actions: INotificationAction[]
+}
+
+export interface IJobQueueMetrics {
+    pending: number
+    completed: number
+    retried: number
+    failed: number
+    collapsed: number
+}
+
+export interface IOutboxItem {
+    id: number
+    action: string
+    messageId?: string
+    attempts: number
+    createdAt: number
+    nextAttemptAt?: number
+    lastError?: string
+}
+
+export interface IOutboxStatus {
+    depth: number
+    items: IOutboxItem[]
+}
+
+export interface IImageMetrics {
+    transformed: number
+    poolHits: number
+    poolBytes: number
+    meanPeakBytes: number
+    maxPeakBytes: number
+}
+
+export interface IKeepaliveMetrics {
+    leases: number
+    coalesced: number
+    activeLeases: number
+    sessions: number
+    startFailures: number
+    foregroundMs: number
+}
+
+export interface IHttpMetrics {
+    requests: number
+    failures: number
+    connects: number
+    connectionReuse: number
+    connections: number
+    idleConnections: number
+    queued: number
+}
+
+export interface IReceiptMetrics {
+    pending: number
+    batches: number
+    meanBatchSize: number
+    maxBatchSize: number
+    individual: number
+    retried: number
+    dropped: number
+    latency: ILatencyMetrics
+}
+
+export interface IDeliveryMetrics {
+    pending: number
+    unacknowledged: number
+    acknowledged: number
+    replayed: number
+    dropped: number
+}
+
+export interface IStreamOptions {
+    policy?: "queue" | "conflate" | "dropOldest"
+    capacity?: number
+    credits?: number
+}
+
+export interface IStreamMetrics {
+    policy: "queue" | "conflate" | "dropOldest"
+    depth: number
+    credits: number
+    sent: number
+    held: number
+    conflated: number
+    dropped: number
+}
+
+export interface IJavascriptMetrics {
+    fragments: number
+    flushes: number
+    cappedFlushes: number
+    meanBatchSize: number
+    maxBatchSize: number
+    held: number
+    dropped: number
+}
+
+export interface IMessagingMetrics {
+    notifications: INotificationMetrics
+    dedup: IMessageDedupMetrics
+    receivers: IMessageReceiverMetrics[]
+    processing: IProcessingMetrics
+    jobs: IJobQueueMetrics
+    images: IImageMetrics
+    keepalive: IKeepaliveMetrics
+    http: IHttpMetrics
+    receipts: IReceiptMetrics
+    delivery: IDeliveryMetrics
+    streams: { [streamId: string]: IStreamMetrics }
+    javascript: IJavascriptMetrics
+}
+
 interface User {
     name: string;
     email: string;
@@ -45,8 +229,14 @@ export interface FirebasePlugin {
         error: (err: string) => void
     ): void
     onMessageReceived(
-        success: (value: object) => void,
-        error: (err: string) => void
+        success: (value: object | object[]) => void,
+        error: (err: string) => void,
+        options?: IMessageReceivedOptions
+    ): void
+    ackMessages(
+        upToSeq: number,
+        success?: () => void,
+        error?: (err: string) => void
     ): void
     onOpenSettings(
         success: () => void,
@@ -116,6 +306,24 @@ export interface FirebasePlugin {
         success: (list: { id: string; name: string }[]) => void,
         error: (err: string) => void
     ): void
+    setNotificationCategories(
+        categories: INotificationCategory[],
+        success?: () => void,
+        error?: (err: string) => void
+    ): void
+    setActionRoutes(
+        routes: IActionRoute[],
+        success?: () => void,
+        error?: (err: string) => void
+    ): void
+    getMessagingMetrics(
+        success: (metrics: IMessagingMetrics) => void,
+        error?: (err: string) => void
+    ): void
+    getOutboxStatus(
+        success: (status: IOutboxStatus) => void,
+        error?: (err: string) => void
+    ): void
     setAnalyticsCollectionEnabled(
         setEnabled: boolean
     ): void
@@ -491,14 +699,16 @@ export interface FirebasePlugin {
         error: (err: string) => void,
         documentId: string,
         collection: string,
-        includeMetadata?: boolean
+        includeMetadata?: boolean,
+        streamOptions?: IStreamOptions
     ): void
     listenToFirestoreCollection(
         success: (event: object) => void,
         error: (err: string) => void,
         collection: string,
         filters?: [object],
-        includeMetadata?: boolean
+        includeMetadata?: boolean,
+        streamOptions?: IStreamOptions
     ): void
     removeFirestoreListener(
         success: () => void,
@@ -34,15 +34,71 @@ var onInstallationIdChangeCallback = function(){};
 var onApplicationDidBecomeActiveCallback = function(){};
 var onApplicationDidEnterBackgroundCallback = function(){};
 
+// On Android, streams of results are flow-controlled: a stream is sent only as many results as it has been granted
+// credits, so credits are granted back as results are handled, half the window at a time
+var STREAM_CREDITS = 16;
+var nextStreamId = 1;
+
+var isAndroid = function(){
+    return typeof cordova !== 'undefined' && cordova.platformId === 'android';
+};
+
+var createStream = function(id, credits){
+    var handled = 0;
+    var threshold = Math.max(1, Math.floor(credits / 2));
+    return {
+        id: id,
+        handled: function(){
+            if(!isAndroid() || ++handled < threshold) return;
+            exec(function(){}, function(error){
+                console.error(error);
+            }, "FirebasePlugin", "grantStreamCredits", [id, handled]);
+            handled = 0;
+        }
+    };
+};
+
+var openStream = function(name, options){
+    options = options || {};
+    var credits = options.credits > 0 ? options.credits : STREAM_CREDITS;
+    var stream = createStream(name + "-" + (nextStreamId++), credits);
+    stream.descriptor = {id: stream.id, credits: credits};
+    if(options.policy) stream.descriptor.policy = options.policy;
+    if(options.capacity > 0) stream.descriptor.capacity = options.capacity;
+    return stream;
+};
+
+var streamCallback = function(stream, success){
+    return function(result){
+        try{
+            success(result);
+        }finally{
+            stream.handled();
+        }
+    };
+};
+
+// Opened natively with the same IDs and window
+var authStateStream = createStream("authState", STREAM_CREDITS);
+var authIdTokenStream = createStream("authIdToken", STREAM_CREDITS);
+
 /***********************
  * Protected internals
  ***********************/
 exports._onAuthStateChange = function(userSignedIn){
-    onAuthStateChangeCallback(userSignedIn);
+    try{
+        onAuthStateChangeCallback(userSignedIn);
+    }finally{
+        authStateStream.handled();
+    }
 };
 
 exports._onAuthIdTokenChange = function(token){
-    onAuthIdTokenChangeCallback(token);
+    try{
+        onAuthIdTokenChangeCallback(token);
+    }finally{
+        authIdTokenStream.handled();
+    }
 };
 
 exports._onInstallationIdChangeCallback = function(installationId){
@@ -71,12 +127,111 @@ exports.getAPNSToken = function (success, error) {
   exec(success, error, "FirebasePlugin", "getAPNSToken", []);
 };
 
-exports.onMessageReceived = function (success, error) {
-  exec(success, error, "FirebasePlugin", "onMessageReceived", []);
+// Android journals each message with a sequence number (_seq) until it is acknowledged, replaying unacknowledged
+// messages if the page is reloaded, so replays are filtered out here and successfully handled messages acknowledged in batches.
+// Acknowledgement is cumulative, so a message whose handler throws holds back those after it until it has been retried
+// enough times to be handled or given up on.
+var MESSAGE_ACK_DELAY_MS = 100;
+var MESSAGE_MAX_ATTEMPTS = 3;
+var MESSAGE_RETRY_DELAY_MS = 1000;
+var lastMessageSeq = 0;
+var ackedMessageSeq = 0;
+var unresolvedMessageSeqs = {};
+var messageAckTimer = null;
+
+var flushMessageAcks = function(){
+  messageAckTimer = null;
+  // Acknowledge up to the first message which is still being handled
+  var ackableMessageSeq = lastMessageSeq;
+  for(var seq in unresolvedMessageSeqs){
+    if(unresolvedMessageSeqs.hasOwnProperty(seq) && seq - 1 < ackableMessageSeq) ackableMessageSeq = seq - 1;
+  }
+  if(ackableMessageSeq <= ackedMessageSeq) return;
+  ackedMessageSeq = ackableMessageSeq;
+  exec(function(){}, function(error){
+    console.error(error);
+  }, "FirebasePlugin", "ackMessages", [ackedMessageSeq]);
+};
+
+var trackMessages = function(messages){
+  for(var i = 0; i < messages.length; i++){
+    if(typeof messages[i]._seq === 'number') unresolvedMessageSeqs[messages[i]._seq] = true;
+  }
+};
+
+var acknowledgeMessages = function(messages){
+  for(var i = 0; i < messages.length; i++){
+    delete unresolvedMessageSeqs[messages[i]._seq];
+  }
+  if(!messageAckTimer){
+    messageAckTimer = setTimeout(flushMessageAcks, MESSAGE_ACK_DELAY_MS);
+  }
+};
+
+var filterReplayedMessages = function(messages){
+  var fresh = [];
+  for(var i = 0; i < messages.length; i++){
+    var seq = messages[i]._seq;
+    if(typeof seq !== 'number'){
+      fresh.push(messages[i]);
+    }else if(seq > lastMessageSeq){
+      lastMessageSeq = seq;
+      fresh.push(messages[i]);
+    }
+  }
+  return fresh;
+};
+
+exports.onMessageReceived = function (success, error, options) {
+  options = options || {};
+  var receiveBatches = !!options.batch;
+  var autoAck = !options.manualAck;
+  var stream = openStream("messages");
+  var nativeOptions = {batch: true, stream: stream.descriptor};
+  if(typeof options.maxFrameSize === 'number') nativeOptions.maxFrameSize = options.maxFrameSize;
+
+  var handle = function(messages, value, attempts){
+    try{
+      success(value);
+      if(autoAck) acknowledgeMessages(messages);
+    }catch(e){
+      console.error(e);
+      if(!autoAck) return;
+      attempts = (attempts || 0) + 1;
+      if(attempts >= MESSAGE_MAX_ATTEMPTS){
+        // Dead-letter it rather than leaving it, and every message after it, unacknowledged
+        console.error("FirebasePlugin: giving up on message after " + attempts + " failed attempts", value);
+        acknowledgeMessages(messages);
+      }else{
+        setTimeout(function(){
+          handle(messages, value, attempts);
+        }, MESSAGE_RETRY_DELAY_MS * attempts);
+      }
+    }
+  };
+
+  // Pending messages may be delivered as an array frame: pass it on whole if the app opted in, otherwise unpack it
+  var onMessage = function(result){
+    var messages = filterReplayedMessages(Array.isArray(result) ? result : [result]);
+    if(!messages.length) return;
+    if(autoAck) trackMessages(messages);
+    if(receiveBatches) return handle(messages, messages);
+    for(var i = 0; i < messages.length; i++){
+      handle([messages[i]], messages[i]);
+    }
+  };
+  exec(streamCallback(stream, onMessage), error, "FirebasePlugin", "onMessageReceived", [nativeOptions]);
+};
+
+exports.ackMessages = function (upToSeq, success, error) {
+  if(typeof upToSeq !== 'number') return error && error("upToSeq must be a number");
+  if(upToSeq > ackedMessageSeq) ackedMessageSeq = upToSeq;
+  exec(success, error, "FirebasePlugin", "ackMessages", [upToSeq]);
 };
 
 exports.onTokenRefresh = function (success, error) {
-  exec(success, error, "FirebasePlugin", "onTokenRefresh", []);
+  var stream = openStream("tokenRefresh");
+  exec(streamCallback(stream, success), error, "FirebasePlugin", "onTokenRefresh", [{stream: stream.descriptor}]);
 };
 
 exports.onApnsTokenReceived = function (success, error) {
@@ -149,6 +304,24 @@ exports.listChannels = function (success, error) {
     exec(success, error, "FirebasePlugin", "listChannels", []);
 };
 
+exports.setNotificationCategories = function (categories, success, error) {
+    if(!Array.isArray(categories)) return error("'categories' must be an array");
+    exec(success, error, "FirebasePlugin", "setNotificationCategories", [categories]);
+};
+
+exports.setActionRoutes = function (routes, success, error) {
+    if(!Array.isArray(routes)) return error("'routes' must be an array");
+    exec(success, error, "FirebasePlugin", "setActionRoutes", [routes]);
+};
+
+exports.getMessagingMetrics = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getMessagingMetrics", []);
+};
+
+exports.getOutboxStatus = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getOutboxStatus", []);
+};
+
 // Analytics
 exports.setAnalyticsCollectionEnabled = function (enabled, success, error) {
     exec(success, error, "FirebasePlugin", "setAnalyticsCollectionEnabled", [!!enabled]);
@@ -558,18 +731,20 @@ exports.fetchFirestoreCollection = function (collection, filters, success, error
     exec(success, error, "FirebasePlugin", "fetchFirestoreCollection", [collection, filters || []]);
 };
 
-exports.listenToDocumentInFirestoreCollection = function (success, error, documentId, collection, includeMetadata) {
+exports.listenToDocumentInFirestoreCollection = function (success, error, documentId, collection, includeMetadata, streamOptions) {
     if(typeof documentId !== 'string' && typeof documentId !== 'number') return error("'documentId' must be a string or number specifying the Firestore document identifier");
     if(typeof collection !== 'string') return error("'collection' must be a string specifying the Firestore collection name");
 
-    exec(success, error, "FirebasePlugin", "listenToDocumentInFirestoreCollection", [documentId.toString(), collection, includeMetadata]);
+    var stream = openStream("firestoreDocument", streamOptions);
+    exec(streamCallback(stream, success), error, "FirebasePlugin", "listenToDocumentInFirestoreCollection", [documentId.toString(), collection, includeMetadata, stream.descriptor]);
 };
 
-exports.listenToFirestoreCollection = function (success, error, collection, filters, includeMetadata) {
+exports.listenToFirestoreCollection = function (success, error, collection, filters, includeMetadata, streamOptions) {
     if(typeof collection !== 'string') return error("'collection' must be a string specifying the Firestore collection name");
     if(filters && (typeof filters !== 'object' || typeof filters.length === 'undefined')) return error("'filters' must be a array specifying a list of filters to apply to documents in the Firestore collection");
 
-    exec(success, error, "FirebasePlugin", "listenToFirestoreCollection", [collection, filters, includeMetadata]);
+    var stream = openStream("firestoreCollection", streamOptions);
+    exec(streamCallback(stream, success), error, "FirebasePlugin", "listenToFirestoreCollection", [collection, filters, includeMetadata, stream.descriptor]);
 };
 
 exports.removeFirestoreListener = function (success, error, listenerId) {